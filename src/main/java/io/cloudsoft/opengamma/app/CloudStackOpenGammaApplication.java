@@ -5,7 +5,9 @@ import io.cloudsoft.networking.cloudstack.legacy.LegacyAbstractSubnetApp;
 import io.cloudsoft.networking.cloudstack.legacy.LegacySubnetTier;
 import io.cloudsoft.networking.cloudstack.loadbalancer.CloudStackLoadBalancer;
 import io.cloudsoft.networking.subnet.SubnetTier;
+import io.cloudsoft.opengamma.broker.OpenGammaBrokerMonitoring;
 import io.cloudsoft.opengamma.cluster.OpenGammaClusterFactory;
+import io.cloudsoft.opengamma.database.OpenGammaDatabaseMonitoring;
 import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
 
 import java.util.ArrayList;
@@ -86,12 +88,14 @@ public class CloudStackOpenGammaApplication extends LegacyAbstractSubnetApp impl
                 SubnetTier.DEFAULT_PUBLIC_HOSTNAME_AND_PORT,
                 ActiveMQBroker.JMX_URL,
                 ActiveMQBroker.JMX_PORT);
+        OpenGammaBrokerMonitoring.connectDestinationSensors(this, broker, getConfig(BROKER_MONITORED_DESTINATIONS));
+        OpenGammaDatabaseMonitoring.connectLoadSensors(this, database, getConfig(DATABASE_POLL_PERIOD));
 
         EntityFactory<ControlledDynamicWebAppCluster> ogWebClusterFactory = new CloudStackClusterFactory(this, broker, database, subnet);
         ControlledDynamicWebAppCluster webCluster = ogWebClusterFactory.newEntity(MutableMap.of(), subnet);
 
         // bubble up sensors (KPIs and access info) - in single-cluster mode it all comes from cluster (or is hard-coded)
-        OpenGammaMonitoringAggregation.promoteKpis(this, webCluster);
+        OpenGammaMonitoringAggregation.promoteKpis(this, webCluster, broker, database);
         setAttribute(OpenGammaMonitoringAggregation.REGIONS_COUNT, 1);
         this.addEnricher(SensorPropagatingEnricher.newInstanceListeningTo(webCluster, WebAppServiceConstants.ROOT_URL));
 
@@ -1,11 +1,23 @@
 package io.cloudsoft.opengamma.app;
 
+import io.cloudsoft.opengamma.cluster.CompositeScaling;
+import io.cloudsoft.opengamma.cluster.OpenGammaScalingMetric;
+import io.cloudsoft.opengamma.server.OpenGammaServer;
+
+import java.util.List;
+import java.util.Map;
+
 import brooklyn.catalog.CatalogConfig;
 import brooklyn.config.ConfigKey;
 import brooklyn.entity.basic.ConfigKeys;
 import brooklyn.entity.basic.StartableApplication;
 import brooklyn.entity.proxying.ImplementedBy;
 import brooklyn.entity.webapp.ControlledDynamicWebAppCluster;
+import brooklyn.util.time.Duration;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
 
 @ImplementedBy(ElasticOpenGammaApplication.class)
 public interface ClusteredOpenGammaApplication extends StartableApplication {
@@ -33,4 +45,89 @@ public interface ClusteredOpenGammaApplication extends StartableApplication {
     @CatalogConfig(label="Views-per-Server Target", priority=3.1)
     public static final ConfigKey<Double> VIEWS_PER_SERVER_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
             "opengamma.autoscaling.viewsPerServer.target", "Number of views per server to trigger scaling up", 1.0d);
+
+    @CatalogConfig(label="Auto-Scaling Metric", priority=3.05)
+    public static final ConfigKey<OpenGammaScalingMetric> SCALING_METRIC = ConfigKeys.newConfigKey(OpenGammaScalingMetric.class,
+            "opengamma.autoscaling.metric", "Per-server metric to scale on: VIEWS_PER_SERVER or CALC_JOBS_PER_SERVER " +
+            "(calc jobs completed per second), CALC_QUEUE_PER_SERVER (calc jobs waiting for a node) " +
+            "CYCLE_LATENCY (95th percentile view cycle duration) or COMPOSITE (views, CPU, processing time, calc queue " +
+            "and request latency per server, each against its target)", OpenGammaScalingMetric.VIEWS_PER_SERVER);
+
+    @CatalogConfig(label="Calc-Jobs-per-Second-per-Server Target", priority=3.2)
+    public static final ConfigKey<Double> CALC_JOBS_PER_SERVER_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.calcJobsPerServer.target", "Calc jobs per second per server to trigger scaling up " +
+            "(when scaling on CALC_JOBS_PER_SERVER)", 50.0d);
+
+    @CatalogConfig(label="Queued-Calc-Jobs-per-Server Target", priority=3.22)
+    public static final ConfigKey<Double> CALC_QUEUE_PER_SERVER_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.calcQueuePerServer.target", "Calc jobs waiting for a calc node per server to trigger " +
+            "scaling up (when scaling on CALC_QUEUE_PER_SERVER)", 4.0d);
+
+    @CatalogConfig(label="View Cycle Latency Target (ms)", priority=3.25)
+    public static final ConfigKey<Double> CYCLE_LATENCY_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.cycleLatency.target", "95th percentile view cycle duration (ms) across the cluster " +
+            "to trigger scaling up (when scaling on CYCLE_LATENCY)", 5000.0d);
+
+    @CatalogConfig(label="CPU-per-Server Target", priority=3.26)
+    public static final ConfigKey<Double> CPU_PER_SERVER_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.cpuPerServer.target", "Fraction of CPU time used per server to trigger scaling up " +
+            "(when scaling on COMPOSITE)", 0.75d);
+
+    @CatalogConfig(label="Processing-Time-per-Server Target", priority=3.27)
+    public static final ConfigKey<Double> PROCESSING_TIME_PER_SERVER_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.processingTimePerServer.target", "Fraction of time spent processing requests per server " +
+            "to trigger scaling up (when scaling on COMPOSITE)", 0.8d);
+
+    @CatalogConfig(label="Request Latency Target (ms)", priority=3.28)
+    public static final ConfigKey<Double> REQUEST_LATENCY_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.requestLatency.target", "95th percentile request latency (ms) across the cluster " +
+            "to trigger scaling up (when scaling on COMPOSITE)", 1000.0d);
+
+    public static final ConfigKey<Double> COMPOSITE_SCALING_TARGET = ConfigKeys.newDoubleConfigKey(
+            "opengamma.autoscaling.composite.target", "Load score (combined fraction of the metrics' targets) to trigger " +
+            "scaling up (when scaling on COMPOSITE)", 1.0d);
+
+    public static final ConfigKey<CompositeScaling.Combination> COMPOSITE_SCALING_COMBINATION = ConfigKeys.newConfigKey(
+            CompositeScaling.Combination.class, "opengamma.autoscaling.composite.combination", "How the metrics are " +
+            "combined (when scaling on COMPOSITE): MAX, scaling on whichever is furthest over its target, or WEIGHTED_MEAN",
+            CompositeScaling.Combination.MAX);
+
+    public static final ConfigKey<Map<String, Double>> COMPOSITE_SCALING_WEIGHTS = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, Double>>() {}, "opengamma.autoscaling.composite.weights",
+            "Weight of each metric (when scaling on COMPOSITE), by name: views, cpu, processingTime, calcQueue and " +
+            "latency; 0 leaves a metric out, and a metric not given has weight 1",
+            ImmutableMap.of(CompositeScaling.VIEWS, 1.0d, CompositeScaling.CPU, 1.0d, CompositeScaling.PROCESSING_TIME, 1.0d,
+                    CompositeScaling.CALC_QUEUE, 1.0d, CompositeScaling.LATENCY, 1.0d));
+
+    @CatalogConfig(label="Scale-Up Stabilisation", priority=3.29)
+    public static final ConfigKey<Duration> SCALE_UP_STABILISATION = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.autoscaling.stabilisation.up", "Time the scaling metric must stay over its threshold before " +
+            "scaling up", Duration.THIRTY_SECONDS);
+
+    @CatalogConfig(label="Scale-Down Stabilisation", priority=3.291)
+    public static final ConfigKey<Duration> SCALE_DOWN_STABILISATION = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.autoscaling.stabilisation.down", "Time the scaling metric must stay under its threshold before " +
+            "scaling down", Duration.FIVE_MINUTES);
+
+    @CatalogConfig(label="Standby Pool Size", priority=3.3)
+    public static final ConfigKey<Integer> STANDBY_POOL_SIZE = ConfigKeys.newIntegerConfigKey(
+            "opengamma.standby.poolSize", "Number of standby servers per cluster, kept ready (outside the load balancer) " +
+            "for fast scale-out; 0 for none", 0);
+
+    @CatalogConfig(label="Standby Pool Prelaunch", priority=3.4)
+    public static final ConfigKey<Boolean> STANDBY_POOL_PRELAUNCH = ConfigKeys.newBooleanConfigKey(
+            "opengamma.standby.prelaunch", "Whether standby servers are launched (or only installed) before promotion", true);
+
+    public static final ConfigKey<List<String>> BROKER_MONITORED_DESTINATIONS = ConfigKeys.newConfigKey(
+            new TypeToken<List<String>>() {}, "opengamma.broker.destinations",
+            "Names of the message bus destinations whose throughput and backlog the app publishes (* matches anything)",
+            ImmutableList.of("OpenGamma.LiveData.example.*", "OpenGamma.MasterChange.*"));
+
+    public static final ConfigKey<Duration> DATABASE_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.database.poll.period", "Interval between polls (over ssh) of the database's load", Duration.TEN_SECONDS);
+
+    /** same key as on the servers, so setting it here is inherited by every server in the app */
+    @CatalogConfig(label="Golden Image", priority=3.2)
+    public static final ConfigKey<Boolean> ENABLE_GOLDEN_IMAGE = ConfigKeys.newConfigKeyWithDefault(
+            OpenGammaServer.GOLDEN_IMAGE_ENABLED, false);
 }
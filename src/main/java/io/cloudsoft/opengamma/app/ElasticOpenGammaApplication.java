@@ -1,7 +1,9 @@
 package io.cloudsoft.opengamma.app;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import io.cloudsoft.opengamma.broker.OpenGammaBrokerMonitoring;
 import io.cloudsoft.opengamma.cluster.OpenGammaClusterFactory;
+import io.cloudsoft.opengamma.database.OpenGammaDatabaseMonitoring;
 import io.cloudsoft.opengamma.locations.CustomNginxControllerImpl;
 import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
 
@@ -86,6 +88,8 @@ public class ElasticOpenGammaApplication extends AbstractApplication implements
                 .configure(SoftwareProcess.PROVISIONING_PROPERTIES.subKey(JcloudsLocationConfig.MIN_RAM.getName()), "8192")
                 .configure(PostgreSqlNode.CREATION_SCRIPT_URL, "classpath:/io/cloudsoft/opengamma/config/create-brooklyn-db.sql")
                 .configure(PostgreSqlNode.DISCONNECT_ON_STOP, true));
+        OpenGammaBrokerMonitoring.connectDestinationSensors(this, broker, getConfig(BROKER_MONITORED_DESTINATIONS));
+        OpenGammaDatabaseMonitoring.connectLoadSensors(this, database, getConfig(DATABASE_POLL_PERIOD));
 
         // Now add the server tier, either multi-region (fabric) or fixed single-region (cluster)
 
@@ -116,7 +120,7 @@ public class ElasticOpenGammaApplication extends AbstractApplication implements
 
             // bubble up sensors (KPIs and access info), from WebFabric and GeoDNS
             OpenGammaMonitoringAggregation.aggregateOpenGammaClusterSensors(webFabric);
-            OpenGammaMonitoringAggregation.promoteKpis(this, webFabric);
+            OpenGammaMonitoringAggregation.promoteKpis(this, webFabric, broker, database);
             addEnricher(new SensorTransformingEnricher<Integer,Integer>(webFabric, Changeable.GROUP_SIZE, 
                     OpenGammaMonitoringAggregation.REGIONS_COUNT, Functions.<Integer>identity()));
             addEnricher(new SensorPropagatingEnricher(geoDns, WebAppServiceConstants.ROOT_URL));
@@ -129,7 +133,7 @@ public class ElasticOpenGammaApplication extends AbstractApplication implements
             Entity ogWebCluster = ogWebClusterFactory.newEntity(MutableMap.of(), this);
             
             // bubble up sensors (KPIs and access info) - in single-cluster mode it all comes from cluster (or is hard-coded)
-            OpenGammaMonitoringAggregation.promoteKpis(this, ogWebCluster);
+            OpenGammaMonitoringAggregation.promoteKpis(this, ogWebCluster, broker, database);
             setAttribute(OpenGammaMonitoringAggregation.REGIONS_COUNT, 1);
             addEnricher(SensorPropagatingEnricher.newInstanceListeningTo(ogWebCluster,  
                     WebAppServiceConstants.ROOT_URL));
@@ -0,0 +1,187 @@
+package io.cloudsoft.opengamma.broker;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Collects throughput and backlog of the broker's destinations which OpenGamma uses, discovered on each poll
+ * (OpenGamma creates its topics as servers subscribe): per destination, in
+ * {@link OpenGammaMonitoringAggregation#BROKER_DESTINATION_STATS}, and totalled over them.
+ * <p>
+ * Destination MBeans are found by either ActiveMQ naming scheme (5.8 changed it), and the enqueue and dequeue
+ * rates derived from their counts between polls.
+ */
+public class BrokerDestinationCollector implements JmxCollector {
+
+    public static final String ENQUEUES_PER_SECOND = "enqueuesPerSecond";
+    public static final String DEQUEUES_PER_SECOND = "dequeuesPerSecond";
+    public static final String PENDING = "pending";
+    public static final String CONSUMERS = "consumers";
+    public static final String MEMORY_PERCENT_USAGE = "memoryPercentUsage";
+
+    private static final List<ObjectName> DESTINATION_PATTERNS = ImmutableList.of(
+            // ActiveMQ 5.7 and earlier
+            JmxHelper.createObjectName("org.apache.activemq:Type=Topic,*"),
+            JmxHelper.createObjectName("org.apache.activemq:Type=Queue,*"),
+            // ActiveMQ 5.8 and later (subscriptions and the like have further keys)
+            JmxHelper.createObjectName("org.apache.activemq:type=Broker,destinationType=Topic,*"),
+            JmxHelper.createObjectName("org.apache.activemq:type=Broker,destinationType=Queue,*"));
+
+    private static final String[] ATTRIBUTES = { "EnqueueCount", "DequeueCount", "QueueSize", "ConsumerCount", "MemoryPercentUsage" };
+
+    private static class Counts {
+        double enqueued;
+        double dequeued;
+        long time;
+    }
+
+    private final EntityLocal entity;
+    private final List<Pattern> destinations;
+    private final Map<String, Counts> lastCounts = Maps.newHashMap();
+    private Map<String, Object> lastSignature = Maps.newHashMap();
+    private volatile int roundTrips = DESTINATION_PATTERNS.size();
+
+    /** @param destinations names of the destinations to collect from, where {@code *} matches anything */
+    public BrokerDestinationCollector(EntityLocal entity, List<String> destinations) {
+        this.entity = entity;
+        this.destinations = Lists.newArrayList();
+        for (String destination : destinations) {
+            this.destinations.add(Pattern.compile(Pattern.quote(destination).replace("*", "\\E.*\\Q")));
+        }
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Set<ObjectName> names = Sets.newLinkedHashSet();
+        for (ObjectName pattern : DESTINATION_PATTERNS) {
+            for (ObjectName name : connection.queryNames(pattern, null)) {
+                if (name.getKeyProperty("endpoint") == null && isMonitored(destinationName(name))) names.add(name);
+            }
+        }
+        roundTrips = DESTINATION_PATTERNS.size() + names.size();
+
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Double>> stats = Maps.newTreeMap();
+        Map<String, Object> signature = Maps.newHashMap();
+        for (ObjectName name : names) {
+            Map<String, Double> values = Maps.newHashMap();
+            try {
+                for (Attribute attribute : connection.getAttributes(name, ATTRIBUTES).asList()) {
+                    if (attribute.getValue() instanceof Number) {
+                        values.put(attribute.getName(), ((Number) attribute.getValue()).doubleValue());
+                    }
+                }
+            } catch (InstanceNotFoundException e) {
+                // the destination was removed since the query
+                continue;
+            }
+            String destination = destinationKey(name);
+            Map<String, Double> destinationStats = Maps.newLinkedHashMap();
+            Double enqueued = values.get("EnqueueCount");
+            Double dequeued = values.get("DequeueCount");
+            if (enqueued != null && dequeued != null) {
+                Counts last = lastCounts.get(destination);
+                // counts are reset if the broker restarts (or they are reset through JMX)
+                if (last != null && now > last.time && enqueued >= last.enqueued && dequeued >= last.dequeued) {
+                    destinationStats.put(ENQUEUES_PER_SECOND, (enqueued - last.enqueued) * 1000 / (now - last.time));
+                    destinationStats.put(DEQUEUES_PER_SECOND, (dequeued - last.dequeued) * 1000 / (now - last.time));
+                }
+                Counts counts = new Counts();
+                counts.enqueued = enqueued;
+                counts.dequeued = dequeued;
+                counts.time = now;
+                lastCounts.put(destination, counts);
+            }
+            putIfPresent(destinationStats, PENDING, values.get("QueueSize"));
+            putIfPresent(destinationStats, CONSUMERS, values.get("ConsumerCount"));
+            putIfPresent(destinationStats, MEMORY_PERCENT_USAGE, values.get("MemoryPercentUsage"));
+            stats.put(destination, destinationStats);
+            signature.put(destination, ImmutableList.of(String.valueOf(enqueued), String.valueOf(values.get("QueueSize"))));
+        }
+        lastCounts.keySet().retainAll(stats.keySet());
+
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_DESTINATION_STATS, stats);
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_DESTINATION_COUNT, stats.size());
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_ENQUEUES_PER_SECOND, sum(stats, ENQUEUES_PER_SECOND));
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_DEQUEUES_PER_SECOND, sum(stats, DEQUEUES_PER_SECOND));
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_PENDING_MESSAGES, sum(stats, PENDING).longValue());
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_CONSUMERS, sum(stats, CONSUMERS).intValue());
+        entity.setAttribute(OpenGammaMonitoringAggregation.BROKER_MEMORY_PERCENT_USAGE_MAX, max(stats, MEMORY_PERCENT_USAGE));
+
+        boolean changed = !Objects.equal(signature, lastSignature);
+        lastSignature = signature;
+        return changed;
+    }
+
+    protected boolean isMonitored(String destination) {
+        if (destination == null) return false;
+        for (Pattern pattern : destinations) {
+            if (pattern.matcher(destination).matches()) return true;
+        }
+        return false;
+    }
+
+    private static String destinationName(ObjectName name) {
+        String result = name.getKeyProperty("destinationName");
+        return (result != null) ? result : name.getKeyProperty("Destination");
+    }
+
+    /** The destination's name, qualified by its type when a queue (as topics and queues may share names). */
+    private static String destinationKey(ObjectName name) {
+        String type = name.getKeyProperty("destinationType");
+        if (type == null) type = name.getKeyProperty("Type");
+        return ("Queue".equals(type) ? "queue://" : "") + destinationName(name);
+    }
+
+    private static Double sum(Map<String, Map<String, Double>> stats, String stat) {
+        double result = 0;
+        for (Map<String, Double> destination : stats.values()) {
+            Double value = destination.get(stat);
+            if (value != null) result += value;
+        }
+        return result;
+    }
+
+    private static Double max(Map<String, Map<String, Double>> stats, String stat) {
+        Double result = null;
+        for (Map<String, Double> destination : stats.values()) {
+            Double value = destination.get(stat);
+            if (value != null && (result == null || value > result)) result = value;
+        }
+        return result;
+    }
+
+    private static void putIfPresent(Map<String, Double> stats, String stat, Double value) {
+        if (value != null) stats.put(stat, value);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+", "+destinations+"]";
+    }
+
+}
@@ -0,0 +1,50 @@
+package io.cloudsoft.opengamma.broker;
+
+import io.cloudsoft.opengamma.jmx.BulkJmxFeed;
+import io.cloudsoft.opengamma.server.OpenGammaServer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.messaging.activemq.ActiveMQBroker;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+
+/**
+ * Monitors the shared message bus broker's OpenGamma destinations, with a {@link BrokerDestinationCollector}
+ * polled while the broker is up. The broker is the single point of throughput for market data fan-out.
+ */
+public class OpenGammaBrokerMonitoring {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenGammaBrokerMonitoring.class);
+
+    /**
+     * Starts polling the broker's destinations matching the given names (where {@code *} matches anything)
+     * whenever it is up, at the poll periods configured on the app for the servers.
+     */
+    public static void connectDestinationSensors(final EntityLocal app, final ActiveMQBroker broker, final List<String> destinations) {
+        final AtomicReference<BulkJmxFeed> feed = new AtomicReference<BulkJmxFeed>();
+        app.subscribe(broker, ActiveMQBroker.SERVICE_UP, new SensorEventListener<Boolean>() {
+            @Override
+            public void onEvent(SensorEvent<Boolean> event) {
+                synchronized (feed) {
+                    if (Boolean.TRUE.equals(event.getValue()) && feed.get() == null) {
+                        LOG.debug("Monitoring destinations {} of broker {}", destinations, broker);
+                        feed.set(BulkJmxFeed.builder().entity((EntityLocal) broker)
+                                .period(app.getConfig(OpenGammaServer.JMX_POLL_PERIOD))
+                                .maxPeriod(app.getConfig(OpenGammaServer.JMX_POLL_MAX_PERIOD))
+                                .collector(new BrokerDestinationCollector((EntityLocal) broker, destinations))
+                                .build());
+                    } else if (!Boolean.TRUE.equals(event.getValue()) && feed.get() != null) {
+                        feed.getAndSet(null).stop();
+                    }
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,63 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
+
+import java.util.Map;
+
+import brooklyn.enricher.basic.AbstractEnricher;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+/**
+ * Publishes the cluster's {@link OpenGammaMonitoringAggregation#LOAD_SCORE load score}, combining the cluster's
+ * metrics as configured by a {@link CompositeScaling}, and the metric driving it, whenever one of them changes.
+ */
+public class CompositeLoadScoreEnricher extends AbstractEnricher {
+
+    private final CompositeScaling scaling;
+
+    public CompositeLoadScoreEnricher(CompositeScaling scaling) {
+        this.scaling = scaling;
+    }
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        super.setEntity(entity);
+        SensorEventListener<Object> listener = new SensorEventListener<Object>() {
+            @Override
+            public void onEvent(SensorEvent<Object> event) {
+                update();
+            }
+        };
+        for (AttributeSensor<Double> sensor : scaling.getSensors().values()) {
+            subscribe(entity, sensor, listener);
+        }
+        update();
+    }
+
+    protected synchronized void update() {
+        Map<String, Double> values = Maps.newLinkedHashMap();
+        for (Map.Entry<String, AttributeSensor<Double>> entry : scaling.getSensors().entrySet()) {
+            values.put(entry.getKey(), entity.getAttribute(entry.getValue()));
+        }
+        Double score = scaling.score(values);
+        if (!Objects.equal(score, entity.getAttribute(OpenGammaMonitoringAggregation.LOAD_SCORE))) {
+            entity.setAttribute(OpenGammaMonitoringAggregation.LOAD_SCORE, score);
+        }
+        String driver = scaling.driver(values);
+        if (!Objects.equal(driver, entity.getAttribute(OpenGammaMonitoringAggregation.LOAD_SCORE_DRIVER))) {
+            entity.setAttribute(OpenGammaMonitoringAggregation.LOAD_SCORE_DRIVER, driver);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+scaling+"]";
+    }
+
+}
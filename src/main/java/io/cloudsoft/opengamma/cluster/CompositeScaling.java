@@ -0,0 +1,148 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.app.ClusteredOpenGammaApplication;
+import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
+
+import java.util.Map;
+
+import brooklyn.event.AttributeSensor;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The metrics combined into the cluster's load score, for {@link OpenGammaScalingMetric#COMPOSITE} scaling: each
+ * metric as a fraction of its target (so 1 is at target), combined either by taking the highest (so the cluster
+ * scales out when any metric is over its target, and in only when all are well under) or by a weighted mean.
+ * <p>
+ * The metrics are views per server (which says nothing of how heavy the views are), CPU per server, request
+ * processing time per server, calc jobs queued per server and the cluster's 95th percentile request latency, with the
+ * targets of their own scaling metrics where they have one. A metric with weight 0 is left out.
+ */
+public class CompositeScaling {
+
+    public enum Combination {
+        /** the highest of the metrics' fractions of target: scale when any metric says so */
+        MAX,
+        /** the mean of the metrics' fractions of target, weighted */
+        WEIGHTED_MEAN
+    }
+
+    public static final String VIEWS = "views";
+    public static final String CPU = "cpu";
+    public static final String PROCESSING_TIME = "processingTime";
+    public static final String CALC_QUEUE = "calcQueue";
+    public static final String LATENCY = "latency";
+
+    /** The cluster sensor of each metric. */
+    public static final Map<String, AttributeSensor<Double>> SENSORS = ImmutableMap.of(
+            VIEWS, OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT_PER_NODE,
+            CPU, OpenGammaMonitoringAggregation.PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE,
+            PROCESSING_TIME, OpenGammaMonitoringAggregation.PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE,
+            CALC_QUEUE, OpenGammaMonitoringAggregation.CALC_JOB_QUEUE_DEPTH_PER_NODE,
+            LATENCY, OpenGammaMonitoringAggregation.REQUEST_LATENCY_P95);
+
+    private final Combination combination;
+    private final Map<String, Double> targets;
+    private final Map<String, Double> weights;
+
+    public CompositeScaling(Combination combination, Map<String, Double> targets, Map<String, Double> weights) {
+        this.combination = (combination != null) ? combination : Combination.MAX;
+        this.targets = ImmutableMap.copyOf(targets);
+        this.weights = ImmutableMap.copyOf(weights);
+    }
+
+    /** As configured on the application. */
+    public static CompositeScaling fromConfig(ClusteredOpenGammaApplication app) {
+        return new CompositeScaling(
+                app.getConfig(ClusteredOpenGammaApplication.COMPOSITE_SCALING_COMBINATION),
+                ImmutableMap.of(
+                        VIEWS, app.getConfig(ClusteredOpenGammaApplication.VIEWS_PER_SERVER_SCALING_TARGET),
+                        CPU, app.getConfig(ClusteredOpenGammaApplication.CPU_PER_SERVER_SCALING_TARGET),
+                        PROCESSING_TIME, app.getConfig(ClusteredOpenGammaApplication.PROCESSING_TIME_PER_SERVER_SCALING_TARGET),
+                        CALC_QUEUE, app.getConfig(ClusteredOpenGammaApplication.CALC_QUEUE_PER_SERVER_SCALING_TARGET),
+                        LATENCY, app.getConfig(ClusteredOpenGammaApplication.REQUEST_LATENCY_SCALING_TARGET)),
+                Objects.firstNonNull(app.getConfig(ClusteredOpenGammaApplication.COMPOSITE_SCALING_WEIGHTS),
+                        ImmutableMap.<String, Double>of()));
+    }
+
+    /** The configuration keys' defaults. */
+    public static CompositeScaling defaults() {
+        return new CompositeScaling(
+                ClusteredOpenGammaApplication.COMPOSITE_SCALING_COMBINATION.getDefaultValue(),
+                ImmutableMap.of(
+                        VIEWS, ClusteredOpenGammaApplication.VIEWS_PER_SERVER_SCALING_TARGET.getDefaultValue(),
+                        CPU, ClusteredOpenGammaApplication.CPU_PER_SERVER_SCALING_TARGET.getDefaultValue(),
+                        PROCESSING_TIME, ClusteredOpenGammaApplication.PROCESSING_TIME_PER_SERVER_SCALING_TARGET.getDefaultValue(),
+                        CALC_QUEUE, ClusteredOpenGammaApplication.CALC_QUEUE_PER_SERVER_SCALING_TARGET.getDefaultValue(),
+                        LATENCY, ClusteredOpenGammaApplication.REQUEST_LATENCY_SCALING_TARGET.getDefaultValue()),
+                ClusteredOpenGammaApplication.COMPOSITE_SCALING_WEIGHTS.getDefaultValue());
+    }
+
+    /** The metrics included (with a positive weight and target), and their sensors. */
+    public Map<String, AttributeSensor<Double>> getSensors() {
+        Map<String, AttributeSensor<Double>> result = Maps.newLinkedHashMap();
+        for (Map.Entry<String, AttributeSensor<Double>> entry : SENSORS.entrySet()) {
+            if (getWeight(entry.getKey()) > 0 && getTarget(entry.getKey()) > 0) result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    public double getTarget(String metric) {
+        Double target = targets.get(metric);
+        return (target != null) ? target : 0;
+    }
+
+    /** The metric's weight (1 if not configured). */
+    public double getWeight(String metric) {
+        Double weight = weights.get(metric);
+        return (weight != null) ? weight : 1;
+    }
+
+    /**
+     * The load score for the given values of the metrics, by metric name (missing or null values are left out).
+     * @return the score, or null if there are no values
+     */
+    public Double score(Map<String, ? extends Number> values) {
+        double max = 0, weighted = 0, totalWeight = 0;
+        boolean any = false;
+        for (String metric : getSensors().keySet()) {
+            Number value = values.get(metric);
+            if (value == null) continue;
+            double fraction = value.doubleValue() / getTarget(metric);
+            max = any ? Math.max(max, fraction) : fraction;
+            weighted += getWeight(metric) * fraction;
+            totalWeight += getWeight(metric);
+            any = true;
+        }
+        if (!any) return null;
+        return (combination == Combination.MAX) ? max : weighted / totalWeight;
+    }
+
+    /** The metric furthest over (or least under) its target, or null if there are no values. */
+    public String driver(Map<String, ? extends Number> values) {
+        String result = null;
+        double highest = 0;
+        for (String metric : getSensors().keySet()) {
+            Number value = values.get(metric);
+            if (value == null) continue;
+            double fraction = value.doubleValue() / getTarget(metric);
+            if (result == null || fraction > highest) {
+                result = metric;
+                highest = fraction;
+            }
+        }
+        return result;
+    }
+
+    public Combination getCombination() {
+        return combination;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+combination+", targets="+targets+", weights="+weights+"]";
+    }
+
+}
@@ -1,6 +1,7 @@
 package io.cloudsoft.opengamma.cluster;
 
 import io.cloudsoft.opengamma.app.ClusteredOpenGammaApplication;
+import io.cloudsoft.opengamma.server.IncrementalClusterAggregator;
 import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
 import io.cloudsoft.opengamma.server.OpenGammaServer;
 
@@ -21,6 +22,7 @@ import brooklyn.entity.messaging.activemq.ActiveMQBroker;
 import brooklyn.entity.proxying.EntitySpec;
 import brooklyn.entity.webapp.ControlledDynamicWebAppCluster;
 import brooklyn.entity.webapp.WebAppService;
+import brooklyn.event.AttributeSensor;
 import brooklyn.event.SensorEvent;
 import brooklyn.event.SensorEventListener;
 import brooklyn.policy.Policy;
@@ -28,34 +30,75 @@ import brooklyn.policy.autoscaling.AutoScalerPolicy;
 import brooklyn.policy.ha.ServiceFailureDetector;
 import brooklyn.policy.ha.ServiceReplacer;
 import brooklyn.policy.ha.ServiceRestarter;
+import brooklyn.util.time.Duration;
 import io.cloudsoft.opengamma.server.SimulatedExamplesServer;
 
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+
 public class OpenGammaClusterFactory implements EntityFactory<ControlledDynamicWebAppCluster> {
     public static final Logger LOG = LoggerFactory.getLogger(OpenGammaClusterFactory.class);
 
     final ActiveMQBroker broker;
     final PostgreSqlNode database;
     final boolean scalingEnabled;
-    final double viewsPerServerScalingTarget;
+    final OpenGammaScalingMetric scalingMetric;
+    final double scalingTarget;
     final int minSize;
     final int maxSize;
+    final int standbyPoolSize;
+    final boolean standbyPrelaunch;
+    /** the metrics combined, when scaling on {@link OpenGammaScalingMetric#COMPOSITE} */
+    CompositeScaling compositeScaling = CompositeScaling.defaults();
+    Duration scaleUpStabilisation = ClusteredOpenGammaApplication.SCALE_UP_STABILISATION.getDefaultValue();
+    Duration scaleDownStabilisation = ClusteredOpenGammaApplication.SCALE_DOWN_STABILISATION.getDefaultValue();
 
     public OpenGammaClusterFactory(ClusteredOpenGammaApplication owningApplication,
             ActiveMQBroker broker, PostgreSqlNode database) {
         this(broker, database,
                 owningApplication.getConfig(ClusteredOpenGammaApplication.ENABLE_AUTOSCALING),
-                owningApplication.getConfig(ClusteredOpenGammaApplication.VIEWS_PER_SERVER_SCALING_TARGET),
+                owningApplication.getConfig(ClusteredOpenGammaApplication.SCALING_METRIC),
+                getScalingTarget(owningApplication, owningApplication.getConfig(ClusteredOpenGammaApplication.SCALING_METRIC)),
                 owningApplication.getConfig(ClusteredOpenGammaApplication.MIN_SIZE),
-                owningApplication.getConfig(ClusteredOpenGammaApplication.MAX_SIZE));
+                owningApplication.getConfig(ClusteredOpenGammaApplication.MAX_SIZE),
+                owningApplication.getConfig(ClusteredOpenGammaApplication.STANDBY_POOL_SIZE),
+                owningApplication.getConfig(ClusteredOpenGammaApplication.STANDBY_POOL_PRELAUNCH));
+        this.compositeScaling = CompositeScaling.fromConfig(owningApplication);
+        this.scaleUpStabilisation = owningApplication.getConfig(ClusteredOpenGammaApplication.SCALE_UP_STABILISATION);
+        this.scaleDownStabilisation = owningApplication.getConfig(ClusteredOpenGammaApplication.SCALE_DOWN_STABILISATION);
     }
     public OpenGammaClusterFactory(ActiveMQBroker broker, PostgreSqlNode database, boolean scalingEnabled,
             double viewsPerServerScalingTarget, int minSize, int maxSize) {
+        this(broker, database, scalingEnabled, viewsPerServerScalingTarget, minSize, maxSize, 0, true);
+    }
+    public OpenGammaClusterFactory(ActiveMQBroker broker, PostgreSqlNode database, boolean scalingEnabled,
+            double viewsPerServerScalingTarget, int minSize, int maxSize, int standbyPoolSize, boolean standbyPrelaunch) {
+        this(broker, database, scalingEnabled, OpenGammaScalingMetric.VIEWS_PER_SERVER, viewsPerServerScalingTarget,
+                minSize, maxSize, standbyPoolSize, standbyPrelaunch);
+    }
+    public OpenGammaClusterFactory(ActiveMQBroker broker, PostgreSqlNode database, boolean scalingEnabled,
+            OpenGammaScalingMetric scalingMetric, double scalingTarget, int minSize, int maxSize, int standbyPoolSize, boolean standbyPrelaunch) {
         this.broker = broker;
         this.database = database;
         this.scalingEnabled = scalingEnabled;
-        this.viewsPerServerScalingTarget = viewsPerServerScalingTarget;
+        this.scalingMetric = (scalingMetric != null) ? scalingMetric : OpenGammaScalingMetric.VIEWS_PER_SERVER;
+        this.scalingTarget = scalingTarget;
         this.minSize = minSize;
         this.maxSize = maxSize;
+        this.standbyPoolSize = standbyPoolSize;
+        this.standbyPrelaunch = standbyPrelaunch;
+    }
+
+    /** The application's configured target for the given metric. */
+    public static double getScalingTarget(ClusteredOpenGammaApplication app, OpenGammaScalingMetric metric) {
+        if (metric == null) metric = OpenGammaScalingMetric.VIEWS_PER_SERVER;
+        switch (metric) {
+        case CALC_JOBS_PER_SERVER: return app.getConfig(ClusteredOpenGammaApplication.CALC_JOBS_PER_SERVER_SCALING_TARGET);
+        case CALC_QUEUE_PER_SERVER: return app.getConfig(ClusteredOpenGammaApplication.CALC_QUEUE_PER_SERVER_SCALING_TARGET);
+        case CYCLE_LATENCY: return app.getConfig(ClusteredOpenGammaApplication.CYCLE_LATENCY_SCALING_TARGET);
+        case COMPOSITE: return app.getConfig(ClusteredOpenGammaApplication.COMPOSITE_SCALING_TARGET);
+        default: return app.getConfig(ClusteredOpenGammaApplication.VIEWS_PER_SERVER_SCALING_TARGET);
+        }
     }
 
     @Override
@@ -63,19 +106,26 @@ public class OpenGammaClusterFactory implements EntityFactory<ControlledDynamicW
         ControlledDynamicWebAppCluster ogWebCluster = parent.addChild(getClusterSpec());
         initAggregatingMetrics(ogWebCluster);
         initResilience(ogWebCluster);
-        initElasticity(ogWebCluster);
+        OpenGammaStandbyPool standbyPool = initStandbyPool(ogWebCluster);
+        initElasticity(ogWebCluster, standbyPool);
         return ogWebCluster;
     }
 
     public EntitySpec<ControlledDynamicWebAppCluster> getClusterSpec() {
+        // the implementation declares the rolling restart effector
         return EntitySpec.create(ControlledDynamicWebAppCluster.class)
+                .impl(OpenGammaWebClusterImpl.class)
                 .displayName("Load-Balanced Cluster")
                 .configure(ControlledDynamicWebAppCluster.INITIAL_SIZE, minSize)
-                .configure(ControlledDynamicWebAppCluster.MEMBER_SPEC,
-                        EntitySpec.create(SimulatedExamplesServer.class)
-                                .displayName("OpenGamma Server")
-                                .configure(OpenGammaServer.BROKER, (ActiveMQBroker) broker)
-                                .configure(OpenGammaServer.DATABASE, (PostgreSqlNode) database));
+                .configure(ControlledDynamicWebAppCluster.MEMBER_SPEC, getServerSpec());
+    }
+
+    /** spec for the OpenGamma servers, both cluster members and standbys */
+    public EntitySpec<? extends OpenGammaServer> getServerSpec() {
+        return EntitySpec.create(SimulatedExamplesServer.class)
+                .displayName("OpenGamma Server")
+                .configure(OpenGammaServer.BROKER, (ActiveMQBroker) broker)
+                .configure(OpenGammaServer.DATABASE, (PostgreSqlNode) database);
     }
 
     /** aggregate metrics and selected KPIs */
@@ -85,6 +135,8 @@ public class OpenGammaClusterFactory implements EntityFactory<ControlledDynamicW
                 rollup(10, TimeUnit.SECONDS).
                 build());
         OpenGammaMonitoringAggregation.aggregateOpenGammaServerSensors(web.getCluster());
+        // the cluster's aggregates (server count, per-node load, latency sketch), for the fabric to weight and merge across regions
+        OpenGammaMonitoringAggregation.propagateClusterSensors(web, web.getCluster());
     }
 
     /** this attaches a policy at each OG Server listening for ENTITY_FAILED,
@@ -101,28 +153,104 @@ public class OpenGammaClusterFactory implements EntityFactory<ControlledDynamicW
         web.getCluster().addPolicy(new ServiceReplacer(ServiceRestarter.ENTITY_RESTART_FAILED));
     }
 
-    /** invoked whenever a new OpenGamma server is added (the server may not be started yet) */
+    /** invoked whenever a new OpenGamma server is added (the server may not be started yet),
+     * or re-added after a rolling restart (in which case it already has its policies) */
     protected void initSoftwareProcess(SoftwareProcess p) {
+        if (Iterables.any(p.getPolicies(), Predicates.instanceOf(ServiceRestarter.class))) return;
         p.addEnricher(new ServiceFailureDetector());
         p.addPolicy(new ServiceRestarter(ServiceFailureDetector.ENTITY_FAILED));
     }
 
-    /** configures scale-out and scale-back; in this case based on number of view processes active,
+    /** adds a pool of standby servers beside the cluster, for fast scale-out, if configured;
+     * @return the pool, or null if there is none */
+    protected OpenGammaStandbyPool initStandbyPool(ControlledDynamicWebAppCluster web) {
+        if (standbyPoolSize <= 0) return null;
+        return web.addChild(EntitySpec.create(OpenGammaStandbyPool.class)
+                .displayName("Standby OpenGamma Servers")
+                .configure(OpenGammaStandbyPool.CLUSTER, web.getCluster())
+                .configure(OpenGammaStandbyPool.MEMBER_SPEC, getServerSpec())
+                .configure(OpenGammaStandbyPool.POOL_SIZE, standbyPoolSize)
+                .configure(OpenGammaStandbyPool.PRELAUNCH, standbyPrelaunch));
+    }
+
+    /** configures scale-out and scale-back; by default based on number of view processes active,
      * allowing an (artificially low) max of 1.2 per node,
-     * so as soon as you have 3 view processes a scale-out is forced */
-    protected void initElasticity(ControlledDynamicWebAppCluster web) {
+     * so as soon as you have 3 view processes a scale-out is forced;
+     * or on calc jobs completed per second per node, the calculation capacity in use;
+     * or on a load score combining several metrics, for {@link OpenGammaScalingMetric#COMPOSITE};
+     * scaling up and down only once the metric has stayed past the threshold for the stabilisation windows;
+     * with a standby pool, the policy resizes through the pool so scale-out promotes standbys */
+    protected void initElasticity(ControlledDynamicWebAppCluster web, OpenGammaStandbyPool standbyPool) {
+        if (scalingMetric == OpenGammaScalingMetric.COMPOSITE) {
+            web.getCluster().addEnricher(new CompositeLoadScoreEnricher(compositeScaling));
+        }
         Policy policy = AutoScalerPolicy.builder()
-                .metric(OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT_PER_NODE)
-                .metricRange(viewsPerServerScalingTarget * 0.9, viewsPerServerScalingTarget + 0.1)
+                .metric(scalingMetric.getSensor())
+                .entityWithMetric(web.getCluster())
+                .metricRange(getScaleInThreshold(), getScaleOutThreshold())
                 .sizeRange(minSize, maxSize)
+                .resizeUpStabilizationDelay(scaleUpStabilisation.toMilliseconds())
+                .resizeDownStabilizationDelay(scaleDownStabilisation.toMilliseconds())
                 .build();
-        web.getCluster().addPolicy(policy);
+        if (standbyPool != null) standbyPool.addPolicy(policy);
+        else web.getCluster().addPolicy(policy);
+        // the policy sees its metric cross a threshold at once, not at the end of a coalescing window;
+        // for the load score, that of each of its metrics at the same fraction of that metric's target;
+        // only where the aggregator publishes the sensor: the load score itself and the latency percentile
+        // come from enrichers which publish every change, so need no threshold
+        for (IncrementalClusterAggregator aggregator : Iterables.filter(web.getCluster().getEnrichers(), IncrementalClusterAggregator.class)) {
+            if (aggregator.publishes(scalingMetric.getSensor())) {
+                aggregator.addThresholds(scalingMetric.getSensor(), getScaleInThreshold(), getScaleOutThreshold());
+            }
+            if (scalingMetric == OpenGammaScalingMetric.COMPOSITE && scalingTarget > 0) {
+                for (Map.Entry<String, AttributeSensor<Double>> metric : compositeScaling.getSensors().entrySet()) {
+                    if (!aggregator.publishes(metric.getValue())) continue;
+                    double target = compositeScaling.getTarget(metric.getKey());
+                    aggregator.addThresholds(metric.getValue(),
+                            target * getScaleInThreshold() / scalingTarget, target * getScaleOutThreshold() / scalingTarget);
+                }
+            }
+        }
         if (!scalingEnabled) {
             policy.suspend();
             LOG.info("AutoScaler policy disabled when creating "+web);
         } else {
-            LOG.info("AutoScaler policy (target "+viewsPerServerScalingTarget+") created for "+web);
+            LOG.info("AutoScaler policy ("+scalingMetric+" target "+scalingTarget+
+                    (scalingMetric == OpenGammaScalingMetric.COMPOSITE ? " of "+compositeScaling : "")+
+                    ", stabilisation up "+scaleUpStabilisation+" down "+scaleDownStabilisation+") created for "+web);
+            initUrgentPolling(web);
         }
     }
 
+    protected double getScaleInThreshold() {
+        return scalingMetric.getScaleInThreshold(scalingTarget);
+    }
+
+    protected double getScaleOutThreshold() {
+        return scalingMetric.getScaleOutThreshold(scalingTarget);
+    }
+
+    /** has the servers poll their MBeans at the shortest interval (and regardless of the poll budget) while the
+     * scaling metric is near its thresholds, so adaptive polling doesn't slow the auto-scaler */
+    protected void initUrgentPolling(ControlledDynamicWebAppCluster web) {
+        final DynamicCluster cluster = web.getCluster();
+        ((EntityLocal)web).subscribe(cluster, scalingMetric.getSensor(), new SensorEventListener<Double>() {
+            @Override
+            public void onEvent(SensorEvent<Double> event) {
+                boolean urgent = isNearScalingThresholds(event.getValue());
+                for (Entity member : cluster.getMembers()) {
+                    if (!Boolean.valueOf(urgent).equals(member.getAttribute(OpenGammaServer.JMX_POLL_URGENT)))
+                        ((EntityLocal)member).setAttribute(OpenGammaServer.JMX_POLL_URGENT, urgent);
+                }
+            }
+        });
+    }
+
+    /** within a quarter of the target of either threshold */
+    protected boolean isNearScalingThresholds(Double metric) {
+        if (metric == null) return false;
+        double margin = scalingTarget * 0.25;
+        return Math.abs(metric - getScaleInThreshold()) <= margin || Math.abs(metric - getScaleOutThreshold()) <= margin;
+    }
+
 }
@@ -0,0 +1,238 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.server.OpenGammaServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.entity.Effector;
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.ConfigKeys;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.effector.EffectorBody;
+import brooklyn.entity.effector.Effectors;
+import brooklyn.entity.group.DynamicCluster;
+import brooklyn.entity.trait.Startable;
+import brooklyn.entity.webapp.ControlledDynamicWebAppCluster;
+import brooklyn.policy.Policy;
+import brooklyn.util.config.ConfigBag;
+import brooklyn.util.internal.Repeater;
+import brooklyn.util.task.Tasks;
+import brooklyn.util.time.Duration;
+import brooklyn.util.time.Time;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Rolling restart of the servers in an OpenGamma cluster, optionally pushing re-rendered config to each
+ * first, one batch at a time so the rest of the cluster keeps serving.
+ * <p>
+ * Each server in a batch is taken out of the cluster (and so out of the load balancer's pool) and drained,
+ * i.e. allowed to finish the requests in flight (until it has no HTTP connections open), up to a timeout; its
+ * MBeans are polled urgently meanwhile, so the drain and the restart are not slowed by adaptive polling.
+ * View processes are long-lived, so are not waited for. The batch then has its config pushed and is
+ * restarted, and each server rejoins the cluster only once it is up, has calc nodes, and has warmed up;
+ * if the restart fails, the servers of the batch which are still healthy rejoin regardless.
+ * Policies on the cluster (e.g. the auto-scaler and replacer) are suspended for the duration.
+ * A cluster of fewer than two servers is not restarted, as that would be an outage.
+ * <p>
+ * The effector is declared on the cluster's type, {@link OpenGammaWebClusterImpl}.
+ */
+public class OpenGammaRollingRestart {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenGammaRollingRestart.class);
+
+    public static final ConfigKey<Integer> BATCH_SIZE = ConfigKeys.newIntegerConfigKey(
+            "batchSize", "Number of servers to restart at a time (at most all but one of the servers)", 1);
+
+    public static final ConfigKey<Boolean> PUSH_CONFIG = ConfigKeys.newBooleanConfigKey(
+            "pushConfig", "Whether to re-render and push the servers' config files before restarting them", true);
+
+    public static final ConfigKey<Duration> DRAIN_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "drainTimeout", "How long to wait for a server's requests in flight to finish once it is out of the load balancer", Duration.THIRTY_SECONDS);
+
+    public static final ConfigKey<Duration> WARMUP = ConfigKeys.newConfigKey(Duration.class,
+            "warmup", "How long to let a restarted server warm up before it rejoins the load balancer", Duration.THIRTY_SECONDS);
+
+    public static final ConfigKey<Duration> RESTART_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "restartTimeout", "How long to wait for a restarted server to be up before abandoning the rolling restart", Duration.FIVE_MINUTES);
+
+    public static final Effector<Void> ROLLING_RESTART = Effectors.effector(Void.class, "rollingRestart")
+            .description("Restart the OpenGamma servers a batch at a time (pushing config first, by default), " +
+                    "taking each out of the load balancer while it drains and restarts")
+            .parameter(BATCH_SIZE)
+            .parameter(PUSH_CONFIG)
+            .parameter(DRAIN_TIMEOUT)
+            .parameter(WARMUP)
+            .parameter(RESTART_TIMEOUT)
+            .impl(new EffectorBody<Void>() {
+                @Override
+                public Void call(ConfigBag parameters) {
+                    new OpenGammaRollingRestart((ControlledDynamicWebAppCluster) entity(), parameters).run();
+                    return null;
+                }
+            })
+            .build();
+
+    private final ControlledDynamicWebAppCluster web;
+    private final ConfigBag parameters;
+
+    protected OpenGammaRollingRestart(ControlledDynamicWebAppCluster web, ConfigBag parameters) {
+        this.web = web;
+        this.parameters = parameters;
+    }
+
+    public void run() {
+        DynamicCluster cluster = web.getCluster();
+        List<Entity> members = ImmutableList.copyOf(cluster.getMembers());
+        if (members.size() < 2) {
+            log.warn("Rolling restart of {} skipped: it has {} server(s), and restarting all of them would be an outage", web, members.size());
+            return;
+        }
+        int batchSize = Math.max(1, Math.min(parameters.get(BATCH_SIZE), members.size() - 1));
+        log.info("Rolling restart of {} servers in {}, {} at a time", new Object[] { members.size(), web, batchSize });
+
+        List<Policy> suspended = suspendPolicies(cluster);
+        try {
+            for (List<Entity> batch : Lists.partition(members, batchSize)) {
+                restartBatch(cluster, batch);
+            }
+        } finally {
+            for (Policy policy : suspended) policy.resume();
+        }
+        log.info("Rolling restart of {} complete", web);
+    }
+
+    /** Suspends the running policies on the cluster and beside it (e.g. on the standby pool); returns those suspended. */
+    protected List<Policy> suspendPolicies(DynamicCluster cluster) {
+        List<Policy> result = Lists.newArrayList();
+        List<Entity> entities = Lists.<Entity>newArrayList(web, cluster);
+        Iterables.addAll(entities, Iterables.filter(web.getChildren(), OpenGammaStandbyPool.class));
+        for (Entity entity : entities) {
+            for (Policy policy : entity.getPolicies()) {
+                if (policy.isRunning()) {
+                    policy.suspend();
+                    result.add(policy);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected void restartBatch(DynamicCluster cluster, List<Entity> batch) {
+        List<Policy> suspended = Lists.newArrayList();
+        Map<Entity, Boolean> urgent = Maps.newHashMap();
+        for (Entity member : batch) {
+            // out of the load balancer (which tracks cluster membership); the policies on the server would see the restart as a failure
+            cluster.removeMember(member);
+            urgent.put(member, member.getAttribute(OpenGammaServer.JMX_POLL_URGENT));
+            ((EntityLocal) member).setAttribute(OpenGammaServer.JMX_POLL_URGENT, true);
+            for (Policy policy : member.getPolicies()) {
+                if (policy.isRunning()) {
+                    policy.suspend();
+                    suspended.add(policy);
+                }
+            }
+        }
+        boolean restarted = false;
+        try {
+            for (Entity member : batch) drain(member);
+
+            if (Boolean.TRUE.equals(parameters.get(PUSH_CONFIG))) {
+                Entities.invokeEffectorList(web, batch, OpenGammaServer.PUSH_CONFIG).getUnchecked();
+            }
+            restarted = true;
+            // the feed outlives the restart, so its last calc node count is from before it; wait for a fresh poll
+            for (Entity member : batch) {
+                ((EntityLocal) member).setAttribute(OpenGammaServer.CALC_NODE_COUNT, null);
+            }
+            Entities.invokeEffectorList(web, batch, Startable.RESTART).getUnchecked();
+
+            for (Entity member : batch) {
+                awaitHealthy(member);
+            }
+            Time.sleep(parameters.get(WARMUP));
+        } finally {
+            for (Policy policy : suspended) policy.resume();
+            for (Map.Entry<Entity, Boolean> entry : urgent.entrySet()) {
+                ((EntityLocal) entry.getKey()).setAttribute(OpenGammaServer.JMX_POLL_URGENT, entry.getValue());
+            }
+            // rejoin even if the restart failed, unless the server is (still) down, so a failure does not shrink the cluster
+            for (Entity member : batch) {
+                if (!restarted || isHealthy(member)) {
+                    log.info("Rolling restart: {} rejoining {}", member, cluster);
+                    cluster.addMember(member);
+                } else {
+                    log.warn("Rolling restart: {} not healthy; leaving it out of {}", member, cluster);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the server's requests in flight to finish, i.e. for it to have no HTTP connections open (as polled
+     * since it left the load balancer), up to the drain timeout. View processes are long-lived (their clients
+     * re-attach to another server), so waiting for them would nearly always run to the timeout.
+     */
+    protected void drain(final Entity member) {
+        // a count polled before the server left the load balancer does not show it drained
+        ((EntityLocal) member).setAttribute(OpenGammaServer.CONNECTIONS_OPEN, null);
+        Tasks.setBlockingDetails("Draining "+member);
+        try {
+            boolean drained = Repeater.create("draining "+member)
+                    .every(1, TimeUnit.SECONDS)
+                    .until(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            // nothing to wait for on a server which is down (so not polled)
+                            if (!Boolean.TRUE.equals(member.getAttribute(Startable.SERVICE_UP))) return true;
+                            Integer open = member.getAttribute(OpenGammaServer.CONNECTIONS_OPEN);
+                            return open != null && open <= 0;
+                        }
+                    })
+                    .limitTimeTo(parameters.get(DRAIN_TIMEOUT).toMilliseconds(), TimeUnit.MILLISECONDS)
+                    .run();
+            if (!drained) log.info("Rolling restart: {} still serving requests after {}; restarting regardless", member, parameters.get(DRAIN_TIMEOUT));
+        } finally {
+            Tasks.resetBlockingDetails();
+        }
+    }
+
+    protected boolean isHealthy(Entity member) {
+        Integer calcNodes = member.getAttribute(OpenGammaServer.CALC_NODE_COUNT);
+        return Boolean.TRUE.equals(member.getAttribute(Startable.SERVICE_UP)) && calcNodes != null && calcNodes > 0;
+    }
+
+    /** Waits for the restarted server to be up with its calc nodes running, failing the rolling restart if it is not. */
+    protected void awaitHealthy(final Entity member) {
+        Tasks.setBlockingDetails("Waiting for "+member+" to be healthy");
+        try {
+            boolean healthy = Repeater.create("waiting for "+member)
+                    .every(1, TimeUnit.SECONDS)
+                    .until(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return isHealthy(member);
+                        }
+                    })
+                    .limitTimeTo(parameters.get(RESTART_TIMEOUT).toMilliseconds(), TimeUnit.MILLISECONDS)
+                    .run();
+            if (!healthy) {
+                throw new IllegalStateException("Rolling restart of "+web+" abandoned: "+member+" not healthy within "+parameters.get(RESTART_TIMEOUT));
+            }
+        } finally {
+            Tasks.resetBlockingDetails();
+        }
+    }
+
+}
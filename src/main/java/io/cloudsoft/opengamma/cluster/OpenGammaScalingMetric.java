@@ -0,0 +1,95 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
+
+import brooklyn.event.AttributeSensor;
+
+/** The metric the cluster's auto-scaler keeps near a target. */
+public enum OpenGammaScalingMetric {
+
+    /** Active view processes per server; the thresholds allow for views being whole numbers. */
+    VIEWS_PER_SERVER(OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT_PER_NODE) {
+        @Override
+        public double getScaleInThreshold(double target) {
+            return target * 0.9;
+        }
+        @Override
+        public double getScaleOutThreshold(double target) {
+            return target + 0.1;
+        }
+    },
+
+    /** Calc jobs completed per second per server (windowed), i.e. the calculation capacity used. */
+    CALC_JOBS_PER_SERVER(OpenGammaMonitoringAggregation.CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE) {
+        @Override
+        public double getScaleInThreshold(double target) {
+            return target * 0.8;
+        }
+        @Override
+        public double getScaleOutThreshold(double target) {
+            return target;
+        }
+    },
+
+    /**
+     * Calc jobs queued for a calc node per server: the leading indicator of overload, rising before latency does;
+     * scaled in on only once queues have all but drained.
+     */
+    CALC_QUEUE_PER_SERVER(OpenGammaMonitoringAggregation.CALC_JOB_QUEUE_DEPTH_PER_NODE) {
+        @Override
+        public double getScaleInThreshold(double target) {
+            return target * 0.25;
+        }
+        @Override
+        public double getScaleOutThreshold(double target) {
+            return target;
+        }
+    },
+
+    /**
+     * 95th percentile of view cycle duration (ms) across all the cluster's views: a latency, so not divided by
+     * servers, and only scaled in on when well under target as it does not fall in proportion to servers added.
+     */
+    CYCLE_LATENCY(OpenGammaMonitoringAggregation.VIEW_CYCLE_DURATION_P95) {
+        @Override
+        public double getScaleInThreshold(double target) {
+            return target * 0.6;
+        }
+        @Override
+        public double getScaleOutThreshold(double target) {
+            return target;
+        }
+    },
+
+    /**
+     * Several metrics combined into a load score, each as a fraction of its own target (see {@link CompositeScaling}),
+     * so views which are heavy on CPU or slow to serve still scale out; the target is a score, normally 1, and scaled in
+     * on only once every metric (or their weighted mean) is well under target, as latency does not fall in proportion.
+     */
+    COMPOSITE(OpenGammaMonitoringAggregation.LOAD_SCORE) {
+        @Override
+        public double getScaleInThreshold(double target) {
+            return target * 0.6;
+        }
+        @Override
+        public double getScaleOutThreshold(double target) {
+            return target;
+        }
+    };
+
+    private final AttributeSensor<Double> sensor;
+
+    private OpenGammaScalingMetric(AttributeSensor<Double> sensor) {
+        this.sensor = sensor;
+    }
+
+    /** The cluster's sensor for the metric. */
+    public AttributeSensor<Double> getSensor() {
+        return sensor;
+    }
+
+    public abstract double getScaleInThreshold(double target);
+
+    public abstract double getScaleOutThreshold(double target);
+
+}
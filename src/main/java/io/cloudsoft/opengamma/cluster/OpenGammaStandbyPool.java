@@ -0,0 +1,74 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.server.OpenGammaServer;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.reflect.TypeToken;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.ConfigKeys;
+import brooklyn.entity.group.DynamicCluster;
+import brooklyn.entity.proxying.EntitySpec;
+import brooklyn.entity.proxying.ImplementedBy;
+import brooklyn.entity.trait.Resizable;
+import brooklyn.entity.trait.Startable;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.util.flags.SetFromFlag;
+
+/**
+ * A pool of standby OpenGamma servers, provisioned and installed (and optionally launched) outside the
+ * load balancer, for fast scale-out of a {@link DynamicCluster cluster} of servers.
+ * <p>
+ * The pool fills once the cluster is up, in the cluster's location. It is {@link Resizable} on behalf of
+ * the cluster (so an {@link brooklyn.policy.autoscaling.AutoScalerPolicy} can be attached to it): growing
+ * promotes ready standbys into the cluster, falling back to resizing the cluster for any shortfall, and
+ * shrinking resizes the cluster. The pool refills in the background after each promotion.
+ */
+@ImplementedBy(OpenGammaStandbyPoolImpl.class)
+public interface OpenGammaStandbyPool extends Entity, Startable, Resizable {
+
+    @SetFromFlag("cluster")
+    ConfigKey<DynamicCluster> CLUSTER = ConfigKeys.newConfigKey(DynamicCluster.class,
+            "opengamma.standby.cluster", "The cluster standbys are promoted into");
+
+    @SetFromFlag("memberSpec")
+    ConfigKey<EntitySpec<? extends OpenGammaServer>> MEMBER_SPEC = ConfigKeys.newConfigKey(
+            new TypeToken<EntitySpec<? extends OpenGammaServer>>() {},
+            "opengamma.standby.memberSpec", "Spec for the standby servers (as for the cluster's members)");
+
+    @SetFromFlag("size")
+    ConfigKey<Integer> POOL_SIZE = ConfigKeys.newIntegerConfigKey(
+            "opengamma.standby.size", "Number of standby servers to keep", 1);
+
+    @SetFromFlag("prelaunch")
+    ConfigKey<Boolean> PRELAUNCH = ConfigKeys.newBooleanConfigKey(
+            "opengamma.standby.prelaunch", "Whether standbys are launched (so promotion is immediate), " +
+            "or held after customizing (so they use less, but take the OpenGamma start-up time once promoted)", true);
+
+    AttributeSensor<Integer> POOL_DEPTH =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.standby.depth", "Number of standby servers ready for promotion");
+
+    AttributeSensor<Integer> POOL_WARMING =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.standby.warming", "Number of standby servers being provisioned or installed");
+
+    AttributeSensor<Integer> PROMOTIONS_COUNT =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.standby.promotions", "Number of standby servers promoted into the cluster");
+
+    AttributeSensor<Long> PROMOTION_LATENCY =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.standby.promotion.latency", "Time (ms) from the most recent promotion to the server being up in the cluster");
+
+    AttributeSensor<Set<String>> PROMOTED_IDS = new BasicAttributeSensor<Set<String>>(
+            new TypeToken<Set<String>>() {}, "opengamma.standby.promoted", "Ids of the pool's servers promoted into the cluster " +
+            "(which stay the cluster's even while out of it, e.g. during a rolling restart)");
+
+    AttributeSensor<Map<String, Long>> PROMOTION_TIMES = new BasicAttributeSensor<Map<String, Long>>(
+            new TypeToken<Map<String, Long>>() {}, "opengamma.standby.promotion.times", "Time (ms since the epoch) each promoted server not yet up was promoted, by id");
+
+    AttributeSensor<Long> IDLE_SERVER_SECONDS =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.standby.idle.serverSeconds", "Total server-seconds spent by ready standbys waiting for promotion (the pool's idle cost)");
+
+}
@@ -0,0 +1,339 @@
+package io.cloudsoft.opengamma.cluster;
+
+import io.cloudsoft.opengamma.server.OpenGammaServer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.AbstractEntity;
+import brooklyn.entity.basic.Attributes;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.basic.Lifecycle;
+import brooklyn.entity.group.DynamicCluster;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+import brooklyn.location.Location;
+import brooklyn.management.Task;
+import brooklyn.util.collections.MutableMap;
+import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.task.BasicTask;
+import brooklyn.util.task.ScheduledTask;
+import brooklyn.util.time.Duration;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class OpenGammaStandbyPoolImpl extends AbstractEntity implements OpenGammaStandbyPool {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenGammaStandbyPoolImpl.class);
+
+    private final Object mutex = new Object[0];
+    private volatile boolean stopped = false;
+    private volatile Collection<? extends Location> poolLocations;
+    private volatile int lastDepth = 0;
+    private volatile long lastDepthTime = System.currentTimeMillis();
+
+    @Override
+    public void init() {
+        super.init();
+        setAttribute(POOL_DEPTH, 0);
+        setAttribute(POOL_WARMING, 0);
+        setAttribute(PROMOTIONS_COUNT, 0);
+        setAttribute(PROMOTED_IDS, ImmutableSet.<String>of());
+        setAttribute(PROMOTION_TIMES, ImmutableMap.<String, Long>of());
+        setAttribute(IDLE_SERVER_SECONDS, 0L);
+    }
+
+    @Override
+    public void onManagementStarted() {
+        super.onManagementStarted();
+        DynamicCluster cluster = getCluster();
+
+        // start (and fill) once the cluster is up, so the database is initialised, as nothing else starts the pool;
+        // and stop when the cluster stops, through the effector so as not to block the subscription
+        subscribe(cluster, SERVICE_UP, new SensorEventListener<Boolean>() {
+            @Override
+            public void onEvent(SensorEvent<Boolean> event) {
+                if (Boolean.TRUE.equals(event.getValue()) && !Boolean.TRUE.equals(getAttribute(SERVICE_UP))) {
+                    Entities.invokeEffector(OpenGammaStandbyPoolImpl.this, OpenGammaStandbyPoolImpl.this, START,
+                            MutableMap.of("locations", ImmutableList.<Location>of()));
+                } else if (Boolean.TRUE.equals(event.getValue())) {
+                    refill();
+                }
+            }
+        });
+        subscribe(cluster, Attributes.SERVICE_STATE, new SensorEventListener<Lifecycle>() {
+            @Override
+            public void onEvent(SensorEvent<Lifecycle> event) {
+                if ((event.getValue() == Lifecycle.STOPPING || event.getValue() == Lifecycle.STOPPED) && !stopped) {
+                    Entities.invokeEffector(OpenGammaStandbyPoolImpl.this, OpenGammaStandbyPoolImpl.this, STOP);
+                }
+            }
+        });
+
+        // the standbys' subscriptions, which (unlike subscriptions to each as it is added) are restored on rebind
+        SensorEventListener<Object> listener = new SensorEventListener<Object>() {
+            @Override
+            public void onEvent(SensorEvent<Object> event) {
+                if (event.getSensor().equals(SERVICE_UP) && Boolean.TRUE.equals(event.getValue())) recordPromoted(event.getSource());
+                updateDepth();
+            }
+        };
+        subscribeToChildren(this, SERVICE_UP, listener);
+        subscribeToChildren(this, Attributes.SERVICE_STATE, listener);
+        subscribeToChildren(this, OpenGammaServer.HELD_BEFORE_LAUNCH, listener);
+        // e.g. a promoted server unmanaged when the cluster shrinks
+        subscribe(this, CHILD_REMOVED, listener);
+
+        // keep the idle cost current even when nothing changes
+        ScheduledTask updater = new ScheduledTask(MutableMap.of("displayName", "updating standby pool sensors", "period", Duration.TEN_SECONDS),
+                new Callable<Task<?>>() {
+                    @Override
+                    public Task<?> call() {
+                        return new BasicTask<Void>(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                updateDepth();
+                                return null;
+                            }
+                        });
+                    }
+                });
+        getExecutionContext().submit(updater);
+    }
+
+    protected DynamicCluster getCluster() {
+        return getConfig(CLUSTER);
+    }
+
+    protected boolean isPrelaunch() {
+        return Boolean.TRUE.equals(getConfig(PRELAUNCH));
+    }
+
+    @Override
+    public void start(Collection<? extends Location> locations) {
+        if (locations != null && !locations.isEmpty()) poolLocations = locations;
+        stopped = false;
+        setAttribute(SERVICE_UP, true);
+        setAttribute(Attributes.SERVICE_STATE, Lifecycle.RUNNING);
+        if (Boolean.TRUE.equals(getCluster().getAttribute(SERVICE_UP))) refill();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        setAttribute(SERVICE_UP, false);
+        setAttribute(Attributes.SERVICE_STATE, Lifecycle.STOPPED);
+        List<OpenGammaServer> standbys = getStandbys();
+        if (standbys.isEmpty()) return;
+        log.info("{}: stopping {} standby servers", this, standbys.size());
+        try {
+            Entities.invokeEffectorList(this, standbys, STOP).get();
+        } catch (Exception e) {
+            Exceptions.propagateIfFatal(e);
+            log.warn("Error stopping standby servers of "+this+": "+e);
+        }
+        for (OpenGammaServer standby : standbys) {
+            if (Entities.isManaged(standby)) Entities.unmanage(standby);
+        }
+        updateDepth();
+    }
+
+    @Override
+    public void restart() {
+        stop();
+        start(ImmutableList.<Location>of());
+    }
+
+    @Override
+    public Integer getCurrentSize() {
+        return getCluster().getCurrentSize();
+    }
+
+    /**
+     * Grows the cluster by promoting ready standbys into it (and resizing it for any shortfall),
+     * or shrinks it by resizing it; then refills the pool.
+     */
+    @Override
+    public Integer resize(Integer desiredSize) {
+        DynamicCluster cluster = getCluster();
+        if (desiredSize <= cluster.getCurrentSize()) return cluster.resize(desiredSize);
+
+        synchronized (mutex) {
+            for (OpenGammaServer standby : getReadyStandbys()) {
+                if (cluster.getCurrentSize() >= desiredSize) break;
+                promote(standby);
+            }
+        }
+        if (cluster.getCurrentSize() < desiredSize) {
+            log.info("{}: not enough ready standbys; resizing {} to {}", new Object[] { this, cluster, desiredSize });
+            cluster.resize(desiredSize);
+        }
+        refill();
+        return cluster.getCurrentSize();
+    }
+
+    protected void promote(final OpenGammaServer standby) {
+        log.info("{}: promoting standby {} into {}", new Object[] { this, standby, getCluster() });
+        synchronized (mutex) {
+            setAttribute(PROMOTED_IDS, ImmutableSet.<String>builder().addAll(getPromotedIds()).add(standby.getId()).build());
+            Map<String, Long> times = Maps.newHashMap(getPromotionTimes());
+            times.put(standby.getId(), System.currentTimeMillis());
+            setAttribute(PROMOTION_TIMES, ImmutableMap.copyOf(times));
+        }
+        if (!isPrelaunch()) ((EntityLocal) standby).setAttribute(OpenGammaServer.LAUNCH_RELEASED, true);
+        getCluster().addMember(standby);
+        setAttribute(PROMOTIONS_COUNT, getAttribute(PROMOTIONS_COUNT) + 1);
+        if (Boolean.TRUE.equals(standby.getAttribute(SERVICE_UP))) recordPromoted(standby);
+        updateDepth();
+    }
+
+    protected void recordPromoted(Entity server) {
+        Long promoted;
+        synchronized (mutex) {
+            promoted = getPromotionTimes().get(server.getId());
+            if (promoted != null) {
+                setAttribute(PROMOTION_TIMES, ImmutableMap.copyOf(Maps.filterKeys(getPromotionTimes(), Predicates.not(Predicates.equalTo(server.getId())))));
+            }
+        }
+        if (promoted != null) {
+            long latency = System.currentTimeMillis() - promoted;
+            log.info("{}: promoted {} up in {}ms", new Object[] { this, server, latency });
+            setAttribute(PROMOTION_LATENCY, latency);
+        }
+    }
+
+    /** Adds standbys (in the background) up to the pool size, replacing any which have failed. */
+    protected void refill() {
+        synchronized (mutex) {
+            if (stopped) return;
+            Collection<? extends Location> locations = (poolLocations != null) ? poolLocations : getCluster().getLocations();
+            if (locations.isEmpty()) {
+                log.debug("{}: cluster {} has no location yet; not filling pool", this, getCluster());
+                return;
+            }
+            List<OpenGammaServer> standbys = getStandbys();
+            for (OpenGammaServer standby : ImmutableList.copyOf(standbys)) {
+                if (standby.getAttribute(Attributes.SERVICE_STATE) == Lifecycle.ON_FIRE) {
+                    log.warn("{}: discarding failed standby {}", this, standby);
+                    standbys.remove(standby);
+                    discard(standby);
+                }
+            }
+            for (int i = standbys.size(); i < getConfig(POOL_SIZE); i++) {
+                addStandby(locations);
+            }
+        }
+        updateDepth();
+    }
+
+    protected void addStandby(Collection<? extends Location> locations) {
+        OpenGammaServer standby = addChild(getConfig(MEMBER_SPEC));
+        ((EntityLocal) standby).setConfig(OpenGammaServer.HOLD_BEFORE_LAUNCH, !isPrelaunch());
+        // its parent is this pool, but it shares the cluster's golden image and templates
+        ((EntityLocal) standby).setConfig(OpenGammaServer.OWNING_CLUSTER, getCluster());
+        Entities.manage(standby);
+        log.info("{}: adding standby {} in {}", new Object[] { this, standby, locations });
+
+        // don't wait: non-prelaunched standbys only complete their start once promoted
+        Entities.invokeEffector(this, standby, START, MutableMap.of("locations", locations));
+    }
+
+    protected void discard(final OpenGammaServer standby) {
+        getExecutionContext().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Entities.invokeEffector(OpenGammaStandbyPoolImpl.this, standby, STOP).get();
+                } catch (Exception e) {
+                    Exceptions.propagateIfFatal(e);
+                    log.warn("Error stopping failed standby "+standby+" of "+OpenGammaStandbyPoolImpl.this+": "+e);
+                } finally {
+                    if (Entities.isManaged(standby)) Entities.unmanage(standby);
+                }
+            }
+        });
+    }
+
+    /** Standby servers: children which have not been promoted into the cluster. */
+    protected List<OpenGammaServer> getStandbys() {
+        List<OpenGammaServer> result = Lists.newArrayList();
+        Set<String> promoted = getPromotedIds();
+        for (Entity child : getChildren()) {
+            if (child instanceof OpenGammaServer && !promoted.contains(child.getId()) && !getCluster().hasMember(child)) result.add((OpenGammaServer) child);
+        }
+        return result;
+    }
+
+    /** Ids of the servers promoted into the cluster, which stay the cluster's even while out of it (e.g. during a rolling restart). */
+    protected Set<String> getPromotedIds() {
+        Set<String> result = getAttribute(PROMOTED_IDS);
+        return (result != null) ? result : ImmutableSet.<String>of();
+    }
+
+    /** Promoted servers not yet up, with the time they were promoted. */
+    protected Map<String, Long> getPromotionTimes() {
+        Map<String, Long> result = getAttribute(PROMOTION_TIMES);
+        return (result != null) ? result : ImmutableMap.<String, Long>of();
+    }
+
+    /** Forgets promoted servers which are no longer children, e.g. unmanaged when the cluster shrank. */
+    protected void prunePromoted() {
+        synchronized (mutex) {
+            Set<String> children = Sets.newHashSet();
+            for (Entity child : getChildren()) children.add(child.getId());
+            Set<String> promoted = getPromotedIds();
+            if (!children.containsAll(promoted)) {
+                setAttribute(PROMOTED_IDS, ImmutableSet.copyOf(Sets.intersection(promoted, children)));
+            }
+            Map<String, Long> times = getPromotionTimes();
+            if (!children.containsAll(times.keySet())) {
+                setAttribute(PROMOTION_TIMES, ImmutableMap.copyOf(Maps.filterKeys(times, Predicates.in(children))));
+            }
+        }
+    }
+
+    protected List<OpenGammaServer> getReadyStandbys() {
+        List<OpenGammaServer> result = Lists.newArrayList();
+        for (OpenGammaServer standby : getStandbys()) {
+            if (isReady(standby)) result.add(standby);
+        }
+        return result;
+    }
+
+    /** Prelaunched standbys are ready when up; others when held before launch (i.e. installed and customized). */
+    protected boolean isReady(OpenGammaServer standby) {
+        if (isPrelaunch()) return Boolean.TRUE.equals(standby.getAttribute(SERVICE_UP));
+        return Boolean.TRUE.equals(standby.getAttribute(OpenGammaServer.HELD_BEFORE_LAUNCH));
+    }
+
+    /** Publishes the pool's depth (forgetting promoted servers since removed), and accumulates the idle server-seconds of ready standbys since the last update. */
+    protected void updateDepth() {
+        synchronized (mutex) {
+            prunePromoted();
+            int ready = getReadyStandbys().size();
+            int warming = getStandbys().size() - ready;
+            long now = System.currentTimeMillis();
+            long idle = getAttribute(IDLE_SERVER_SECONDS) + Math.round(lastDepth * (now - lastDepthTime) / 1000d);
+            lastDepth = ready;
+            lastDepthTime = now;
+            setAttribute(POOL_DEPTH, ready);
+            setAttribute(POOL_WARMING, warming);
+            setAttribute(IDLE_SERVER_SECONDS, idle);
+        }
+    }
+
+}
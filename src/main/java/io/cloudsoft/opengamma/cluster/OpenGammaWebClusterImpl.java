@@ -0,0 +1,15 @@
+package io.cloudsoft.opengamma.cluster;
+
+import brooklyn.entity.Effector;
+import brooklyn.entity.webapp.ControlledDynamicWebAppClusterImpl;
+
+/**
+ * The load-balanced cluster of OpenGamma servers: a {@link brooklyn.entity.webapp.ControlledDynamicWebAppCluster}
+ * whose type declares the {@link OpenGammaRollingRestart#ROLLING_RESTART rolling restart} effector, so the effector
+ * is still there after a rebind (which an effector added to the entity at runtime would not be).
+ */
+public class OpenGammaWebClusterImpl extends ControlledDynamicWebAppClusterImpl {
+
+    public static final Effector<Void> ROLLING_RESTART = OpenGammaRollingRestart.ROLLING_RESTART;
+
+}
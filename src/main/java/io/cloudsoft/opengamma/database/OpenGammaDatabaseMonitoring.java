@@ -0,0 +1,145 @@
+package io.cloudsoft.opengamma.database;
+
+import io.cloudsoft.opengamma.server.OpenGammaMonitoringAggregation;
+import io.cloudsoft.opengamma.server.PostgreSqlCommands;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.enricher.TimeWeightedDeltaEnricher;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.database.postgresql.PostgreSqlNode;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+import brooklyn.event.feed.ssh.SshFeed;
+import brooklyn.event.feed.ssh.SshPollConfig;
+import brooklyn.event.feed.ssh.SshPollValue;
+import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.util.time.Duration;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+
+/**
+ * Monitors the load on the shared OpenGamma database, so it can be told apart from load on the servers:
+ * connections against {@code max_connections}, transactions per second, buffer cache hit ratio, lock waits and
+ * the longest running query. Polled over ssh with {@code psql} (one command per poll) while the database is up.
+ */
+public class OpenGammaDatabaseMonitoring {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenGammaDatabaseMonitoring.class);
+
+    /** Starts polling the database's load whenever it is up. */
+    public static void connectLoadSensors(final EntityLocal app, final PostgreSqlNode database, final Duration period) {
+        ((EntityLocal) database).addEnricher(new TimeWeightedDeltaEnricher<Long>((EntityLocal) database,
+                OpenGammaMonitoringAggregation.DATABASE_TRANSACTIONS, OpenGammaMonitoringAggregation.DATABASE_TRANSACTIONS_PER_SECOND, 1000));
+
+        final AtomicReference<SshFeed> feed = new AtomicReference<SshFeed>();
+        app.subscribe(database, PostgreSqlNode.SERVICE_UP, new SensorEventListener<Boolean>() {
+            @Override
+            public void onEvent(SensorEvent<Boolean> event) {
+                synchronized (feed) {
+                    if (Boolean.TRUE.equals(event.getValue()) && feed.get() == null) {
+                        LOG.debug("Monitoring load of database {}", database);
+                        feed.set(newFeed(database, period));
+                    } else if (!Boolean.TRUE.equals(event.getValue()) && feed.get() != null) {
+                        feed.getAndSet(null).stop();
+                    }
+                }
+            }
+        });
+    }
+
+    protected static SshFeed newFeed(PostgreSqlNode database, Duration period) {
+        SshMachineLocation machine = Iterables.getOnlyElement(Iterables.filter(database.getLocations(), SshMachineLocation.class));
+        // the polls share the command, so it is run once per period
+        String command = Joiner.on(" && ").join(PostgreSqlCommands.loadStats(database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT)));
+        return SshFeed.builder()
+                .entity((EntityLocal) database)
+                .machine(machine)
+                .period(period.toMilliseconds())
+                .poll(new SshPollConfig<Integer>(OpenGammaMonitoringAggregation.DATABASE_ACTIVE_CONNECTIONS)
+                        .command(command)
+                        .onSuccess(intColumn("activeConnections")))
+                .poll(new SshPollConfig<Integer>(OpenGammaMonitoringAggregation.DATABASE_IDLE_CONNECTIONS)
+                        .command(command)
+                        .onSuccess(intColumn("idleConnections")))
+                .poll(new SshPollConfig<Integer>(OpenGammaMonitoringAggregation.DATABASE_MAX_CONNECTIONS)
+                        .command(command)
+                        .onSuccess(intColumn("maxConnections")))
+                .poll(new SshPollConfig<Double>(OpenGammaMonitoringAggregation.DATABASE_CONNECTIONS_FRACTION)
+                        .command(command)
+                        .onSuccess(new Function<SshPollValue, Double>() {
+                            @Override
+                            public Double apply(SshPollValue input) {
+                                Double active = column(input, "activeConnections");
+                                Double idle = column(input, "idleConnections");
+                                Double max = column(input, "maxConnections");
+                                if (active == null || idle == null || max == null || max <= 0) return null;
+                                return (active + idle) / max;
+                            }
+                        }))
+                .poll(new SshPollConfig<Long>(OpenGammaMonitoringAggregation.DATABASE_TRANSACTIONS)
+                        .command(command)
+                        .onSuccess(new Function<SshPollValue, Long>() {
+                            @Override
+                            public Long apply(SshPollValue input) {
+                                Double value = column(input, "transactions");
+                                return (value != null) ? value.longValue() : null;
+                            }
+                        }))
+                .poll(new SshPollConfig<Double>(OpenGammaMonitoringAggregation.DATABASE_BUFFER_HIT_RATIO)
+                        .command(command)
+                        .onSuccess(new BufferHitRatio()))
+                .poll(new SshPollConfig<Integer>(OpenGammaMonitoringAggregation.DATABASE_LOCK_WAITS)
+                        .command(command)
+                        .onSuccess(intColumn("lockWaits")))
+                .poll(new SshPollConfig<Double>(OpenGammaMonitoringAggregation.DATABASE_LONGEST_QUERY)
+                        .command(command)
+                        .onSuccess(new Function<SshPollValue, Double>() {
+                            @Override
+                            public Double apply(SshPollValue input) {
+                                return column(input, "longestQuery");
+                            }
+                        }))
+                .build();
+    }
+
+    /** The hit ratio of the blocks read since the previous poll (the cumulative counts hide changes in load). */
+    private static class BufferHitRatio implements Function<SshPollValue, Double> {
+        private double lastHit = -1, lastRead = -1;
+        @Override
+        public synchronized Double apply(SshPollValue input) {
+            Double hit = column(input, "blocksHit");
+            Double read = column(input, "blocksRead");
+            if (hit == null || read == null) return null;
+            Double result = null;
+            if (lastHit >= 0 && hit >= lastHit && read >= lastRead && (hit - lastHit) + (read - lastRead) > 0) {
+                result = (hit - lastHit) / ((hit - lastHit) + (read - lastRead));
+            }
+            lastHit = hit;
+            lastRead = read;
+            return result;
+        }
+    }
+
+    private static Function<SshPollValue, Integer> intColumn(final String name) {
+        return new Function<SshPollValue, Integer>() {
+            @Override
+            public Integer apply(SshPollValue input) {
+                Double value = column(input, name);
+                return (value != null) ? value.intValue() : null;
+            }
+        };
+    }
+
+    /** The named {@link PostgreSqlCommands#LOAD_STATS_COLUMNS column} of the output, or null if it is missing or empty. */
+    static Double column(SshPollValue input, String name) {
+        if (input.getExitStatus() != 0) return null;
+        return PostgreSqlCommands.parseLoadStats(input.getStdout()).get(name);
+    }
+
+}
@@ -0,0 +1,44 @@
+package io.cloudsoft.opengamma.ehcache;
+
+import java.lang.reflect.Method;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns on statistics for every cache of an Ehcache {@code CacheManager}, so they can be read over JMX
+ * (see brooklyn-infrastructure-spring.xml). Runs inside the OpenGamma server; uses reflection, as Ehcache
+ * is not on Brooklyn's classpath, and because from Ehcache 2.7 statistics are always on (and the method gone).
+ */
+public class CacheStatisticsEnabler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheStatisticsEnabler.class);
+
+    private final Object cacheManager;
+
+    public CacheStatisticsEnabler(Object cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    public void init() {
+        try {
+            String[] names = (String[]) cacheManager.getClass().getMethod("getCacheNames").invoke(cacheManager);
+            Method getCache = cacheManager.getClass().getMethod("getEhcache", String.class);
+            for (String name : names) {
+                Object cache = getCache.invoke(cacheManager, name);
+                if (cache == null) continue;
+                Method setStatisticsEnabled;
+                try {
+                    setStatisticsEnabled = cache.getClass().getMethod("setStatisticsEnabled", boolean.class);
+                } catch (NoSuchMethodException e) {
+                    // statistics always on
+                    return;
+                }
+                setStatisticsEnabled.invoke(cache, true);
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to enable statistics of caches of "+cacheManager, e);
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package io.cloudsoft.opengamma.install;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.util.ResourceUtils;
+import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.text.Strings;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+/**
+ * Content-addressed cache of downloaded artifacts, held on the Brooklyn management node.
+ * <p>
+ * Artifacts are keyed by their expected SHA-256 checksum when one is known, and otherwise by the
+ * URL they are fetched from. When several servers are provisioned at once only the first pays for
+ * the download from the origin; the others wait for it and are then sent the cached copy.
+ * Callers fall back to fetching from the origin themselves when {@link #get(List, String)} returns
+ * null (i.e. the cache could not obtain the artifact).
+ */
+public class ArtifactCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ArtifactCache.class);
+
+    public static final String DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".brooklyn/opengamma/artifacts").getPath();
+
+    private static final ConcurrentMap<String, ArtifactCache> CACHES = Maps.newConcurrentMap();
+
+    /** Returns the (shared) cache for the given directory, or the {@link #DEFAULT_DIRECTORY default} if null. */
+    public static ArtifactCache forDirectory(@Nullable String directory) {
+        String dir = Strings.isBlank(directory) ? DEFAULT_DIRECTORY : directory;
+        ArtifactCache cache = CACHES.get(dir);
+        if (cache == null) {
+            CACHES.putIfAbsent(dir, new ArtifactCache(new File(dir)));
+            cache = CACHES.get(dir);
+        }
+        return cache;
+    }
+
+    private final File baseDir;
+    private final ConcurrentMap<String, Object> locks = Maps.newConcurrentMap();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    protected ArtifactCache(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    public File getBaseDir() { return baseDir; }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public long getBytesServed() { return bytesServed.get(); }
+
+    /** Records that the given number of bytes have been sent from the cache to a server. */
+    public void recordServed(long bytes) {
+        bytesServed.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the cached copy of the artifact, downloading it from the first of the given URLs
+     * which succeeds if it is not yet cached. Concurrent callers for the same artifact block
+     * until the first has finished downloading.
+     *
+     * @param urls candidate URLs for the artifact, tried in order
+     * @param sha256 expected checksum (hex), or null if not known
+     * @return the local file, or null if the artifact could not be obtained from any URL
+     */
+    @Nullable
+    public File get(List<String> urls, @Nullable String sha256) {
+        if (urls.isEmpty()) return null;
+        String key = keyFor(urls.get(0), sha256);
+        String filename = urls.get(0).substring(urls.get(0).lastIndexOf('/') + 1);
+        File target = new File(new File(baseDir, key), Strings.isBlank(filename) ? "artifact" : filename);
+
+        synchronized (lockFor(key)) {
+            if (target.exists()) {
+                hits.incrementAndGet();
+                log.debug("Artifact cache hit for {} ({})", urls.get(0), target);
+                return target;
+            }
+            misses.incrementAndGet();
+            for (String url : urls) {
+                try {
+                    download(url, target, sha256);
+                    log.info("Artifact cache populated from {} at {} ({} bytes)", new Object[] { url, target, target.length() });
+                    return target;
+                } catch (Exception e) {
+                    Exceptions.propagateIfFatal(e);
+                    log.warn("Artifact cache could not fetch "+url+" (trying next, if any): "+e);
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Builds a derived artifact into the given (new) file. */
+    public interface ArtifactBuilder {
+        void build(File target) throws Exception;
+    }
+
+    /**
+     * Returns a cached artifact derived from other artifacts, building it if it is not yet cached.
+     * Concurrent callers for the same recipe block until the first has finished building.
+     *
+     * @param recipe uniquely describes the inputs and how the artifact is built (e.g. version and patch checksums)
+     * @param filename name for the cached file
+     */
+    public File getDerived(String recipe, String filename, ArtifactBuilder builder) {
+        String key = "derived-" + Hashing.sha256().hashString(recipe, Charsets.UTF_8).toString();
+        File target = new File(new File(baseDir, key), filename);
+
+        synchronized (lockFor(key)) {
+            if (target.exists()) {
+                hits.incrementAndGet();
+                log.debug("Artifact cache hit for derived {} ({})", filename, target);
+                return target;
+            }
+            misses.incrementAndGet();
+            File dir = target.getParentFile();
+            File partial = new File(dir, filename + ".part");
+            try {
+                if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create artifact cache directory "+dir);
+                builder.build(partial);
+                if (!partial.renameTo(target)) throw new IOException("Cannot move built artifact into place at "+target);
+            } catch (Exception e) {
+                partial.delete();
+                throw Exceptions.propagate(e);
+            }
+            log.info("Artifact cache built {} at {} ({} bytes)", new Object[] { filename, target, target.length() });
+            return target;
+        }
+    }
+
+    private Object lockFor(String key) {
+        Object lock = locks.get(key);
+        if (lock == null) {
+            locks.putIfAbsent(key, new Object());
+            lock = locks.get(key);
+        }
+        return lock;
+    }
+
+    protected String keyFor(String url, @Nullable String sha256) {
+        if (Strings.isNonBlank(sha256)) return "sha256-" + sha256.trim().toLowerCase();
+        return "url-" + Hashing.sha256().hashString(url, Charsets.UTF_8).toString();
+    }
+
+    protected void download(String url, File target, @Nullable String sha256) throws IOException {
+        File dir = target.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create artifact cache directory "+dir);
+        File partial = new File(dir, target.getName() + ".part");
+        InputStream in = ResourceUtils.create(this).getResourceFromUrl(url);
+        OutputStream out = new FileOutputStream(partial);
+        try {
+            ByteStreams.copy(in, out);
+        } finally {
+            Closeables.close(in, true);
+            Closeables.close(out, true);
+        }
+        if (Strings.isNonBlank(sha256)) {
+            String actual = Files.hash(partial, Hashing.sha256()).toString();
+            if (!actual.equalsIgnoreCase(sha256.trim())) {
+                partial.delete();
+                throw new IOException("Checksum mismatch for "+url+": expected "+sha256+", got "+actual);
+            }
+        }
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            throw new IOException("Cannot move downloaded artifact into place at "+target);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package io.cloudsoft.opengamma.install;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Packages classes from the management node's classpath into a jar, for classes which run inside the
+ * OpenGamma server (such as Jetty handlers referenced from its config). Only the named classes are
+ * included, so they should not have inner classes or depend on anything not on the server's classpath.
+ * Jars are built once per list of classes and cached.
+ */
+public class ClassJar {
+
+    private static final Cache<List<String>, byte[]> JARS = CacheBuilder.newBuilder().maximumSize(16).build();
+
+    public static byte[] of(final ClassLoader loader, List<String> classNames) {
+        final List<String> names = ImmutableList.copyOf(classNames);
+        try {
+            return JARS.get(names, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return build(loader, names);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        }
+    }
+
+    static byte[] build(ClassLoader loader, List<String> classNames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream out = new JarOutputStream(bytes);
+        for (String name : classNames) {
+            String path = name.replace('.', '/') + ".class";
+            InputStream in = loader.getResourceAsStream(path);
+            if (in == null) throw new IllegalArgumentException("Class "+name+" not found on the classpath of "+loader);
+            try {
+                out.putNextEntry(new JarEntry(path));
+                ByteStreams.copy(in, out);
+                out.closeEntry();
+            } finally {
+                Closeables.close(in, true);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+}
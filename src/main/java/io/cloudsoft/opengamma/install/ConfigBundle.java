@@ -0,0 +1,79 @@
+package io.cloudsoft.opengamma.install;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import brooklyn.util.exceptions.Exceptions;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An in-memory archive of the files to be written to a server, so they can be sent in a single
+ * transfer and unpacked with a single remote command.
+ * <p>
+ * Paths are relative to the directory the archive will be unpacked in; parent directories are
+ * created when it is unpacked. Zip entries do not carry Unix permissions, so the caller should
+ * {@code chmod} the {@link #getExecutablePaths() executable paths} after unpacking.
+ */
+public class ConfigBundle {
+
+    private final Map<String, byte[]> files = Maps.newLinkedHashMap();
+    private final List<String> executables = Lists.newArrayList();
+
+    public ConfigBundle add(String path, byte[] contents) {
+        files.put(normalise(path), contents);
+        return this;
+    }
+
+    public ConfigBundle add(String path, String contents) {
+        return add(path, contents.getBytes(Charsets.UTF_8));
+    }
+
+    public ConfigBundle addExecutable(String path, byte[] contents) {
+        add(path, contents);
+        executables.add(normalise(path));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(Lists.newArrayList(files.keySet()));
+    }
+
+    public List<String> getExecutablePaths() {
+        return Collections.unmodifiableList(executables);
+    }
+
+    public byte[] toZip() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ZipOutputStream out = new ZipOutputStream(bytes);
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                out.putNextEntry(new ZipEntry(file.getKey()));
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    private static String normalise(String path) {
+        String result = path;
+        while (result.startsWith("/")) result = result.substring(1);
+        return result;
+    }
+
+}
@@ -0,0 +1,77 @@
+package io.cloudsoft.opengamma.install;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Overlays the classes from one or more patch jars onto a base jar, producing a new jar.
+ * <p>
+ * The base jar's {@code META-INF} is kept; everything else in the patches replaces the base jar's entries
+ * of the same name, or is added if the base jar has no such entry, with later patches taking precedence.
+ * This differs from the {@code unzip -fo} previously run on each server, which only freshened entries
+ * already in the base jar: classes new in a patch (such as an added inner class) are now included rather
+ * than silently dropped. Patching through {@code lib/override} does not work with OpenGamma's classloading.
+ */
+public class JarPatcher {
+
+    private JarPatcher() {}
+
+    public static void patch(File baseJar, List<File> patchJars, File target) throws IOException {
+        Map<String, byte[]> patched = Maps.newLinkedHashMap();
+        for (File patchJar : patchJars) {
+            ZipInputStream in = new ZipInputStream(new FileInputStream(patchJar));
+            try {
+                ZipEntry entry;
+                while ((entry = in.getNextEntry()) != null) {
+                    if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) continue;
+                    patched.put(entry.getName(), ByteStreams.toByteArray(in));
+                }
+            } finally {
+                Closeables.close(in, true);
+            }
+        }
+
+        Set<String> written = Sets.newHashSet();
+        ZipInputStream in = new ZipInputStream(new FileInputStream(baseJar));
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target));
+        boolean succeeded = false;
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!written.add(entry.getName())) continue;
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                byte[] replacement = patched.get(entry.getName());
+                if (replacement != null) {
+                    out.write(replacement);
+                } else {
+                    ByteStreams.copy(in, out);
+                }
+                out.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> added : patched.entrySet()) {
+                if (!written.add(added.getKey())) continue;
+                out.putNextEntry(new ZipEntry(added.getKey()));
+                out.write(added.getValue());
+                out.closeEntry();
+            }
+            succeeded = true;
+        } finally {
+            Closeables.close(in, true);
+            Closeables.close(out, !succeeded);
+        }
+    }
+
+}
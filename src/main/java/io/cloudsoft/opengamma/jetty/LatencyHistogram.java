@@ -0,0 +1,157 @@
+package io.cloudsoft.opengamma.jetty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A low-overhead histogram of request latencies, for export over JMX from inside the OpenGamma server
+ * (so it depends on nothing but the JDK).
+ * <p>
+ * Latencies are recorded in microseconds into log-linear buckets: 16 per power of two, so a percentile is
+ * reported to within 1/16 (about 6%) of the true value. Recording is one atomic increment, with no locking
+ * or allocation. Percentiles cover the current and previous windows (so between one and two
+ * {@link #setWindowSeconds(int) windows} of requests), and are computed at most once a second, so that
+ * the percentile attributes read in one poll are consistent with each other.
+ * <p>
+ * The same counts are exported as a {@link #getLatencySketch() sketch}, so that histograms from many servers
+ * can be merged (by adding counts per bucket) and percentiles computed across all of their requests.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // up to 2^40 microseconds (about 12 days)
+    static final int MAX_MSB = 40;
+    static final int BUCKETS = (MAX_MSB - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final long SNAPSHOT_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long windowNanos = TimeUnit.SECONDS.toNanos(60);
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    private volatile long windowStart = System.nanoTime();
+
+    private final Object snapshotLock = new Object();
+    private long[] snapshot = new long[BUCKETS];
+    private long snapshotCount = 0;
+    private long snapshotTime = 0;
+    private boolean snapshotValid = false;
+
+    /** Bucket index of a latency in microseconds. */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) return (int) Math.max(micros, 0);
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        if (msb > MAX_MSB) return BUCKETS - 1;
+        int shift = msb - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) - SUB_BUCKETS);
+    }
+
+    /** Highest latency in microseconds recorded in the given bucket. */
+    public static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = ((long) (bucket % SUB_BUCKETS) + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public void record(long micros) {
+        rotateIfDue(System.nanoTime());
+        current.incrementAndGet(bucketOf(micros));
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toMicros(duration));
+    }
+
+    private void rotateIfDue(long now) {
+        if (now - windowStart < windowNanos) return;
+        synchronized (this) {
+            if (now - windowStart < windowNanos) return;
+            // two windows have passed with no requests: nothing recent to keep
+            previous = (now - windowStart < 2 * windowNanos) ? current : new AtomicLongArray(BUCKETS);
+            current = new AtomicLongArray(BUCKETS);
+            windowStart = now;
+        }
+    }
+
+    /** Latency in milliseconds below which the given fraction of requests completed, or 0 if there were none. */
+    public double getPercentile(double fraction) {
+        synchronized (snapshotLock) {
+            refreshSnapshot();
+            if (snapshotCount == 0) return 0;
+            long rank = (long) Math.ceil(fraction * snapshotCount);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && snapshot[i] > 0) return upperBoundOf(i) / 1000d;
+            }
+            return upperBoundOf(BUCKETS - 1) / 1000d;
+        }
+    }
+
+    private void refreshSnapshot() {
+        long now = System.nanoTime();
+        if (snapshotValid && now - snapshotTime < SNAPSHOT_MAX_AGE_NANOS) return;
+        rotateIfDue(now);
+        AtomicLongArray c = current, p = previous;
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = c.get(i) + p.get(i);
+            count += snapshot[i];
+        }
+        snapshotCount = count;
+        snapshotTime = now;
+        snapshotValid = true;
+    }
+
+    public double getLatencyP50() {
+        return getPercentile(0.5);
+    }
+
+    public double getLatencyP95() {
+        return getPercentile(0.95);
+    }
+
+    public double getLatencyP99() {
+        return getPercentile(0.99);
+    }
+
+    public double getLatencyP999() {
+        return getPercentile(0.999);
+    }
+
+    /** Number of requests the percentiles cover. */
+    public long getLatencyCount() {
+        synchronized (snapshotLock) {
+            refreshSnapshot();
+            return snapshotCount;
+        }
+    }
+
+    /**
+     * The counts the percentiles cover, as {@code bucket:count} for each non-empty bucket, comma-separated
+     * (so typically a few hundred characters however many requests).
+     */
+    public String getLatencySketch() {
+        synchronized (snapshotLock) {
+            refreshSnapshot();
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (snapshot[i] == 0) continue;
+                if (result.length() > 0) result.append(',');
+                result.append(i).append(':').append(snapshot[i]);
+            }
+            return result.toString();
+        }
+    }
+
+    public int getWindowSeconds() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(windowNanos);
+    }
+
+    public void setWindowSeconds(int seconds) {
+        if (seconds <= 0) throw new IllegalArgumentException("window must be positive: "+seconds);
+        windowNanos = TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+}
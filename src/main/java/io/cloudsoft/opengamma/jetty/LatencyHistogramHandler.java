@@ -0,0 +1,42 @@
+package io.cloudsoft.opengamma.jetty;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Jetty handler which records the time taken to handle each request into a {@link LatencyHistogram},
+ * wrapping the server's real handler (see jetty-spring.xml). Runs inside the OpenGamma server, where the
+ * histogram is exported over JMX.
+ * <p>
+ * Times the handling thread, so a suspended (asynchronous) request is timed up to its suspension.
+ */
+public class LatencyHistogramHandler extends HandlerWrapper {
+
+    private LatencyHistogram histogram = new LatencyHistogram();
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public void setHistogram(LatencyHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+        long start = System.nanoTime();
+        try {
+            super.handle(target, baseRequest, request, response);
+        } finally {
+            histogram.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+}
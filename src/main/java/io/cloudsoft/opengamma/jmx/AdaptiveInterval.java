@@ -0,0 +1,62 @@
+package io.cloudsoft.opengamma.jmx;
+
+import brooklyn.util.time.Duration;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A poll interval which stretches (geometrically, up to a maximum) while the polled values are stable,
+ * and drops back to the minimum as soon as they change or polling is made urgent.
+ * Not thread-safe; intended for use by a single poller.
+ */
+public class AdaptiveInterval {
+
+    public static final double DEFAULT_GROWTH = 1.5d;
+
+    private final long minMillis;
+    private final long maxMillis;
+    private final double growth;
+    private long currentMillis;
+
+    public AdaptiveInterval(Duration min, Duration max) {
+        this(min.toMilliseconds(), max.toMilliseconds(), DEFAULT_GROWTH);
+    }
+
+    public AdaptiveInterval(long minMillis, long maxMillis, double growth) {
+        Preconditions.checkArgument(minMillis > 0, "min interval must be positive: %s", minMillis);
+        Preconditions.checkArgument(maxMillis >= minMillis, "max interval %s less than min %s", maxMillis, minMillis);
+        Preconditions.checkArgument(growth >= 1, "growth must be at least 1: %s", growth);
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.growth = growth;
+        this.currentMillis = minMillis;
+    }
+
+    public long getMillis() {
+        return currentMillis;
+    }
+
+    public boolean isAdaptive() {
+        return maxMillis > minMillis;
+    }
+
+    /** Records the outcome of a poll: back to the minimum if anything changed, otherwise stretched. */
+    public void onPoll(boolean changed) {
+        if (changed) {
+            currentMillis = minMillis;
+        } else {
+            currentMillis = Math.min(maxMillis, (long) Math.ceil(currentMillis * growth));
+        }
+    }
+
+    /** Back to the minimum interval, e.g. while a policy is close to acting on the polled values. */
+    public void urgent() {
+        currentMillis = minMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+currentMillis+"ms in "+minMillis+"-"+maxMillis+"ms]";
+    }
+
+}
@@ -0,0 +1,359 @@
+package io.cloudsoft.opengamma.jmx;
+
+import io.cloudsoft.opengamma.server.CoalescingSensorPublisher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityInternal;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.event.feed.jmx.JmxAttributePollConfig;
+import brooklyn.event.feed.jmx.JmxFeed;
+import brooklyn.event.feed.jmx.JmxHelper;
+import brooklyn.management.Task;
+import brooklyn.util.collections.MutableMap;
+import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.flags.TypeCoercions;
+import brooklyn.util.task.BasicTask;
+import brooklyn.util.task.ScheduledTask;
+import brooklyn.util.time.Duration;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A JMX feed which fetches all the attributes it polls from an MBean in one {@code getAttributes} call, over the
+ * entity's {@link JmxConnectionPool pooled} connection, rather than one round trip per attribute as {@link JmxFeed} does.
+ * <p>
+ * Takes the same {@link JmxAttributePollConfig}s as {@link JmxFeed} (only their object name, attribute name and
+ * success, failure and exception functions are used), so a {@link Builder#bulk(boolean) non-bulk} feed simply
+ * delegates to a {@link JmxFeed}. Publishes the {@link #POLL_LATENCY latency}, {@link #POLL_COST cost} and
+ * {@link #POLL_ROUND_TRIPS round trips} of each poll through its {@link Builder#sink(CoalescingSensorPublisher.Sink) sink},
+ * like the polled values, but only when they change.
+ * <p>
+ * Given a {@link Builder#maxPeriod(Duration) max period}, the poll interval {@link AdaptiveInterval adapts}:
+ * it stretches towards the max while the polled values are stable, and drops back to the period as soon as
+ * they change or the entity's {@link #POLL_URGENT} sensor is set (e.g. by whatever sets up a policy on them).
+ * Attributes which change on every poll regardless of load, such as a histogram of every request, can be
+ * {@link Builder#pollAttributeUntracked(JmxAttributePollConfig) polled without tracking} their changes.
+ * Polls are also subject to the management node's shared {@link PollBudget}.
+ * <p>
+ * {@link JmxCollector Collectors} run as part of each poll, for MBeans which must be discovered.
+ */
+public class BulkJmxFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkJmxFeed.class);
+
+    public static final AttributeSensor<Long> POLL_LATENCY =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.jmx.poll.latency", "Time (ms) taken by the most recent bulk JMX poll");
+
+    public static final AttributeSensor<Long> POLL_COST =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.jmx.poll.cost", "Management node CPU time (microseconds) used by the most recent bulk JMX poll");
+
+    public static final AttributeSensor<Integer> POLL_ROUND_TRIPS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.jmx.poll.roundTrips", "JMX round trips made by each bulk poll (one per polled MBean, plus those of any collectors)");
+
+    public static final AttributeSensor<Long> POLL_INTERVAL =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.jmx.poll.interval", "Current interval (ms) between bulk JMX polls");
+
+    public static final AttributeSensor<Long> POLL_DEFERRED =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.jmx.poll.deferred", "Number of bulk JMX polls deferred for the management node's poll budget");
+
+    public static final AttributeSensor<Boolean> POLL_URGENT =
+            new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.jmx.poll.urgent", "Set to poll at the shortest interval, and regardless of the poll budget");
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private EntityLocal entity;
+        private Duration period = Duration.ONE_SECOND;
+        private Duration maxPeriod;
+        private boolean bulk = true;
+        private List<JmxAttributePollConfig<?>> polls = Lists.newArrayList();
+        private List<JmxCollector> collectors = Lists.newArrayList();
+        private Set<String> untracked = Sets.newHashSet();
+        private CoalescingSensorPublisher.Sink sink;
+
+        public Builder entity(EntityLocal val) {
+            this.entity = val;
+            return this;
+        }
+        public Builder period(Duration val) {
+            this.period = val;
+            return this;
+        }
+        /** Longest interval to stretch to while values are stable; if unset, polls every period. */
+        public Builder maxPeriod(Duration val) {
+            this.maxPeriod = val;
+            return this;
+        }
+        /** Whether to poll in bulk (the default), or fall back to a plain {@link JmxFeed} (polling every period). */
+        public Builder bulk(boolean val) {
+            this.bulk = val;
+            return this;
+        }
+        public Builder pollAttribute(JmxAttributePollConfig<?> val) {
+            polls.add(val);
+            return this;
+        }
+        /** Polls the attribute, but its changes do not count as the values changing (so do not hold the interval down). */
+        public Builder pollAttributeUntracked(JmxAttributePollConfig<?> val) {
+            polls.add(val);
+            untracked.add(val.getObjectName()+"/"+val.getAttributeName());
+            return this;
+        }
+        /**
+         * Where the polled attributes' values are published, e.g. through the entity's {@link CoalescingSensorPublisher}
+         * for those that are metrics; by default they are set on the entity. Not used when not polling in bulk.
+         */
+        public Builder sink(CoalescingSensorPublisher.Sink val) {
+            this.sink = val;
+            return this;
+        }
+        public Builder collector(JmxCollector val) {
+            collectors.add(val);
+            return this;
+        }
+        /** Builds and starts the feed. */
+        public BulkJmxFeed build() {
+            Preconditions.checkNotNull(entity, "entity");
+            BulkJmxFeed result = new BulkJmxFeed(this);
+            result.start();
+            return result;
+        }
+    }
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sink;
+    private final Duration period;
+    private final ListMultimap<ObjectName, JmxAttributePollConfig<?>> pollsByMBean = ArrayListMultimap.create();
+    private final Map<ObjectName, String[]> attributeNames = Maps.newLinkedHashMap();
+    private volatile JmxHelper helper;
+    private volatile Task<?> task;
+    private final AdaptiveInterval interval;
+    private final List<JmxCollector> collectors;
+    private final Map<String, Object> lastValues = Maps.newHashMap();
+    /** the poll's own statistics as last published, by sensor name */
+    private final Map<String, Object> lastStats = Maps.newHashMap();
+    /** attributes (as mbean/attribute) whose changes are not tracked */
+    private final Set<String> untracked;
+    private long lastPollTime = 0;
+    private long deferredCount = 0;
+    // when not polling in bulk
+    private final List<JmxAttributePollConfig<?>> polls;
+    private final boolean bulk;
+    private volatile JmxFeed delegate;
+
+    protected BulkJmxFeed(Builder builder) {
+        this.entity = builder.entity;
+        this.sink = (builder.sink != null) ? builder.sink : CoalescingSensorPublisher.directTo(builder.entity);
+        this.period = builder.period;
+        this.bulk = builder.bulk;
+        this.interval = new AdaptiveInterval(period, (builder.maxPeriod != null) ? builder.maxPeriod : period);
+        this.polls = ImmutableList.copyOf(builder.polls);
+        this.collectors = ImmutableList.copyOf(builder.collectors);
+        this.untracked = ImmutableSet.copyOf(builder.untracked);
+        // when not polling in bulk, the attributes are polled by the delegate (and collectors still run here)
+        for (JmxAttributePollConfig<?> poll : (bulk ? builder.polls : ImmutableList.<JmxAttributePollConfig<?>>of())) {
+            pollsByMBean.put(poll.getObjectName(), poll);
+        }
+        for (ObjectName mbean : pollsByMBean.keySet()) {
+            List<String> names = Lists.newArrayList();
+            for (JmxAttributePollConfig<?> poll : pollsByMBean.get(mbean)) {
+                if (!names.contains(poll.getAttributeName())) names.add(poll.getAttributeName());
+            }
+            attributeNames.put(mbean, names.toArray(new String[names.size()]));
+        }
+    }
+
+    protected void start() {
+        if (!bulk) {
+            JmxFeed.Builder builder = JmxFeed.builder().entity(entity).period(period);
+            for (JmxAttributePollConfig<?> poll : polls) builder.pollAttribute(poll);
+            delegate = builder.build();
+            if (collectors.isEmpty()) return;
+        }
+        helper = JmxConnectionPool.acquire(entity);
+        publishStat(POLL_ROUND_TRIPS, getRoundTrips());
+        publishStat(POLL_INTERVAL, interval.getMillis());
+        // tick at the shortest interval; the tick polls only when the current interval is up
+        ScheduledTask poller = new ScheduledTask(MutableMap.of("displayName", "bulk JMX poll of "+entity, "period", period),
+                new Callable<Task<?>>() {
+                    @Override
+                    public Task<?> call() {
+                        return new BasicTask<Void>(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                if (Entities.isManaged(entity)) tick();
+                                return null;
+                            }
+                        });
+                    }
+                });
+        task = ((EntityInternal) entity).getExecutionContext().submit(poller);
+    }
+
+    public void stop() {
+        if (delegate != null) delegate.stop();
+        Task<?> t = task;
+        task = null;
+        if (t == null) return;
+        t.cancel(true);
+        JmxConnectionPool.release(entity);
+    }
+
+    /** Runs every period, polling if the current interval has elapsed and the budget allows. */
+    protected void tick() {
+        boolean urgent = Boolean.TRUE.equals(entity.getAttribute(POLL_URGENT));
+        if (urgent) interval.urgent();
+        if (System.currentTimeMillis() < lastPollTime + interval.getMillis()) return;
+
+        Integer budget = ((EntityInternal) entity).getManagementContext().getConfig().getConfig(PollBudget.POLLS_PER_SECOND);
+        if (!PollBudget.getInstance().tryAcquire(getRoundTrips(), urgent, budget)) {
+            publishStat(POLL_DEFERRED, ++deferredCount);
+            return;
+        }
+        lastPollTime = System.currentTimeMillis();
+        boolean changed = poll();
+        if (interval.isAdaptive()) {
+            interval.onPoll(changed);
+            publishStat(POLL_INTERVAL, interval.getMillis());
+        }
+    }
+
+    protected int getRoundTrips() {
+        int result = attributeNames.size();
+        for (JmxCollector collector : collectors) result += Math.max(collector.getRoundTrips(), 1);
+        return result;
+    }
+
+    /** Polls all the attributes, and runs the collectors, returning whether any value has changed since the last poll (or could not be read). */
+    protected boolean poll() {
+        boolean changed = false;
+        long start = System.currentTimeMillis();
+        long cpuStart = threadCpuTimeNanos();
+        MBeanServerConnection connection;
+        try {
+            if (!helper.isConnected()) helper.connect();
+            connection = helper.getConnection();
+        } catch (Exception e) {
+            Exceptions.propagateIfFatal(e);
+            if (log.isTraceEnabled()) log.trace("Unable to connect to JMX of "+entity+": "+e);
+            for (JmxAttributePollConfig<?> poll : pollsByMBean.values()) onException(poll, e);
+            return true;
+        }
+        for (Map.Entry<ObjectName, String[]> mbean : attributeNames.entrySet()) {
+            Map<String, Object> values;
+            try {
+                values = toMap(connection.getAttributes(mbean.getKey(), mbean.getValue()));
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                if (log.isTraceEnabled()) log.trace("Unable to get attributes of "+mbean.getKey()+" from "+entity+": "+e);
+                for (JmxAttributePollConfig<?> poll : pollsByMBean.get(mbean.getKey())) onException(poll, e);
+                // a repeated failure (e.g. an MBean the server does not have) is not a change
+                String key = mbean.getKey()+"/!";
+                if (!Objects.equal(lastValues.put(key, e.getClass().getName()), e.getClass().getName())) changed = true;
+                continue;
+            }
+            if (lastValues.remove(mbean.getKey()+"/!") != null) changed = true;
+            for (String name : mbean.getValue()) {
+                String key = mbean.getKey()+"/"+name;
+                if (untracked.contains(key)) continue;
+                Object value = values.get(name);
+                if (!lastValues.containsKey(key) || !Objects.equal(lastValues.get(key), value)) changed = true;
+                lastValues.put(key, value);
+            }
+            for (JmxAttributePollConfig<?> poll : pollsByMBean.get(mbean.getKey())) {
+                // getAttributes omits (rather than fails on) attributes it cannot read
+                if (values.containsKey(poll.getAttributeName())) onSuccess(poll, values.get(poll.getAttributeName()));
+                else onFailure(poll, null);
+            }
+        }
+        for (JmxCollector collector : collectors) {
+            try {
+                if (collector.collect(connection)) changed = true;
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                if (log.isTraceEnabled()) log.trace("Collector "+collector+" failed for "+entity+": "+e);
+            }
+        }
+        publishStat(POLL_ROUND_TRIPS, getRoundTrips());
+        long cpuEnd = threadCpuTimeNanos();
+        publishStat(POLL_LATENCY, System.currentTimeMillis() - start);
+        if (cpuStart >= 0 && cpuEnd >= 0) publishStat(POLL_COST, (cpuEnd - cpuStart) / 1000);
+        return changed;
+    }
+
+    private static Map<String, Object> toMap(AttributeList attributes) {
+        Map<String, Object> result = Maps.newHashMap();
+        for (Attribute attribute : attributes.asList()) {
+            result.put(attribute.getName(), attribute.getValue());
+        }
+        return result;
+    }
+
+    private static long threadCpuTimeNanos() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void onSuccess(JmxAttributePollConfig<?> poll, Object value) {
+        Function f = poll.getOnSuccess();
+        set(poll, (f != null) ? f.apply(value) : value);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void onFailure(JmxAttributePollConfig<?> poll, Object value) {
+        Function f = poll.getOnFailure();
+        if (f != null) set(poll, f.apply(value));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected void onException(JmxAttributePollConfig<?> poll, Exception e) {
+        Function f = poll.getOnException();
+        if (f != null) set(poll, f.apply(e));
+    }
+
+    /** Publishes one of the poll's own statistics through the sink, if it has changed. */
+    private <T> void publishStat(AttributeSensor<T> sensor, T value) {
+        if (!Objects.equal(lastStats.put(sensor.getName(), value), value)) sink.publish(sensor, value);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void set(JmxAttributePollConfig<?> poll, Object value) {
+        AttributeSensor sensor = poll.getSensor();
+        sink.publish(sensor, TypeCoercions.coerce(value, sensor.getType()));
+    }
+
+}
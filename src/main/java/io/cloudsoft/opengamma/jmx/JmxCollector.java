@@ -0,0 +1,21 @@
+package io.cloudsoft.opengamma.jmx;
+
+import javax.management.MBeanServerConnection;
+
+/**
+ * Collects sensors from MBeans which are not known up front (e.g. one per view process, found by
+ * {@link MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp) query}),
+ * as part of each poll of a {@link BulkJmxFeed}, over its connection.
+ */
+public interface JmxCollector {
+
+    /**
+     * Collects from the connection, publishing sensors on the collector's entity.
+     * @return whether anything collected has changed since the last call (so the feed should keep polling often)
+     */
+    boolean collect(MBeanServerConnection connection) throws Exception;
+
+    /** JMX round trips made by the most recent {@link #collect(MBeanServerConnection) collect}, for the poll budget. */
+    int getRoundTrips();
+
+}
@@ -0,0 +1,65 @@
+package io.cloudsoft.opengamma.jmx;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.collect.Maps;
+
+/**
+ * One JMX connection per entity, shared by the feeds and operations on that entity rather than each
+ * opening its own. Callers {@link #acquire(EntityLocal) acquire} the entity's helper and {@link #release(EntityLocal)
+ * release} it when done; the connection is closed when the last user releases it.
+ */
+public class JmxConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    private static final Map<String, PooledHelper> HELPERS = Maps.newHashMap();
+
+    private static class PooledHelper {
+        final JmxHelper helper;
+        int users = 0;
+        PooledHelper(JmxHelper helper) {
+            this.helper = helper;
+        }
+    }
+
+    /** Returns the entity's shared helper (not necessarily connected yet), creating it if necessary. */
+    public static JmxHelper acquire(EntityLocal entity) {
+        synchronized (HELPERS) {
+            PooledHelper pooled = HELPERS.get(entity.getId());
+            if (pooled == null) {
+                pooled = new PooledHelper(new JmxHelper(entity));
+                HELPERS.put(entity.getId(), pooled);
+            }
+            pooled.users++;
+            return pooled.helper;
+        }
+    }
+
+    /** Releases a helper obtained from {@link #acquire(EntityLocal)}, disconnecting it if it has no other users. */
+    public static void release(EntityLocal entity) {
+        JmxHelper toClose = null;
+        synchronized (HELPERS) {
+            PooledHelper pooled = HELPERS.get(entity.getId());
+            if (pooled == null) return;
+            if (--pooled.users <= 0) {
+                HELPERS.remove(entity.getId());
+                toClose = pooled.helper;
+            }
+        }
+        if (toClose != null) {
+            try {
+                toClose.disconnect();
+            } catch (Exception e) {
+                log.debug("Error disconnecting JMX from "+entity+" (ignoring): "+e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package io.cloudsoft.opengamma.jmx;
+
+import java.util.concurrent.TimeUnit;
+
+import brooklyn.config.ConfigKey;
+import brooklyn.entity.basic.ConfigKeys;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A budget of JMX round trips per second shared by all the {@link BulkJmxFeed}s on the management node.
+ * <p>
+ * Routine polls are granted only while the current second's budget lasts, and are otherwise deferred to
+ * a later tick (so stable servers poll less often under load). Urgent polls, e.g. of servers whose metrics
+ * are close to an auto-scaler's thresholds, are always granted (but count against the budget), so the budget
+ * never slows a policy's reaction.
+ */
+public class PollBudget {
+
+    /** Brooklyn property for the budget; unlimited if unset or not positive. */
+    public static final ConfigKey<Integer> POLLS_PER_SECOND = ConfigKeys.newIntegerConfigKey(
+            "opengamma.polling.budget.perSecond", "JMX round trips per second allowed across all the servers " +
+            "polled by this management node (urgent polls excepted); unlimited if unset");
+
+    private static final PollBudget INSTANCE = new PollBudget(Ticker.systemTicker());
+
+    public static PollBudget getInstance() {
+        return INSTANCE;
+    }
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Ticker ticker;
+    private long windowStart;
+    private int used = 0;
+    private long granted = 0;
+    private long deferred = 0;
+
+    public PollBudget(Ticker ticker) {
+        this.ticker = ticker;
+        this.windowStart = ticker.read();
+    }
+
+    /**
+     * Requests a poll of the given number of round trips against a budget of the given number per second
+     * (unlimited if null or not positive).
+     * @return whether the poll may go ahead
+     */
+    public synchronized boolean tryAcquire(int roundTrips, boolean urgent, Integer perSecond) {
+        long now = ticker.read();
+        if (now - windowStart >= WINDOW_NANOS) {
+            windowStart = now;
+            used = 0;
+        }
+        // a poll bigger than the whole budget still goes ahead in an otherwise idle second
+        if (perSecond == null || perSecond <= 0 || urgent || used == 0 || used + roundTrips <= perSecond) {
+            used += roundTrips;
+            granted++;
+            return true;
+        }
+        deferred++;
+        return false;
+    }
+
+    public synchronized long getGrantedCount() {
+        return granted;
+    }
+
+    public synchronized long getDeferredCount() {
+        return deferred;
+    }
+
+}
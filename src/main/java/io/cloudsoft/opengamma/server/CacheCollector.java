@@ -0,0 +1,116 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects the statistics of the server's Ehcache caches (registered on its MBean server by
+ * {@code brooklyn-infrastructure-spring.xml}): per cache region, in {@link OpenGammaServer#CACHE_STATS}, the hit ratio
+ * and evictions per second since the previous poll; and the overall hit ratio and evictions per second.
+ * <p>
+ * The attributes read are configurable ({@link OpenGammaServer#CACHE_STATS_ATTRIBUTES}), and cumulative.
+ */
+public class CacheCollector implements JmxCollector {
+
+    /** Keys in {@link OpenGammaServer#CACHE_STATS_ATTRIBUTES}. */
+    public static final String HITS = "hits";
+    public static final String MISSES = "misses";
+    public static final String EVICTIONS = "evictions";
+
+    /** Keys of each cache's statistics in {@link OpenGammaServer#CACHE_STATS}. */
+    public static final String HIT_RATIO = "hitRatio";
+    public static final String EVICTIONS_PER_SECOND = "evictionsPerSecond";
+
+    private static class Counts {
+        double hits;
+        double misses;
+        double evictions;
+        long time;
+    }
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sensors;
+    private final ObjectName pattern;
+    private final String hitsAttribute, missesAttribute, evictionsAttribute;
+    private final Map<String, Counts> lastCounts = Maps.newHashMap();
+    private Map<String, Map<String, Double>> lastStats = Maps.newHashMap();
+    private volatile int roundTrips = 1;
+
+    public CacheCollector(EntityLocal entity, CoalescingSensorPublisher.Sink sensors, String pattern, Map<String, String> attributes) {
+        this.entity = entity;
+        this.sensors = sensors;
+        this.pattern = JmxHelper.createObjectName(pattern);
+        this.hitsAttribute = attributes.get(HITS);
+        this.missesAttribute = attributes.get(MISSES);
+        this.evictionsAttribute = attributes.get(EVICTIONS);
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Set<ObjectName> names = connection.queryNames(pattern, null);
+        roundTrips = 1 + names.size();
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Double>> stats = Maps.newTreeMap();
+        double hits = 0, lookups = 0, evictionsPerSecond = 0;
+        for (ObjectName name : names) {
+            Map<String, Double> values = ConnectionPoolCollector.getAttributes(connection, name, hitsAttribute, missesAttribute, evictionsAttribute);
+            if (values.get(hitsAttribute) == null || values.get(missesAttribute) == null) continue;
+            String cache = Objects.firstNonNull(name.getKeyProperty("name"), name.getKeyPropertyListString());
+
+            Counts counts = new Counts();
+            counts.hits = values.get(hitsAttribute);
+            counts.misses = values.get(missesAttribute);
+            counts.evictions = (values.get(evictionsAttribute) != null) ? values.get(evictionsAttribute) : 0;
+            counts.time = now;
+            Counts last = lastCounts.put(cache, counts);
+
+            Map<String, Double> cacheStats = Maps.newLinkedHashMap();
+            // counts go back if the cache's statistics are cleared
+            if (last != null && now > last.time && counts.hits >= last.hits && counts.misses >= last.misses && counts.evictions >= last.evictions) {
+                double cacheHits = counts.hits - last.hits;
+                double cacheLookups = cacheHits + counts.misses - last.misses;
+                if (cacheLookups > 0) cacheStats.put(HIT_RATIO, cacheHits / cacheLookups);
+                if (evictionsAttribute != null && values.get(evictionsAttribute) != null) {
+                    double cacheEvictionsPerSecond = (counts.evictions - last.evictions) * 1000 / (now - last.time);
+                    cacheStats.put(EVICTIONS_PER_SECOND, cacheEvictionsPerSecond);
+                    evictionsPerSecond += cacheEvictionsPerSecond;
+                }
+                hits += cacheHits;
+                lookups += cacheLookups;
+            }
+            stats.put(cache, cacheStats);
+        }
+        lastCounts.keySet().retainAll(stats.keySet());
+
+        sensors.publish(OpenGammaServer.CACHE_STATS, stats);
+        // no lookups since the last poll leaves the hit ratio as it was
+        if (lookups > 0) sensors.publish(OpenGammaServer.CACHE_HIT_RATIO, hits / lookups);
+        sensors.publish(OpenGammaServer.CACHE_EVICTIONS_PER_SECOND, evictionsPerSecond);
+
+        boolean changed = !Objects.equal(stats, lastStats);
+        lastStats = stats;
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+", "+pattern+"]";
+    }
+
+}
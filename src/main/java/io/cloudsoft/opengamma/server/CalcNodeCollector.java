@@ -0,0 +1,136 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects how saturated the server's local calc nodes are: busy and idle nodes and the pending job queue, from the
+ * calculation nodes MBean; and the mean time each job waited versus executed, from the per-node statistics MBeans
+ * (discovered on each poll, as nodes come and go).
+ * <p>
+ * The attributes read are configurable ({@link OpenGammaServer#CALC_NODE_STATS_ATTRIBUTES}). The statistics' times
+ * are cumulative nanoseconds, so the per-job means are over the jobs completed since the previous poll.
+ */
+public class CalcNodeCollector implements JmxCollector {
+
+    /** Keys in {@link OpenGammaServer#CALC_NODE_STATS_ATTRIBUTES}: of the calculation nodes MBean... */
+    public static final String TOTAL_NODES = "totalNodes";
+    public static final String IDLE_NODES = "idleNodes";
+    public static final String QUEUED_JOBS = "queuedJobs";
+    /** ...and of each node statistics MBean (all cumulative). */
+    public static final String COMPLETED_JOBS = "completedJobs";
+    public static final String EXECUTION_TIME = "executionTime";
+    public static final String NON_EXECUTION_TIME = "nonExecutionTime";
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sensors;
+    private final ObjectName nodesMBean;
+    private final ObjectName statsPattern;
+    private final Map<String, String> attributes;
+    private Double lastJobs, lastExecutionTime, lastNonExecutionTime;
+    private List<Object> lastSignature = ImmutableList.of();
+    private volatile int roundTrips = 2;
+
+    public CalcNodeCollector(EntityLocal entity, CoalescingSensorPublisher.Sink sensors, String nodesMBean, String statsPattern,
+            Map<String, String> attributes) {
+        this.entity = entity;
+        this.sensors = sensors;
+        this.nodesMBean = JmxHelper.createObjectName(nodesMBean);
+        this.statsPattern = (statsPattern != null) ? JmxHelper.createObjectName(statsPattern) : null;
+        this.attributes = Maps.newLinkedHashMap(attributes);
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Map<String, Double> nodes = read(connection, nodesMBean, TOTAL_NODES, IDLE_NODES, QUEUED_JOBS);
+        Double total = nodes.get(TOTAL_NODES);
+        Double idle = nodes.get(IDLE_NODES);
+        Double queued = nodes.get(QUEUED_JOBS);
+        Integer busy = null;
+        if (queued != null) sensors.publish(OpenGammaServer.CALC_JOB_QUEUE_DEPTH, queued.intValue());
+        if (idle != null) sensors.publish(OpenGammaServer.CALC_NODES_IDLE, idle.intValue());
+        if (total != null && idle != null) {
+            busy = Math.max(total.intValue() - idle.intValue(), 0);
+            sensors.publish(OpenGammaServer.CALC_NODES_BUSY, busy);
+            sensors.publish(OpenGammaServer.CALC_NODE_UTILISATION, (total > 0) ? busy / total : 0d);
+        }
+
+        Double jobs = null;
+        if (statsPattern != null) {
+            Set<ObjectName> names = connection.queryNames(statsPattern, null);
+            roundTrips = 2 + names.size();
+            double executionTime = 0, nonExecutionTime = 0;
+            for (ObjectName name : names) {
+                Map<String, Double> stats = read(connection, name, COMPLETED_JOBS, EXECUTION_TIME, NON_EXECUTION_TIME);
+                if (stats.get(COMPLETED_JOBS) == null) continue;
+                jobs = ((jobs != null) ? jobs : 0) + stats.get(COMPLETED_JOBS);
+                if (stats.get(EXECUTION_TIME) != null) executionTime += stats.get(EXECUTION_TIME);
+                if (stats.get(NON_EXECUTION_TIME) != null) nonExecutionTime += stats.get(NON_EXECUTION_TIME);
+            }
+            // a node which went away takes its counts with it; only publish when jobs have completed since last time
+            if (jobs != null && lastJobs != null && jobs > lastJobs
+                    && executionTime >= lastExecutionTime && nonExecutionTime >= lastNonExecutionTime) {
+                double newJobs = jobs - lastJobs;
+                sensors.publish(OpenGammaServer.CALC_JOB_EXECUTION_TIME, (executionTime - lastExecutionTime) / newJobs / 1e6);
+                sensors.publish(OpenGammaServer.CALC_JOB_WAIT_TIME, (nonExecutionTime - lastNonExecutionTime) / newJobs / 1e6);
+            }
+            lastJobs = jobs;
+            lastExecutionTime = executionTime;
+            lastNonExecutionTime = nonExecutionTime;
+        } else {
+            roundTrips = 1;
+        }
+
+        List<Object> signature = ImmutableList.<Object>of(String.valueOf(queued), String.valueOf(busy), String.valueOf(jobs));
+        boolean changed = !Objects.equal(signature, lastSignature);
+        lastSignature = signature;
+        return changed;
+    }
+
+    /** Reads the named stats' attributes from the MBean, omitting any not configured, not present or not numeric. */
+    private Map<String, Double> read(MBeanServerConnection connection, ObjectName mbean, String... stats) throws Exception {
+        Map<String, String> statsByAttribute = Maps.newLinkedHashMap();
+        for (String stat : stats) {
+            String attribute = attributes.get(stat);
+            if (attribute != null) statsByAttribute.put(attribute, stat);
+        }
+        Map<String, Double> result = Maps.newHashMap();
+        if (statsByAttribute.isEmpty()) return result;
+        try {
+            for (Attribute attribute : connection.getAttributes(mbean, statsByAttribute.keySet().toArray(new String[0])).asList()) {
+                if (attribute.getValue() instanceof Number) {
+                    result.put(statsByAttribute.get(attribute.getName()), ((Number) attribute.getValue()).doubleValue());
+                }
+            }
+        } catch (InstanceNotFoundException e) {
+            // not (yet) registered, e.g. while the server starts, or a node has just been removed
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+", "+nodesMBean+"]";
+    }
+
+}
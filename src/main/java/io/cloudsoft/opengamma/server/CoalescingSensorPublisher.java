@@ -0,0 +1,244 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityInternal;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.management.Task;
+import brooklyn.util.collections.MutableMap;
+import brooklyn.util.task.BasicTask;
+import brooklyn.util.task.ScheduledTask;
+import brooklyn.util.time.Duration;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+
+/**
+ * Cuts the sensor events an entity publishes for its metrics, which fan out to enrichers, policies and persistence:
+ * values unchanged since last published are dropped; other changes are held and only the latest value of each sensor
+ * published at the next {@link #flush(long) flush} (once per coalescing window); and flushes publish at most a capped
+ * number of values per second, leaving the rest held for the next flush.
+ * <p>
+ * Some changes are published at once, whatever the window and cap: a sensor's first value, a change to or from null,
+ * a change by at least the {@link #getSignificantChange() significant} fraction, and a change which crosses one of
+ * the sensor's {@link #addThresholds(AttributeSensor, double...) thresholds} (such as an auto-scaler's).
+ * <p>
+ * Values are published through the {@link Sink}, which sets them on the entity. Only the sensors given to
+ * {@link #publish(AttributeSensor, Object)} are coalesced: the entity decides which of its metrics those are, and
+ * sets the rest (and any sensor Brooklyn itself manages) directly.
+ */
+public class CoalescingSensorPublisher {
+
+    public interface Sink {
+        <T> void publish(AttributeSensor<T> sensor, T value);
+    }
+
+    private static class Held<T> {
+        final AttributeSensor<T> sensor;
+        final T value;
+
+        Held(AttributeSensor<T> sensor, T value) {
+            this.sensor = sensor;
+            this.value = value;
+        }
+
+        void publishTo(Sink sink) {
+            sink.publish(sensor, value);
+        }
+    }
+
+    private final Sink sink;
+    private final long windowMillis;
+    private final double maxPerSecond;
+    private final double significantChange;
+    private final double burst;
+
+    /** by sensor name */
+    private final Map<String, Object> published = Maps.newHashMap();
+    /** by sensor name, in the order first held (so values left by the cap go first next time) */
+    private final Map<String, Held<?>> held = Maps.newLinkedHashMap();
+    private final ListMultimap<String, Double> thresholds = ArrayListMultimap.create();
+
+    private double tokens;
+    private long lastRefill = -1;
+    private long dropped, coalesced, publishedCount;
+
+    /**
+     * @param windowMillis the interval between flushes, over which changes are coalesced
+     * @param maxPerSecond the cap on values published per second by flushes
+     * @param significantChange the fractional change published at once (0 or less for none)
+     */
+    public CoalescingSensorPublisher(Sink sink, long windowMillis, double maxPerSecond, double significantChange) {
+        Preconditions.checkArgument(windowMillis > 0, "window must be positive: %s", windowMillis);
+        Preconditions.checkArgument(maxPerSecond > 0, "max per second must be positive: %s", maxPerSecond);
+        this.sink = Preconditions.checkNotNull(sink, "sink");
+        this.windowMillis = windowMillis;
+        this.maxPerSecond = maxPerSecond;
+        this.significantChange = significantChange;
+        // a full window's worth can go in one flush
+        this.burst = Math.max(1, maxPerSecond * windowMillis / 1000d);
+        this.tokens = burst;
+    }
+
+    /**
+     * A publisher as configured on the entity (or inherited from its parents): see
+     * {@link OpenGammaServer#SENSOR_PUBLISH_WINDOW} and the keys following it.
+     * @return the publisher, or null if coalescing is off
+     */
+    public static CoalescingSensorPublisher newInstance(Entity entity, Sink sink) {
+        Duration window = entity.getConfig(OpenGammaServer.SENSOR_PUBLISH_WINDOW);
+        if (window == null || window.toMilliseconds() <= 0) return null;
+        Double maxPerSecond = Objects.firstNonNull(entity.getConfig(OpenGammaServer.SENSOR_PUBLISH_MAX_PER_SECOND),
+                OpenGammaServer.SENSOR_PUBLISH_MAX_PER_SECOND.getDefaultValue());
+        Double significantChange = entity.getConfig(OpenGammaServer.SENSOR_PUBLISH_SIGNIFICANT_CHANGE);
+        return new CoalescingSensorPublisher(sink, window.toMilliseconds(), maxPerSecond, (significantChange != null) ? significantChange : 0);
+    }
+
+    /** Flushes once a window, in the (managed) entity's execution context, until the returned task is cancelled. */
+    public Task<?> scheduleFlushes(final EntityLocal entity) {
+        ScheduledTask flusher = new ScheduledTask(MutableMap.of("displayName", "publishing coalesced sensors of "+entity,
+                "period", Duration.of(windowMillis, TimeUnit.MILLISECONDS)),
+                new Callable<Task<?>>() {
+                    @Override
+                    public Task<?> call() {
+                        return new BasicTask<Void>(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                if (Entities.isManaged(entity)) flush();
+                                return null;
+                            }
+                        });
+                    }
+                });
+        return ((EntityInternal) entity).getExecutionContext().submit(flusher);
+    }
+
+    /** A sink which sets values on the entity as they are published, for when there is no publisher. */
+    public static Sink directTo(final EntityLocal entity) {
+        return new Sink() {
+            @Override
+            public <T> void publish(AttributeSensor<T> sensor, T value) {
+                entity.setAttribute(sensor, value);
+            }
+        };
+    }
+
+    /** Publishes changes of the sensor across any of the given values at once. */
+    public synchronized void addThresholds(AttributeSensor<?> sensor, double... values) {
+        for (double value : values) {
+            thresholds.put(sensor.getName(), value);
+        }
+    }
+
+    public <T> void publish(AttributeSensor<T> sensor, T value) {
+        publish(sensor, value, System.currentTimeMillis());
+    }
+
+    public synchronized <T> void publish(AttributeSensor<T> sensor, T value, long now) {
+        String name = sensor.getName();
+        boolean seen = published.containsKey(name);
+        Object last = published.get(name);
+        if (seen && Objects.equal(last, value)) {
+            // unchanged, or changed back before a held value was published
+            if (held.remove(name) != null) coalesced++;
+            dropped++;
+            return;
+        }
+        if (!seen || isUrgent(name, last, value)) {
+            refill(now);
+            // bypasses the cap, but counts against it
+            tokens = Math.max(tokens - 1, -burst);
+            if (held.remove(name) != null) coalesced++;
+            emit(new Held<T>(sensor, value));
+            return;
+        }
+        if (held.put(name, new Held<T>(sensor, value)) != null) coalesced++;
+    }
+
+    private boolean isUrgent(String name, Object last, Object value) {
+        if (last == null || value == null) return true;
+        if (!(last instanceof Number) || !(value instanceof Number)) return false;
+        double from = ((Number) last).doubleValue();
+        double to = ((Number) value).doubleValue();
+        for (Double threshold : thresholds.get(name)) {
+            if ((from < threshold) != (to < threshold)) return true;
+        }
+        if (significantChange <= 0) return false;
+        double scale = Math.max(Math.abs(from), Math.abs(to));
+        return scale > 0 && Math.abs(to - from) / scale >= significantChange;
+    }
+
+    /** Publishes the held values, as many as the cap allows. @return the number published */
+    public int flush() {
+        return flush(System.currentTimeMillis());
+    }
+
+    /** Publishes all the held values, regardless of the cap (e.g. when stopping). */
+    public synchronized int flushAll() {
+        int count = held.size();
+        for (Held<?> next : held.values()) {
+            emit(next);
+        }
+        held.clear();
+        return count;
+    }
+
+    public synchronized int flush(long now) {
+        refill(now);
+        int count = 0;
+        for (Iterator<Held<?>> i = held.values().iterator(); i.hasNext() && tokens >= 1; ) {
+            Held<?> next = i.next();
+            i.remove();
+            tokens--;
+            emit(next);
+            count++;
+        }
+        return count;
+    }
+
+    private void refill(long now) {
+        if (lastRefill >= 0 && now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * maxPerSecond / 1000d);
+        }
+        if (now > lastRefill) lastRefill = now;
+    }
+
+    private void emit(Held<?> value) {
+        published.put(value.sensor.getName(), value.value);
+        publishedCount++;
+        value.publishTo(sink);
+    }
+
+    public double getSignificantChange() {
+        return significantChange;
+    }
+
+    /** @return the number of values waiting for a flush */
+    public synchronized int getHeldCount() {
+        return held.size();
+    }
+
+    /** @return the number of values not published, because unchanged or superseded by a later value */
+    public synchronized long getSuppressedCount() {
+        return dropped + coalesced;
+    }
+
+    public synchronized long getPublishedCount() {
+        return publishedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName()+"[published="+publishedCount+", suppressed="+(dropped + coalesced)+", held="+held.size()+"]";
+    }
+
+}
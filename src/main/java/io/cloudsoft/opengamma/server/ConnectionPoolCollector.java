@@ -0,0 +1,149 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects the statistics of the server's BoneCP connection pools (those in {@code brooklyn-infrastructure-spring.xml}):
+ * per pool, in {@link OpenGammaServer#CONNECTION_POOL_STATS}, the mean time to get a connection (over the connections
+ * requested since the previous poll), connections leased and free, and saturation (leased as a fraction of the pool's
+ * maximum); and the worst of each across the pools.
+ * <p>
+ * The connection counts are always available. The request counts and wait times are only recorded by some BoneCP
+ * versions (0.8 and later, with {@code statisticsEnabled}; not the 0.7 bundled with OpenGamma 2.1), so the wait time
+ * is only published once a pool has counted a request.
+ */
+public class ConnectionPoolCollector implements JmxCollector {
+
+    public static final String WAIT_TIME = "waitTimeMs";
+    public static final String LEASED = "leased";
+    public static final String FREE = "free";
+    public static final String SATURATION = "saturation";
+
+    private static final ObjectName BONECP = JmxHelper.createObjectName("com.jolbox.bonecp:*");
+    private static final String STATISTICS_PREFIX = "BoneCP-";
+    private static final String CONFIG_PREFIX = "BoneCPConfig-";
+    private static final String[] ATTRIBUTES = { "ConnectionsRequested", "CumulativeConnectionWaitTime", "TotalLeased", "TotalFree" };
+
+    private static class Requests {
+        double requested;
+        double waitTime;
+    }
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sensors;
+    /** pool max sizes (from its config MBean, read once) */
+    private final Map<String, Double> maxSizes = Maps.newHashMap();
+    private final Map<String, Requests> lastRequests = Maps.newHashMap();
+    private Map<String, Map<String, Double>> lastStats = Maps.newHashMap();
+    private volatile int roundTrips = 1;
+
+    public ConnectionPoolCollector(EntityLocal entity, CoalescingSensorPublisher.Sink sensors) {
+        this.entity = entity;
+        this.sensors = sensors;
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Set<ObjectName> names = connection.queryNames(BONECP, null);
+        int trips = 1;
+        Map<String, Map<String, Double>> stats = Maps.newTreeMap();
+        for (ObjectName name : names) {
+            String type = name.getKeyProperty("type");
+            if (type == null || !type.startsWith(STATISTICS_PREFIX)) continue;
+            String pool = type.substring(STATISTICS_PREFIX.length());
+            Map<String, Double> values = getAttributes(connection, name, ATTRIBUTES);
+            trips++;
+            if (values.isEmpty()) continue;
+
+            Map<String, Double> poolStats = Maps.newLinkedHashMap();
+            Double requested = values.get("ConnectionsRequested");
+            Double waitTime = values.get("CumulativeConnectionWaitTime");
+            if (requested != null && waitTime != null && requested > 0) {
+                Requests last = lastRequests.get(pool);
+                if (last != null && requested >= last.requested && waitTime >= last.waitTime) {
+                    // no requests since the last poll means no waiting
+                    poolStats.put(WAIT_TIME, (requested > last.requested) ? (waitTime - last.waitTime) / (requested - last.requested) : 0d);
+                }
+                Requests requests = new Requests();
+                requests.requested = requested;
+                requests.waitTime = waitTime;
+                lastRequests.put(pool, requests);
+            }
+            Double leased = values.get("TotalLeased");
+            if (leased != null) poolStats.put(LEASED, leased);
+            if (values.get("TotalFree") != null) poolStats.put(FREE, values.get("TotalFree"));
+
+            if (!maxSizes.containsKey(pool)) {
+                Map<String, Double> config = getAttributes(connection,
+                        JmxHelper.createObjectName("com.jolbox.bonecp:type="+CONFIG_PREFIX+pool), "MaxConnectionsPerPartition", "PartitionCount");
+                trips++;
+                if (config.get("MaxConnectionsPerPartition") != null && config.get("PartitionCount") != null) {
+                    maxSizes.put(pool, config.get("MaxConnectionsPerPartition") * config.get("PartitionCount"));
+                }
+            }
+            Double maxSize = maxSizes.get(pool);
+            if (leased != null && maxSize != null && maxSize > 0) poolStats.put(SATURATION, leased / maxSize);
+            stats.put(pool, poolStats);
+        }
+        roundTrips = trips;
+        lastRequests.keySet().retainAll(stats.keySet());
+
+        sensors.publish(OpenGammaServer.CONNECTION_POOL_STATS, stats);
+        sensors.publish(OpenGammaServer.CONNECTION_POOL_WAIT_TIME_MAX, max(stats, WAIT_TIME));
+        sensors.publish(OpenGammaServer.CONNECTION_POOL_SATURATION_MAX, max(stats, SATURATION));
+
+        boolean changed = !Objects.equal(stats, lastStats);
+        lastStats = stats;
+        return changed;
+    }
+
+    private static Double max(Map<String, Map<String, Double>> stats, String stat) {
+        return ViewCycleStats.max(ViewCycleStats.values(Collections.singleton(stats), stat));
+    }
+
+    /** The numeric attributes' values (null names are ignored), omitting any the MBean does not have; empty if the MBean has gone. */
+    static Map<String, Double> getAttributes(MBeanServerConnection connection, ObjectName name, String... attributes) throws Exception {
+        Map<String, Double> result = Maps.newHashMap();
+        String[] names = Iterables.toArray(Iterables.filter(Arrays.asList(attributes), Predicates.notNull()), String.class);
+        if (names.length == 0) return result;
+        try {
+            for (Attribute attribute : connection.getAttributes(name, names).asList()) {
+                if (attribute.getValue() instanceof Number) {
+                    result.put(attribute.getName(), ((Number) attribute.getValue()).doubleValue());
+                }
+            }
+        } catch (InstanceNotFoundException e) {
+            // not (or no longer) registered
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+"]";
+    }
+
+}
@@ -0,0 +1,202 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+import brooklyn.util.time.Duration;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Collects garbage collection and allocation statistics from the server's GarbageCollector and MemoryPool MXBeans,
+ * published over a rolling window: time spent collecting per second, the longest single collection, collections
+ * per minute, and the allocation and promotion rates.
+ * <p>
+ * The MXBeans give only totals, so: the longest collection is from the last GC info (when the JVM provides it), or
+ * the mean over the poll if longer, of each collector which has collected since the previous poll; allocation is the growth of the eden pool plus, for each young
+ * collection, the eden it emptied (its committed size); and promotion is the growth of the old generation, measured
+ * from its usage after the last old collection when there has been one. Note a concurrent collector's time includes
+ * its concurrent phases, not only its pauses.
+ */
+public class GcCollector implements JmxCollector {
+
+    private static final ObjectName GARBAGE_COLLECTORS = JmxHelper.createObjectName("java.lang:type=GarbageCollector,*");
+    private static final ObjectName MEMORY_POOLS = JmxHelper.createObjectName("java.lang:type=MemoryPool,*");
+    private static final double MB = 1024 * 1024;
+
+    private static class Sample {
+        long time;
+        long gcTime;
+        long gcCount;
+        long allocated;
+        long promoted;
+        long longestPause;
+    }
+
+    private static class CollectorState {
+        long count;
+        long time;
+    }
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sensors;
+    private final long windowMillis;
+    private final LinkedList<Sample> samples = new LinkedList<Sample>();
+    private final Map<ObjectName, CollectorState> collectorStates = Maps.newHashMap();
+    private Long lastYoungCount, lastOldCount, lastEdenUsed, lastOldUsed;
+    private long allocated, promoted;
+    private volatile int roundTrips = 2;
+
+    public GcCollector(EntityLocal entity, CoalescingSensorPublisher.Sink sensors, Duration window) {
+        this.entity = entity;
+        this.sensors = sensors;
+        this.windowMillis = window.toMilliseconds();
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Sample sample = new Sample();
+        sample.time = System.currentTimeMillis();
+        long youngCount = 0, oldCount = 0;
+
+        Set<ObjectName> collectors = connection.queryNames(GARBAGE_COLLECTORS, null);
+        collectorStates.keySet().retainAll(collectors);
+        int trips = 2;
+        for (ObjectName name : collectors) {
+            Map<String, Object> values = getAttributes(connection, name, "CollectionCount", "CollectionTime", "LastGcInfo");
+            trips++;
+            Long count = toLong(values.get("CollectionCount"));
+            Long time = toLong(values.get("CollectionTime"));
+            if (count == null || count < 0 || time == null || time < 0) continue;
+            sample.gcCount += count;
+            sample.gcTime += time;
+            if (isYoung(name.getKeyProperty("name"))) youngCount += count;
+            else oldCount += count;
+
+            // a collector's last GC info is only this poll's if it has collected since the previous one
+            CollectorState state = collectorStates.get(name);
+            if (state == null) {
+                state = new CollectorState();
+                collectorStates.put(name, state);
+            } else if (count > state.count) {
+                long pause = Math.max(time - state.time, 0) / (count - state.count);
+                // LastGcInfo is HotSpot-specific
+                CompositeData lastGc = (CompositeData) values.get("LastGcInfo");
+                if (lastGc != null && lastGc.containsKey("duration")) {
+                    Long duration = toLong(lastGc.get("duration"));
+                    if (duration != null) pause = Math.max(pause, duration);
+                }
+                sample.longestPause = Math.max(sample.longestPause, pause);
+            }
+            state.count = count;
+            state.time = time;
+        }
+
+        Set<ObjectName> pools = connection.queryNames(MEMORY_POOLS, null);
+        Long edenUsed = null, edenCommitted = null, oldUsed = null, oldUsedAfterGc = null;
+        for (ObjectName name : pools) {
+            String pool = name.getKeyProperty("name");
+            boolean eden = pool != null && pool.contains("Eden");
+            boolean old = pool != null && (pool.contains("Old Gen") || pool.contains("Tenured Gen"));
+            if (!eden && !old) continue;
+            Map<String, Object> values = getAttributes(connection, name, "Usage", "CollectionUsage");
+            trips++;
+            CompositeData usage = (CompositeData) values.get("Usage");
+            if (usage == null) continue;
+            if (eden) {
+                edenUsed = toLong(usage.get("used"));
+                edenCommitted = toLong(usage.get("committed"));
+            } else {
+                oldUsed = toLong(usage.get("used"));
+                CompositeData afterGc = (CompositeData) values.get("CollectionUsage");
+                if (afterGc != null) oldUsedAfterGc = toLong(afterGc.get("used"));
+            }
+        }
+        roundTrips = trips;
+
+        if (edenUsed != null && edenCommitted != null && lastEdenUsed != null && lastYoungCount != null) {
+            long youngCollections = Math.max(youngCount - lastYoungCount, 0);
+            allocated += Math.max(edenUsed - lastEdenUsed + youngCollections * edenCommitted, 0);
+        }
+        if (oldUsed != null && lastOldUsed != null && lastOldCount != null) {
+            if (oldCount == lastOldCount) promoted += Math.max(oldUsed - lastOldUsed, 0);
+            else if (oldUsedAfterGc != null) promoted += Math.max(oldUsed - oldUsedAfterGc, 0);
+        }
+        lastYoungCount = youngCount;
+        lastOldCount = oldCount;
+        lastEdenUsed = edenUsed;
+        lastOldUsed = oldUsed;
+        sample.allocated = allocated;
+        sample.promoted = promoted;
+
+        boolean changed = samples.isEmpty() || sample.gcCount != samples.getLast().gcCount;
+        samples.add(sample);
+        // keep one sample older than the window, as the window's start
+        while (samples.size() > 2 && samples.get(1).time <= sample.time - windowMillis) samples.removeFirst();
+        publish();
+        return changed;
+    }
+
+    private void publish() {
+        Sample first = samples.getFirst();
+        Sample last = samples.getLast();
+        long elapsed = last.time - first.time;
+        if (elapsed <= 0) return;
+        long longestPause = 0;
+        for (Iterator<Sample> i = samples.listIterator(1); i.hasNext(); ) {
+            longestPause = Math.max(longestPause, i.next().longestPause);
+        }
+        sensors.publish(OpenGammaServer.GC_TIME_PER_SECOND, (last.gcTime - first.gcTime) * 1000d / elapsed);
+        sensors.publish(OpenGammaServer.GC_PAUSE_MAX, longestPause);
+        sensors.publish(OpenGammaServer.GC_COLLECTIONS_PER_MINUTE, (last.gcCount - first.gcCount) * 60000d / elapsed);
+        sensors.publish(OpenGammaServer.ALLOCATION_RATE, (last.allocated - first.allocated) / MB * 1000d / elapsed);
+        sensors.publish(OpenGammaServer.PROMOTION_RATE, (last.promoted - first.promoted) / MB * 1000d / elapsed);
+    }
+
+    /** Whether the named collector collects the young generation (by the names of HotSpot's collectors). */
+    static boolean isYoung(String collector) {
+        if (collector == null) return false;
+        return collector.equals("PS Scavenge") || collector.equals("ParNew") || collector.equals("Copy")
+                || collector.startsWith("G1 Young");
+    }
+
+    /** The attributes' values, omitting any the MBean does not have; empty if the MBean has gone. */
+    private static Map<String, Object> getAttributes(MBeanServerConnection connection, ObjectName name, String... attributes) throws Exception {
+        Map<String, Object> result = Maps.newHashMap();
+        try {
+            for (Attribute attribute : connection.getAttributes(name, attributes).asList()) {
+                result.put(attribute.getName(), attribute.getValue());
+            }
+        } catch (InstanceNotFoundException e) {
+            // e.g. a memory pool replaced as the heap is resized
+        }
+        return result;
+    }
+
+    private static Long toLong(Object value) {
+        return (value instanceof Number) ? ((Number) value).longValue() : null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+"]";
+    }
+
+}
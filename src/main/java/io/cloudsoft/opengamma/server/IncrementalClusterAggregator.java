@@ -0,0 +1,333 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import brooklyn.enricher.basic.AbstractEnricher;
+import brooklyn.entity.Entity;
+import brooklyn.entity.Group;
+import brooklyn.entity.basic.AbstractGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+import brooklyn.management.Task;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Aggregates numeric sensors of a group's members onto the group, keeping running statistics per sensor
+ * ({@link RunningStats}) which each member event updates, rather than recomputing over all members as
+ * {@code CustomAggregatingEnricher} and {@code Enrichers.builder().aggregating(...)} do. With every member
+ * polled every second that recomputation is quadratic in the cluster size; here each event is constant time
+ * (log time for a min or max).
+ * <p>
+ * Any number of metrics (sum, mean, weighted mean, min or max of a sensor) are computed by the one enricher, with one listener
+ * and one subscription per member sensor however many metrics use it. Add the metrics before adding the
+ * enricher to the group:
+ * <pre>
+ * cluster.addEnricher(new IncrementalClusterAggregator()
+ *         .summing(CALC_JOB_QUEUE_DEPTH, CALC_JOB_QUEUE_DEPTH)
+ *         .averaging(CALC_JOB_QUEUE_DEPTH, CALC_JOB_QUEUE_DEPTH_PER_NODE));
+ * </pre>
+ * Members which have not reported a sensor (or have reported null) are left out, except by
+ * {@link #averagingOverMembers(AttributeSensor, AttributeSensor)}. A metric with no values is published as null.
+ * <p>
+ * A {@link #weightedAveraging(AttributeSensor, AttributeSensor, AttributeSensor) weighted mean} weights each member's
+ * value by another of its sensors, e.g. a region's latency by its request rate, so the result reflects where the
+ * load is. If no member reports a positive weight, the members are weighted equally.
+ * <p>
+ * The metrics are published through a {@link CoalescingSensorPublisher} configured as for the servers (from the group's
+ * config, usually inherited from the application), so one member event does not mean one event per metric; see
+ * {@link #addThresholds(AttributeSensor, double...)} for values, such as a policy's, whose crossing is published at once.
+ */
+public class IncrementalClusterAggregator extends AbstractEnricher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalClusterAggregator.class);
+
+    public enum Computation {
+        SUM,
+        /** mean of the members reporting the sensor */
+        MEAN,
+        /** mean over all members, counting those not reporting the sensor as 0 */
+        MEAN_OVER_MEMBERS,
+        /** mean of the members reporting the sensor, weighted by another sensor */
+        WEIGHTED_MEAN,
+        MIN,
+        MAX
+    }
+
+    private static class Metric {
+        final RunningStats stats;
+        final AttributeSensor<? extends Number> target;
+        final Computation computation;
+        /** for a weighted mean, the weights, and value times weight and weight of each member reporting both */
+        final RunningStats weights, products, reportedWeights;
+        Object published;
+
+        Metric(RunningStats stats, AttributeSensor<? extends Number> target, Computation computation, RunningStats weights) {
+            this.stats = stats;
+            this.target = target;
+            this.computation = computation;
+            this.weights = weights;
+            this.products = (weights != null) ? new RunningStats() : null;
+            this.reportedWeights = (weights != null) ? new RunningStats() : null;
+        }
+
+        void update(String member) {
+            if (weights == null) return;
+            Double value = stats.get(member);
+            Double weight = weights.get(member);
+            boolean both = (value != null && weight != null);
+            products.put(member, both ? value * weight : null);
+            reportedWeights.put(member, both ? weight : null);
+        }
+
+        void remove(String member) {
+            if (weights == null) return;
+            products.remove(member);
+            reportedWeights.remove(member);
+        }
+    }
+
+    /** by source sensor name */
+    private final Map<String, AttributeSensor<? extends Number>> sources = Maps.newLinkedHashMap();
+    private final Map<String, RunningStats> stats = Maps.newHashMap();
+    /** by each sensor the metric is computed from */
+    private final ListMultimap<String, Metric> metrics = ArrayListMultimap.create();
+    private final List<Metric> allMetrics = Lists.newArrayList();
+    /** ids */
+    private final Set<String> members = Sets.newHashSet();
+    private final Map<AttributeSensor<?>, double[]> thresholds = Maps.newLinkedHashMap();
+    private CoalescingSensorPublisher publisher;
+    private volatile Task<?> flusher;
+
+    public IncrementalClusterAggregator summing(AttributeSensor<? extends Number> source, AttributeSensor<? extends Number> target) {
+        return computing(source, target, Computation.SUM);
+    }
+
+    public IncrementalClusterAggregator averaging(AttributeSensor<? extends Number> source, AttributeSensor<? extends Number> target) {
+        return computing(source, target, Computation.MEAN);
+    }
+
+    public IncrementalClusterAggregator averagingOverMembers(AttributeSensor<? extends Number> source, AttributeSensor<? extends Number> target) {
+        return computing(source, target, Computation.MEAN_OVER_MEMBERS);
+    }
+
+    /** Publishes the mean of the members' values of source, each weighted by the member's value of weight. */
+    public synchronized IncrementalClusterAggregator weightedAveraging(AttributeSensor<? extends Number> source,
+            AttributeSensor<? extends Number> weight, AttributeSensor<? extends Number> target) {
+        Preconditions.checkState(entity == null, "metrics must be added before the enricher is added to %s", entity);
+        Metric metric = new Metric(addSource(source), target, Computation.WEIGHTED_MEAN, addSource(weight));
+        metrics.put(source.getName(), metric);
+        if (!weight.getName().equals(source.getName())) metrics.put(weight.getName(), metric);
+        allMetrics.add(metric);
+        return this;
+    }
+
+    public IncrementalClusterAggregator maximising(AttributeSensor<? extends Number> source, AttributeSensor<? extends Number> target) {
+        return computing(source, target, Computation.MAX);
+    }
+
+    public IncrementalClusterAggregator minimising(AttributeSensor<? extends Number> source, AttributeSensor<? extends Number> target) {
+        return computing(source, target, Computation.MIN);
+    }
+
+    public synchronized IncrementalClusterAggregator computing(AttributeSensor<? extends Number> source,
+            AttributeSensor<? extends Number> target, Computation computation) {
+        Preconditions.checkState(entity == null, "metrics must be added before the enricher is added to %s", entity);
+        Preconditions.checkArgument(computation != Computation.WEIGHTED_MEAN, "weighted mean needs weights; use weightedAveraging");
+        Metric metric = new Metric(addSource(source), target, computation, null);
+        metrics.put(source.getName(), metric);
+        allMetrics.add(metric);
+        return this;
+    }
+
+    private RunningStats addSource(AttributeSensor<? extends Number> source) {
+        if (!sources.containsKey(source.getName())) {
+            sources.put(source.getName(), source);
+            stats.put(source.getName(), new RunningStats());
+        }
+        return stats.get(source.getName());
+    }
+
+    /** Whether one of this aggregator's metrics publishes the given sensor. */
+    public synchronized boolean publishes(AttributeSensor<?> target) {
+        for (Metric metric : allMetrics) {
+            if (metric.target.getName().equals(target.getName())) return true;
+        }
+        return false;
+    }
+
+    /** Publishes changes of the target sensor across any of the given values at once, rather than coalesced. */
+    public synchronized IncrementalClusterAggregator addThresholds(AttributeSensor<?> target, double... values) {
+        thresholds.put(target, values);
+        if (publisher != null) publisher.addThresholds(target, values);
+        return this;
+    }
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        Preconditions.checkArgument(entity instanceof Group, "aggregator must be added to a group, not %s", entity);
+        super.setEntity(entity);
+        Group group = (Group) entity;
+
+        subscribe(group, AbstractGroup.MEMBER_ADDED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberAdded(event.getValue());
+            }
+        });
+        subscribe(group, AbstractGroup.MEMBER_REMOVED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberRemoved(event.getValue());
+            }
+        });
+        SensorEventListener<Object> valueListener = new SensorEventListener<Object>() {
+            @Override
+            public void onEvent(SensorEvent<Object> event) {
+                onValue(event.getSource(), event.getSensor().getName(), event.getValue());
+            }
+        };
+        for (AttributeSensor<? extends Number> source : sources.values()) {
+            subscribeToMembers(group, source, valueListener);
+        }
+
+        synchronized (this) {
+            publisher = CoalescingSensorPublisher.newInstance(entity, new CoalescingSensorPublisher.Sink() {
+                @Override
+                public <T> void publish(AttributeSensor<T> sensor, T value) {
+                    IncrementalClusterAggregator.this.entity.setAttribute(sensor, value);
+                }
+            });
+            if (publisher != null) {
+                for (Map.Entry<AttributeSensor<?>, double[]> entry : thresholds.entrySet()) {
+                    publisher.addThresholds(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        for (Entity member : group.getMembers()) {
+            onMemberAdded(member);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        Task<?> f = flusher;
+        flusher = null;
+        if (f != null) f.cancel(true);
+        super.destroy();
+    }
+
+    protected synchronized void onMemberAdded(Entity member) {
+        if (!members.add(member.getId())) return;
+        for (AttributeSensor<? extends Number> source : sources.values()) {
+            stats.get(source.getName()).put(member.getId(), toDouble(member.getAttribute(source)));
+        }
+        for (Metric metric : allMetrics) {
+            metric.update(member.getId());
+        }
+        // a new member changes every mean over members, so publish all
+        publish(allMetrics);
+    }
+
+    protected synchronized void onMemberRemoved(Entity member) {
+        if (!members.remove(member.getId())) return;
+        for (RunningStats sourceStats : stats.values()) {
+            sourceStats.remove(member.getId());
+        }
+        for (Metric metric : allMetrics) {
+            metric.remove(member.getId());
+        }
+        publish(allMetrics);
+    }
+
+    protected synchronized void onValue(Entity member, String source, Object value) {
+        // events can arrive from a member just removed
+        if (!members.contains(member.getId())) return;
+        RunningStats sourceStats = stats.get(source);
+        if (sourceStats != null && sourceStats.put(member.getId(), toDouble(value))) {
+            for (Metric metric : metrics.get(source)) {
+                metric.update(member.getId());
+            }
+            publish(metrics.get(source));
+        }
+    }
+
+    private void publish(Iterable<Metric> toPublish) {
+        for (Metric metric : toPublish) {
+            Double result = (metric.computation == Computation.WEIGHTED_MEAN)
+                    ? weightedMean(metric.stats, metric.products, metric.reportedWeights)
+                    : compute(metric.stats, metric.computation, members.size());
+            Object value = coerce(result, metric.target.getType());
+            if (Objects.equal(value, metric.published)) continue;
+            metric.published = value;
+            if (LOG.isTraceEnabled()) LOG.trace("{} publishing {} = {} on {}", new Object[] {this, metric.target.getName(), value, entity});
+            @SuppressWarnings("unchecked")
+            AttributeSensor<Object> target = (AttributeSensor<Object>) metric.target;
+            if (publisher != null && isFlushing()) {
+                publisher.publish(target, value);
+            } else {
+                entity.setAttribute(target, value);
+            }
+        }
+    }
+
+    /** Starts the publisher's flushes once the group is managed (before then, values are set directly). */
+    private boolean isFlushing() {
+        if (flusher == null && Entities.isManaged(entity)) flusher = publisher.scheduleFlushes(entity);
+        return flusher != null;
+    }
+
+    static Double compute(RunningStats stats, Computation computation, int memberCount) {
+        switch (computation) {
+        case SUM: return (stats.count() > 0) ? stats.sum() : null;
+        case MEAN: return stats.mean();
+        case MEAN_OVER_MEMBERS: return (memberCount > 0) ? stats.sum() / memberCount : null;
+        case MIN: return stats.min();
+        case MAX: return stats.max();
+        default: throw new IllegalStateException("Cannot compute "+computation+" from values alone");
+        }
+    }
+
+    static Double weightedMean(RunningStats values, RunningStats products, RunningStats weights) {
+        // no load anywhere, so no reason to prefer one member's value
+        if (weights.sum() <= 0) return values.mean();
+        return products.sum() / weights.sum();
+    }
+
+    private static Double toDouble(Object value) {
+        return (value instanceof Number) ? ((Number) value).doubleValue() : null;
+    }
+
+    /** The value as the target sensor's type (so integer sensors stay integers). */
+    static Number coerce(Double value, Class<?> type) {
+        if (value == null) return null;
+        if (Integer.class.equals(type)) return (int) Math.round(value);
+        if (Long.class.equals(type)) return Math.round(value);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        List<String> targets = Lists.newArrayList();
+        for (Metric metric : allMetrics) {
+            targets.add(metric.target.getName());
+        }
+        return getClass().getSimpleName()+"["+targets+"]";
+    }
+
+}
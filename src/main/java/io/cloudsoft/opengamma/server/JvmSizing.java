@@ -0,0 +1,127 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+/**
+ * Heap and garbage collector settings for the OpenGamma server JVM, computed from the memory and
+ * number of cores of the machine it runs on.
+ * <p>
+ * The heap is fixed ({@code -Xms} equal to {@code -Xmx}) at the given fraction of the machine's memory,
+ * rounded down to a multiple of 64m, so it is not resized during view calculations.
+ */
+public class JvmSizing {
+
+    /** Garbage collector profiles for the server JVM (Java 7). */
+    public enum GcProfile {
+        /** Throughput collector: parallel young and old generations. */
+        PARALLEL,
+        /** Concurrent mark-sweep old generation with a parallel young generation: shorter pauses. */
+        CMS,
+        /** Garbage-first: pause-time target; the young generation is sized by the JVM. */
+        G1
+    }
+
+    public static final int MIN_HEAP_MB = 512;
+    public static final int PERM_GEN_MB = 256;
+
+    private final long machineMemoryMb;
+    private final int machineCores;
+    private final GcProfile gcProfile;
+    private final int heapMb;
+    private final int youngGenMb;
+    private final int gcThreads;
+    private final boolean largePages;
+
+    /**
+     * @param machineMemoryMb total memory of the machine
+     * @param machineCores number of cores (processors) of the machine
+     * @param heapFraction fraction of the machine's memory to use for the heap
+     * @param gcProfile garbage collector to use, or null to leave the start script's collector
+     * @param youngGenFraction fraction of the heap for the young generation, or null for the JVM's default
+     *        (always so for G1, or where the collector is left to the start script)
+     * @param largePages whether to back the heap with large pages (which must be configured in the OS)
+     */
+    public JvmSizing(long machineMemoryMb, int machineCores, double heapFraction, @Nullable GcProfile gcProfile,
+            @Nullable Double youngGenFraction, boolean largePages) {
+        if (heapFraction <= 0 || heapFraction >= 1) throw new IllegalArgumentException("Heap fraction must be between 0 and 1, not "+heapFraction);
+        if (youngGenFraction != null && (youngGenFraction <= 0 || youngGenFraction >= 1)) throw new IllegalArgumentException("Young generation fraction must be between 0 and 1, not "+youngGenFraction);
+        this.machineMemoryMb = machineMemoryMb;
+        this.machineCores = Math.max(1, machineCores);
+        this.gcProfile = gcProfile;
+        this.largePages = largePages;
+        this.heapMb = Math.max(MIN_HEAP_MB, (int) (machineMemoryMb * heapFraction) / 64 * 64);
+        this.youngGenMb = (youngGenFraction == null || gcProfile == null || gcProfile == GcProfile.G1) ? 0 : (int) (heapMb * youngGenFraction) / 16 * 16;
+        // same as the JVM's default: all cores up to 8, then 5/8 of each core beyond that
+        this.gcThreads = this.machineCores <= 8 ? this.machineCores : 8 + (this.machineCores - 8) * 5 / 8;
+    }
+
+    public long getMachineMemoryMb() { return machineMemoryMb; }
+
+    public int getMachineCores() { return machineCores; }
+
+    /** @return the garbage collector, or null if it is left to the start script */
+    @Nullable
+    public GcProfile getGcProfile() { return gcProfile; }
+
+    public int getHeapMb() { return heapMb; }
+
+    /** @return the young generation size, or 0 if it is left to the JVM */
+    public int getYoungGenMb() { return youngGenMb; }
+
+    public int getGcThreads() { return gcThreads; }
+
+    public boolean isLargePages() { return largePages; }
+
+    /** Heap options, for the start script's {@code MEM_OPTS}. */
+    public String getMemoryOptions() {
+        List<String> result = Lists.newArrayList("-Xms"+heapMb+"m", "-Xmx"+heapMb+"m", "-XX:MaxPermSize="+PERM_GEN_MB+"m");
+        if (youngGenMb > 0) result.add("-Xmn"+youngGenMb+"m");
+        if (largePages) result.add("-XX:+UseLargePages");
+        return Joiner.on(" ").join(result);
+    }
+
+    /** Garbage collector options, for the start script's {@code GC_OPTS}, or null to keep its own. */
+    @Nullable
+    public String getGcOptions() {
+        if (gcProfile == null) return null;
+        List<String> result = Lists.newArrayList();
+        switch (gcProfile) {
+        case PARALLEL:
+            result.add("-XX:+UseParallelGC");
+            result.add("-XX:+UseParallelOldGC");
+            break;
+        case CMS:
+            result.add("-XX:+UseConcMarkSweepGC");
+            result.add("-XX:+UseParNewGC");
+            result.add("-XX:+CMSParallelRemarkEnabled");
+            result.add("-XX:CMSInitiatingOccupancyFraction=70");
+            result.add("-XX:+UseCMSInitiatingOccupancyOnly");
+            break;
+        case G1:
+            result.add("-XX:+UseG1GC");
+            result.add("-XX:MaxGCPauseMillis=200");
+            break;
+        default:
+            throw new IllegalStateException("Unsupported GC profile "+gcProfile);
+        }
+        result.add("-XX:ParallelGCThreads="+gcThreads);
+        return Joiner.on(" ").join(result);
+    }
+
+    /** Heap and (if chosen) garbage collector options. */
+    public String getJvmOptions() {
+        String gcOptions = getGcOptions();
+        return getMemoryOptions() + (gcOptions != null ? " "+gcOptions : "");
+    }
+
+    @Override
+    public String toString() {
+        return "JvmSizing["+machineMemoryMb+"MB, "+machineCores+" cores: "+getJvmOptions()+"]";
+    }
+
+}
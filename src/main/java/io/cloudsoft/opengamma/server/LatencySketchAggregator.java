@@ -0,0 +1,103 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import brooklyn.enricher.basic.AbstractEnricher;
+import brooklyn.entity.Entity;
+import brooklyn.entity.Group;
+import brooklyn.entity.basic.AbstractGroup;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Publishes on the group the merge of its members' {@link OpenGammaServer#REQUEST_LATENCY_SKETCH latency sketches}, and the
+ * 95th and 99th percentile latencies over it.
+ * <p>
+ * The merge is kept up to date incrementally: each member event subtracts that member's previous sketch and adds its
+ * new one, rather than re-adding every member's sketch (of up to several hundred buckets) as
+ * {@code Enrichers.builder().aggregating(...)} would.
+ */
+public class LatencySketchAggregator extends AbstractEnricher {
+
+    /** by member id; only members which have reported a sketch */
+    private final Map<String, Map<Integer, Long>> sketches = Maps.newHashMap();
+    private final SortedMap<Integer, Long> merged = Maps.newTreeMap();
+    /** ids */
+    private final Set<String> members = Sets.newHashSet();
+    private Map<Integer, Long> published;
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        Preconditions.checkArgument(entity instanceof Group, "aggregator must be added to a group, not %s", entity);
+        super.setEntity(entity);
+        Group group = (Group) entity;
+
+        subscribe(group, AbstractGroup.MEMBER_ADDED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberAdded(event.getValue());
+            }
+        });
+        subscribe(group, AbstractGroup.MEMBER_REMOVED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberRemoved(event.getValue());
+            }
+        });
+        subscribeToMembers(group, OpenGammaServer.REQUEST_LATENCY_SKETCH, new SensorEventListener<Map<Integer, Long>>() {
+            @Override
+            public void onEvent(SensorEvent<Map<Integer, Long>> event) {
+                onValue(event.getSource(), event.getValue());
+            }
+        });
+
+        for (Entity member : group.getMembers()) {
+            onMemberAdded(member);
+        }
+    }
+
+    protected synchronized void onMemberAdded(Entity member) {
+        if (!members.add(member.getId())) return;
+        update(member.getId(), member.getAttribute(OpenGammaServer.REQUEST_LATENCY_SKETCH));
+        publish();
+    }
+
+    protected synchronized void onMemberRemoved(Entity member) {
+        if (!members.remove(member.getId())) return;
+        update(member.getId(), null);
+        publish();
+    }
+
+    protected synchronized void onValue(Entity member, Map<Integer, Long> sketch) {
+        // events can arrive from a member just removed
+        if (!members.contains(member.getId())) return;
+        update(member.getId(), sketch);
+        publish();
+    }
+
+    private void update(String member, Map<Integer, Long> sketch) {
+        Map<Integer, Long> previous = (sketch != null) ? sketches.put(member, sketch) : sketches.remove(member);
+        if (previous != null) LatencySketches.addTo(merged, previous, -1);
+        if (sketch != null) LatencySketches.addTo(merged, sketch, 1);
+    }
+
+    private void publish() {
+        // as for a merge of the sketches: null if no member has reported one
+        Map<Integer, Long> value = sketches.isEmpty() ? null : ImmutableSortedMap.copyOfSorted(merged);
+        if (Objects.equal(value, published)) return;
+        published = value;
+        entity.setAttribute(OpenGammaServer.REQUEST_LATENCY_SKETCH, value);
+        entity.setAttribute(OpenGammaServer.REQUEST_LATENCY_P95, LatencySketches.percentile(value, 0.95));
+        entity.setAttribute(OpenGammaServer.REQUEST_LATENCY_P99, LatencySketches.percentile(value, 0.99));
+    }
+
+}
@@ -0,0 +1,114 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jetty.LatencyHistogram;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+import brooklyn.util.text.Strings;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+
+/**
+ * Mergeable request latency sketches, as published by each server in {@link OpenGammaServer#REQUEST_LATENCY_SKETCH}:
+ * the counts of its {@link LatencyHistogram}'s non-empty buckets, by bucket. Sketches from many servers (or
+ * regions) merge by adding counts, so percentiles over the merged sketch are true percentiles over all their
+ * requests, rather than a mean of the servers' percentiles which a slow server disappears into.
+ */
+public class LatencySketches {
+
+    /** Parses {@link LatencyHistogram#getLatencySketch()}; null if the value is null, empty if there were no requests. */
+    public static SortedMap<Integer, Long> parse(String sketch) {
+        if (sketch == null) return null;
+        SortedMap<Integer, Long> result = Maps.newTreeMap();
+        if (Strings.isBlank(sketch)) return result;
+        for (String entry : sketch.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Invalid latency sketch entry '"+entry+"' in "+sketch);
+            result.put(Integer.parseInt(entry.substring(0, colon).trim()), Long.parseLong(entry.substring(colon + 1).trim()));
+        }
+        return result;
+    }
+
+    /** The sum of the sketches' counts per bucket (skipping null sketches), or null if all are null. */
+    public static SortedMap<Integer, Long> merge(Collection<? extends Map<Integer, Long>> sketches) {
+        SortedMap<Integer, Long> result = null;
+        for (Map<Integer, Long> sketch : sketches) {
+            if (sketch == null) continue;
+            if (result == null) result = Maps.newTreeMap();
+            for (Map.Entry<Integer, Long> entry : sketch.entrySet()) {
+                Long count = result.get(entry.getKey());
+                result.put(entry.getKey(), (count != null ? count : 0) + entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the sketch's counts to (or, with a sign of -1, subtracts them from) the total, dropping buckets left empty;
+     * for keeping a merge up to date as one of the sketches changes.
+     */
+    public static void addTo(Map<Integer, Long> total, Map<Integer, Long> sketch, int sign) {
+        for (Map.Entry<Integer, Long> entry : sketch.entrySet()) {
+            Long count = total.get(entry.getKey());
+            long result = (count != null ? count : 0) + sign * entry.getValue();
+            if (result != 0) total.put(entry.getKey(), result);
+            else total.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Latency in milliseconds below which the given fraction of the sketch's requests completed (to within the
+     * histogram's bucket precision), or null if there were none.
+     */
+    public static Double percentile(Map<Integer, Long> sketch, double fraction) {
+        if (sketch == null) return null;
+        SortedMap<Integer, Long> sorted = (sketch instanceof SortedMap) ? (SortedMap<Integer, Long>) sketch : Maps.newTreeMap(sketch);
+        long total = 0;
+        for (Long count : sorted.values()) {
+            total += count;
+        }
+        if (total == 0) return null;
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        Integer bucket = null;
+        for (Map.Entry<Integer, Long> entry : sorted.entrySet()) {
+            if (entry.getValue() <= 0) continue;
+            bucket = entry.getKey();
+            seen += entry.getValue();
+            if (seen >= rank) break;
+        }
+        return LatencyHistogram.upperBoundOf(bucket) / 1000d;
+    }
+
+    /** Parses a sketch attribute read over JMX. */
+    public static Function<Object, Map<Integer, Long>> parser() {
+        return new Function<Object, Map<Integer, Long>>() {
+            @Override
+            public Map<Integer, Long> apply(Object input) {
+                return (input == null) ? null : parse(input.toString());
+            }
+        };
+    }
+
+    public static Function<Collection<Map<Integer, Long>>, Map<Integer, Long>> merger() {
+        return new Function<Collection<Map<Integer, Long>>, Map<Integer, Long>>() {
+            @Override
+            public Map<Integer, Long> apply(Collection<Map<Integer, Long>> input) {
+                return (input == null) ? null : merge(input);
+            }
+        };
+    }
+
+    public static Function<Map<Integer, Long>, Double> percentileOf(final double fraction) {
+        return new Function<Map<Integer, Long>, Double>() {
+            @Override
+            public Double apply(Map<Integer, Long> input) {
+                return percentile(input, fraction);
+            }
+        };
+    }
+
+}
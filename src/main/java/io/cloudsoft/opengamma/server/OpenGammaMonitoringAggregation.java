@@ -1,9 +1,8 @@
 package io.cloudsoft.opengamma.server;
 
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 
-import brooklyn.enricher.CustomAggregatingEnricher;
-import brooklyn.enricher.Enrichers;
 import brooklyn.enricher.HttpLatencyDetector;
 import brooklyn.enricher.basic.SensorPropagatingEnricher;
 import brooklyn.enricher.basic.SensorTransformingEnricher;
@@ -14,18 +13,44 @@ import brooklyn.entity.trait.Changeable;
 import brooklyn.entity.webapp.DynamicWebAppCluster;
 import brooklyn.event.AttributeSensor;
 import brooklyn.event.basic.BasicAttributeSensor;
-import brooklyn.util.collections.MutableMap;
 
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
 
 public class OpenGammaMonitoringAggregation {
 
     public static final AttributeSensor<Double> PROCESSING_TIME_PER_SECOND_LAST = OpenGammaServer.PROCESSING_TIME_PER_SECOND_LAST;
     public static final AttributeSensor<Double> PROCESSING_TIME_PER_SECOND_IN_WINDOW = OpenGammaServer.PROCESSING_TIME_PER_SECOND_IN_WINDOW;
     public static final AttributeSensor<Integer> VIEW_PROCESSES_COUNT = OpenGammaServer.VIEW_PROCESSES_COUNT;
+    public static final AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_LAST = OpenGammaServer.CALC_JOB_RATE_PER_SECOND_LAST;
+    public static final AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_IN_WINDOW = OpenGammaServer.CALC_JOB_RATE_PER_SECOND_IN_WINDOW;
+    public static final AttributeSensor<Map<String, Map<String, Double>>> VIEW_CYCLE_STATS = OpenGammaServer.VIEW_CYCLE_STATS;
+    public static final AttributeSensor<Double> VIEW_CYCLE_DURATION_MAX = OpenGammaServer.VIEW_CYCLE_DURATION_MAX;
+    public static final AttributeSensor<Double> VIEW_CYCLE_DURATION_P95 = OpenGammaServer.VIEW_CYCLE_DURATION_P95;
+    public static final AttributeSensor<Double> VIEW_CYCLES_PER_SECOND = OpenGammaServer.VIEW_CYCLES_PER_SECOND;
+    public static final AttributeSensor<Double> VIEW_GRAPH_BUILD_TIME_MAX = OpenGammaServer.VIEW_GRAPH_BUILD_TIME_MAX;
+    public static final AttributeSensor<Double> VIEW_LAST_CYCLE_AGE_MAX = OpenGammaServer.VIEW_LAST_CYCLE_AGE_MAX;
+    public static final AttributeSensor<String> VIEW_SLOWEST = OpenGammaServer.VIEW_SLOWEST;
+    public static final AttributeSensor<Integer> CALC_JOB_QUEUE_DEPTH = OpenGammaServer.CALC_JOB_QUEUE_DEPTH;
+    public static final AttributeSensor<Integer> CALC_NODES_BUSY = OpenGammaServer.CALC_NODES_BUSY;
+    public static final AttributeSensor<Integer> CALC_NODES_IDLE = OpenGammaServer.CALC_NODES_IDLE;
+    public static final AttributeSensor<Double> CALC_NODE_UTILISATION = OpenGammaServer.CALC_NODE_UTILISATION;
+    public static final AttributeSensor<Double> CALC_JOB_WAIT_TIME = OpenGammaServer.CALC_JOB_WAIT_TIME;
+    public static final AttributeSensor<Double> CALC_JOB_EXECUTION_TIME = OpenGammaServer.CALC_JOB_EXECUTION_TIME;
+    public static final AttributeSensor<Double> GC_TIME_PER_SECOND = OpenGammaServer.GC_TIME_PER_SECOND;
+    public static final AttributeSensor<Long> GC_PAUSE_MAX = OpenGammaServer.GC_PAUSE_MAX;
+    public static final AttributeSensor<Double> GC_COLLECTIONS_PER_MINUTE = OpenGammaServer.GC_COLLECTIONS_PER_MINUTE;
+    public static final AttributeSensor<Double> ALLOCATION_RATE = OpenGammaServer.ALLOCATION_RATE;
+    public static final AttributeSensor<Double> PROMOTION_RATE = OpenGammaServer.PROMOTION_RATE;
+    public static final AttributeSensor<Double> CONNECTION_POOL_WAIT_TIME_MAX = OpenGammaServer.CONNECTION_POOL_WAIT_TIME_MAX;
+    public static final AttributeSensor<Double> CONNECTION_POOL_SATURATION_MAX = OpenGammaServer.CONNECTION_POOL_SATURATION_MAX;
+    public static final AttributeSensor<Double> CACHE_HIT_RATIO = OpenGammaServer.CACHE_HIT_RATIO;
+    public static final AttributeSensor<Double> CACHE_EVICTIONS_PER_SECOND = OpenGammaServer.CACHE_EVICTIONS_PER_SECOND;
+    public static final AttributeSensor<Map<Integer, Long>> REQUEST_LATENCY_SKETCH = OpenGammaServer.REQUEST_LATENCY_SKETCH;
+    public static final AttributeSensor<Double> REQUEST_LATENCY_P95 = OpenGammaServer.REQUEST_LATENCY_P95;
+    public static final AttributeSensor<Double> REQUEST_LATENCY_P99 = OpenGammaServer.REQUEST_LATENCY_P99;
     
     public static final AttributeSensor<Double> PROCESSING_TIME_PER_SECOND_LAST_PER_NODE =
             new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.processingTime.perSec.last.perNode", "Mean across cluster of percentage of time spent processing requests (most recent period; cf CPU utilisation)");
@@ -36,6 +61,39 @@ public class OpenGammaMonitoringAggregation {
     public static final AttributeSensor<Double> VIEW_PROCESSES_COUNT_PER_NODE =
             new BasicAttributeSensor<Double>(Double.class, "opengamma.views.processes.active.count.perNode", "Mean across cluster of number of active view processes");
 
+    public static final AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_LAST_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.perSec.last.perNode", "Mean across cluster of calc jobs completed per second (most recent period)");
+
+    public static final AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.perSec.windowed.perNode", "Mean across cluster of calc jobs completed per second (windowed over time period)");
+
+    public static final AttributeSensor<Double> CALC_JOB_QUEUE_DEPTH_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.queued.perNode", "Mean across cluster of calc jobs waiting for a calc node");
+
+    public static final AttributeSensor<Double> CALC_NODE_UTILISATION_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.nodes.utilisation.perNode", "Mean across cluster of fraction of calc nodes executing a job");
+
+    public static final AttributeSensor<Double> CALC_JOB_WAIT_TIME_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.waitTime.mean.perNode", "Mean across cluster of mean time (ms) a calc job spent other than executing");
+
+    public static final AttributeSensor<Double> CALC_JOB_EXECUTION_TIME_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.executionTime.mean.perNode", "Mean across cluster of mean time (ms) a calc job spent executing");
+
+    public static final AttributeSensor<Double> GC_TIME_PER_SECOND_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.gc.time.perSec.windowed.perNode", "Mean across cluster of time (ms) spent in garbage collection per second");
+
+    public static final AttributeSensor<Double> GC_COLLECTIONS_PER_MINUTE_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.gc.collections.perMin.windowed.perNode", "Mean across cluster of garbage collections per minute");
+
+    public static final AttributeSensor<Double> ALLOCATION_RATE_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.allocation.mbPerSec.windowed.perNode", "Mean across cluster of heap allocation rate (MB/s)");
+
+    public static final AttributeSensor<Double> PROMOTION_RATE_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.promotion.mbPerSec.windowed.perNode", "Mean across cluster of promotion rate (MB/s) into the old generation");
+
+    public static final AttributeSensor<Double> CACHE_HIT_RATIO_PER_NODE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.caches.hitRatio.perNode", "Mean across cluster of fraction of cache lookups which were hits");
+
     public static final AttributeSensor<Double> PROCESS_CPU_TIME_FRACTION_IN_WINDOW = UsesJavaMXBeans.PROCESS_CPU_TIME_FRACTION_IN_WINDOW;
     
     public static final AttributeSensor<Double> PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE =
@@ -47,68 +105,160 @@ public class OpenGammaMonitoringAggregation {
     public static final BasicAttributeSensor<Integer> OG_SERVER_COUNT =
             new BasicAttributeSensor<Integer>(Integer.class, "opengamma.servers.count", "Number of active servers (web/calc) hosting OpenGamma");
 
+    public static final AttributeSensor<Double> LOAD_SCORE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.autoscaling.loadScore", "Cluster load combined across the composite scaling metrics, as a fraction of target (1 is at target)");
+
+    public static final AttributeSensor<String> LOAD_SCORE_DRIVER =
+            new BasicAttributeSensor<String>(String.class, "opengamma.autoscaling.loadScore.driver", "Composite scaling metric furthest over (or least under) its target");
+
+    // message bus broker, set on the broker (see OpenGammaBrokerMonitoring) and promoted to the app
+
+    public static final AttributeSensor<Map<String, Map<String, Double>>> BROKER_DESTINATION_STATS = new BasicAttributeSensor<Map<String, Map<String, Double>>>(
+            new TypeToken<Map<String, Map<String, Double>>>() {}, "opengamma.broker.destinations.stats", "Throughput and backlog of each OpenGamma destination on the broker, by destination name");
+
+    public static final AttributeSensor<Integer> BROKER_DESTINATION_COUNT =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.broker.destinations.count", "Number of OpenGamma destinations on the broker");
+
+    public static final AttributeSensor<Double> BROKER_ENQUEUES_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.broker.enqueues.perSec", "Messages sent to the broker's OpenGamma destinations per second");
+
+    public static final AttributeSensor<Double> BROKER_DEQUEUES_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.broker.dequeues.perSec", "Messages acknowledged from the broker's OpenGamma destinations per second");
+
+    public static final AttributeSensor<Long> BROKER_PENDING_MESSAGES =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.broker.pending", "Messages pending delivery on the broker's OpenGamma destinations");
+
+    public static final AttributeSensor<Integer> BROKER_CONSUMERS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.broker.consumers", "Consumers of the broker's OpenGamma destinations");
+
+    public static final AttributeSensor<Double> BROKER_MEMORY_PERCENT_USAGE_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.broker.memory.percentUsage.max", "Highest percentage of its memory limit used by any of the broker's OpenGamma destinations");
+
+    // database, set on the database (see OpenGammaDatabaseMonitoring) and promoted to the app
+
+    public static final AttributeSensor<Integer> DATABASE_ACTIVE_CONNECTIONS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.database.connections.active", "Connections to the OpenGamma database running a query");
+
+    public static final AttributeSensor<Integer> DATABASE_IDLE_CONNECTIONS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.database.connections.idle", "Connections to the OpenGamma database held idle (e.g. in the servers' BoneCP pools)");
+
+    public static final AttributeSensor<Integer> DATABASE_MAX_CONNECTIONS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.database.connections.max", "The database's max_connections");
+
+    public static final AttributeSensor<Double> DATABASE_CONNECTIONS_FRACTION =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.database.connections.fraction", "Fraction of the database's max_connections used by OpenGamma");
+
+    public static final AttributeSensor<Long> DATABASE_TRANSACTIONS =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.database.transactions", "Transactions committed or rolled back (total, since statistics were reset)");
+
+    public static final AttributeSensor<Double> DATABASE_TRANSACTIONS_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.database.transactions.perSec", "Transactions committed or rolled back per second");
+
+    public static final AttributeSensor<Double> DATABASE_BUFFER_HIT_RATIO =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.database.bufferCache.hitRatio", "Fraction of blocks read found in the buffer cache (since the last poll)");
+
+    public static final AttributeSensor<Integer> DATABASE_LOCK_WAITS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.database.locks.waiting", "Lock requests waiting to be granted");
+
+    public static final AttributeSensor<Double> DATABASE_LONGEST_QUERY =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.database.query.longest", "Time (s) the longest running OpenGamma query has been running");
+
     public static void aggregateOpenGammaServerSensors(Entity cluster) {
 
-        List<? extends List<? extends AttributeSensor<? extends Number>>> summingEnricherSetup = ImmutableList.of(
-                ImmutableList.of(PROCESSING_TIME_PER_SECOND_LAST, PROCESSING_TIME_PER_SECOND_LAST),
-                ImmutableList.of(PROCESSING_TIME_PER_SECOND_IN_WINDOW, PROCESSING_TIME_PER_SECOND_IN_WINDOW),
-                ImmutableList.of(VIEW_PROCESSES_COUNT, VIEW_PROCESSES_COUNT),
-                ImmutableList.of(PROCESS_CPU_TIME_FRACTION_IN_WINDOW, PROCESS_CPU_TIME_FRACTION_IN_WINDOW)
-        );
-
-        for (List<? extends AttributeSensor<? extends Number>> es : summingEnricherSetup) {
-            AttributeSensor<? extends Number> t = es.get(0);
-            AttributeSensor<? extends Number> total = es.get(1);
-            CustomAggregatingEnricher<?, ?> totaller = CustomAggregatingEnricher.newSummingEnricher(
-                    MutableMap.of("allMembers", true), t, total, null, null);
-            cluster.addEnricher(totaller);
-        }
-
-        cluster.addEnricher(Enrichers.builder()
-                .aggregating(PROCESSING_TIME_PER_SECOND_LAST)
-                .fromMembers()
-                .publishing(PROCESSING_TIME_PER_SECOND_LAST_PER_NODE)
-                .computingAverage()
-                .defaultValueForUnreportedSensors(null)
-                .build());
-        cluster.addEnricher(Enrichers.builder()
-                .aggregating(PROCESSING_TIME_PER_SECOND_IN_WINDOW)
-                .fromMembers()
-                .publishing(PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE)
-                .computingAverage()
-                .defaultValueForUnreportedSensors(null)
-                .build());
-        cluster.addEnricher(Enrichers.builder()
-                .aggregating(PROCESS_CPU_TIME_FRACTION_IN_WINDOW)
-                .fromMembers()
-                .publishing(PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE)
-                .computingAverage()
-                .defaultValueForUnreportedSensors(null)
-                .build());
-        cluster.addEnricher(Enrichers.builder()
-                .aggregating(VIEW_PROCESSES_COUNT)
-                .fromMembers()
-                .publishing(VIEW_PROCESSES_COUNT_PER_NODE)
-                .computingAverage()
-                .defaultValueForUnreportedSensors(0)
-                .build());
+        // servers in the cluster, so that regions can be weighted by it
+        cluster.addEnricher(new SensorTransformingEnricher<Integer, Integer>(cluster, Changeable.GROUP_SIZE,
+                OG_SERVER_COUNT, Functions.<Integer>identity()));
+
+        // one enricher for all the numeric metrics, updated per member event (see IncrementalClusterAggregator)
+        cluster.addEnricher(new IncrementalClusterAggregator()
+                .summing(PROCESSING_TIME_PER_SECOND_LAST, PROCESSING_TIME_PER_SECOND_LAST)
+                .summing(PROCESSING_TIME_PER_SECOND_IN_WINDOW, PROCESSING_TIME_PER_SECOND_IN_WINDOW)
+                .summing(VIEW_PROCESSES_COUNT, VIEW_PROCESSES_COUNT)
+                .summing(CALC_JOB_RATE_PER_SECOND_LAST, CALC_JOB_RATE_PER_SECOND_LAST)
+                .summing(CALC_JOB_RATE_PER_SECOND_IN_WINDOW, CALC_JOB_RATE_PER_SECOND_IN_WINDOW)
+                .summing(PROCESS_CPU_TIME_FRACTION_IN_WINDOW, PROCESS_CPU_TIME_FRACTION_IN_WINDOW)
+                .summing(CALC_JOB_QUEUE_DEPTH, CALC_JOB_QUEUE_DEPTH)
+                .summing(CALC_NODES_BUSY, CALC_NODES_BUSY)
+                .summing(CALC_NODES_IDLE, CALC_NODES_IDLE)
+
+                .averaging(PROCESSING_TIME_PER_SECOND_LAST, PROCESSING_TIME_PER_SECOND_LAST_PER_NODE)
+                .averaging(PROCESSING_TIME_PER_SECOND_IN_WINDOW, PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE)
+                .averaging(PROCESS_CPU_TIME_FRACTION_IN_WINDOW, PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE)
+                .averaging(CALC_JOB_RATE_PER_SECOND_LAST, CALC_JOB_RATE_PER_SECOND_LAST_PER_NODE)
+                .averaging(CALC_JOB_RATE_PER_SECOND_IN_WINDOW, CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE)
+                // a server not yet reporting view processes has none
+                .averagingOverMembers(VIEW_PROCESSES_COUNT, VIEW_PROCESSES_COUNT_PER_NODE)
+                .averaging(CALC_JOB_QUEUE_DEPTH, CALC_JOB_QUEUE_DEPTH_PER_NODE)
+                .averaging(CALC_NODE_UTILISATION, CALC_NODE_UTILISATION_PER_NODE)
+                .averaging(CALC_JOB_WAIT_TIME, CALC_JOB_WAIT_TIME_PER_NODE)
+                .averaging(CALC_JOB_EXECUTION_TIME, CALC_JOB_EXECUTION_TIME_PER_NODE)
+
+                // GC: a high mean says retune (or grow) every server's heap, one server's long pauses show in the max
+                .averaging(GC_TIME_PER_SECOND, GC_TIME_PER_SECOND_PER_NODE)
+                .averaging(GC_COLLECTIONS_PER_MINUTE, GC_COLLECTIONS_PER_MINUTE_PER_NODE)
+                .averaging(ALLOCATION_RATE, ALLOCATION_RATE_PER_NODE)
+                .averaging(PROMOTION_RATE, PROMOTION_RATE_PER_NODE)
+                .maximising(GC_PAUSE_MAX, GC_PAUSE_MAX)
+
+                // pools and caches: the worst server's pool says whether to size pools up, the mean hit ratio whether to size caches out
+                .maximising(CONNECTION_POOL_WAIT_TIME_MAX, CONNECTION_POOL_WAIT_TIME_MAX)
+                .maximising(CONNECTION_POOL_SATURATION_MAX, CONNECTION_POOL_SATURATION_MAX)
+                .averaging(CACHE_HIT_RATIO, CACHE_HIT_RATIO_PER_NODE)
+                .summing(CACHE_EVICTIONS_PER_SECOND, CACHE_EVICTIONS_PER_SECOND));
+
+        // request latency across the whole cluster, from the servers' merged histograms (so one slow server shows in the tail)
+        aggregateLatencySketches(cluster);
+
+        // view cycles across the whole cluster, from each server's per-view statistics
+        // (so the percentile is over all views, not an average of the servers' percentiles)
+        cluster.addEnricher(new ViewCycleStatsAggregator());
+    }
+
+    /**
+     * Publishes on the group the merge of its members' {@link #REQUEST_LATENCY_SKETCH latency sketches}, and the
+     * 95th and 99th percentile latencies over it.
+     */
+    private static void aggregateLatencySketches(Entity group) {
+        group.addEnricher(new LatencySketchAggregator());
     }
 
     public static void aggregateOpenGammaClusterSensors(DynamicFabric webFabric) {
-        // at fabric, take the total for ViewProcesses and Reqs/Sec;
-        // and take avg for reqLatency (note: simple avg -- assuming all regions equal)
-        webFabric.addEnricher(CustomAggregatingEnricher.newSummingEnricher(MutableMap.of("allMembers", true),
-                OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT,
-                OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT, 0, null));
-        webFabric.addEnricher(CustomAggregatingEnricher.newSummingEnricher(MutableMap.of("allMembers", true), 
-                DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW,
-                DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW, null, null));
-        webFabric.addEnricher(CustomAggregatingEnricher.newSummingEnricher(MutableMap.of("allMembers", true),
-                OpenGammaMonitoringAggregation.OG_SERVER_COUNT,
-                OpenGammaMonitoringAggregation.OG_SERVER_COUNT, null, null));
-        webFabric.addEnricher(CustomAggregatingEnricher.newAveragingEnricher(MutableMap.of("allMembers", true), 
-                HttpLatencyDetector.REQUEST_LATENCY_IN_SECONDS_IN_WINDOW,
-                HttpLatencyDetector.REQUEST_LATENCY_IN_SECONDS_IN_WINDOW, null, null));
+        // at fabric, take the total for ViewProcesses, calc jobs/sec, Reqs/Sec, servers and CPU;
+        // and weight each region's per-node figures by its servers, and its probed reqLatency by its Reqs/Sec,
+        // so that a busy region counts for more than an idle one (regions with no load are weighted equally)
+        webFabric.addEnricher(new IncrementalClusterAggregator()
+                .summing(VIEW_PROCESSES_COUNT, VIEW_PROCESSES_COUNT)
+                .summing(CALC_JOB_RATE_PER_SECOND_IN_WINDOW, CALC_JOB_RATE_PER_SECOND_IN_WINDOW)
+                .summing(DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW, DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW)
+                .summing(OG_SERVER_COUNT, OG_SERVER_COUNT)
+                .summing(PROCESS_CPU_TIME_FRACTION_IN_WINDOW, PROCESS_CPU_TIME_FRACTION_IN_WINDOW)
+                .weightedAveraging(HttpLatencyDetector.REQUEST_LATENCY_IN_SECONDS_IN_WINDOW,
+                        DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW, HttpLatencyDetector.REQUEST_LATENCY_IN_SECONDS_IN_WINDOW)
+                .weightedAveraging(PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE, OG_SERVER_COUNT, PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE)
+                .weightedAveraging(PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE, OG_SERVER_COUNT, PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE)
+                .weightedAveraging(VIEW_PROCESSES_COUNT_PER_NODE, OG_SERVER_COUNT, VIEW_PROCESSES_COUNT_PER_NODE)
+                .weightedAveraging(CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE, OG_SERVER_COUNT, CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE));
+        // with true request latency percentiles over all regions' requests from their merged sketches
+        aggregateLatencySketches(webFabric);
+    }
+
+    /**
+     * Propagates from the cluster to the entity wrapping it (a member of the regions fabric) the sensors
+     * {@link #aggregateOpenGammaClusterSensors(DynamicFabric)} aggregates across regions.
+     */
+    public static void propagateClusterSensors(Entity target, Entity cluster) {
+        target.addEnricher(SensorPropagatingEnricher.newInstanceListeningTo(cluster,
+                VIEW_PROCESSES_COUNT,
+                VIEW_PROCESSES_COUNT_PER_NODE,
+                CALC_JOB_RATE_PER_SECOND_IN_WINDOW,
+                CALC_JOB_RATE_PER_SECOND_IN_WINDOW_PER_NODE,
+                PROCESS_CPU_TIME_FRACTION_IN_WINDOW,
+                PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE,
+                PROCESSING_TIME_PER_SECOND_IN_WINDOW_PER_NODE,
+                OG_SERVER_COUNT,
+                REQUEST_LATENCY_SKETCH,
+                REQUEST_LATENCY_P95,
+                REQUEST_LATENCY_P99));
     }
 
     public static void promoteKpis(Entity target, Entity webMetricsSource) {
@@ -116,7 +266,49 @@ public class OpenGammaMonitoringAggregation {
                 DynamicWebAppCluster.REQUESTS_PER_SECOND_IN_WINDOW,
                 HttpLatencyDetector.REQUEST_LATENCY_IN_SECONDS_IN_WINDOW,
                 OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT,
-                OpenGammaMonitoringAggregation.OG_SERVER_COUNT));
+                OpenGammaMonitoringAggregation.CALC_JOB_RATE_PER_SECOND_IN_WINDOW,
+                OpenGammaMonitoringAggregation.OG_SERVER_COUNT,
+                OpenGammaMonitoringAggregation.REQUEST_LATENCY_P95,
+                OpenGammaMonitoringAggregation.REQUEST_LATENCY_P99,
+                OpenGammaMonitoringAggregation.PROCESS_CPU_TIME_FRACTION_IN_WINDOW_PER_NODE,
+                OpenGammaMonitoringAggregation.VIEW_PROCESSES_COUNT_PER_NODE));
+    }
+
+    /** As {@link #promoteKpis(Entity, Entity)}, also promoting the message bus broker's and database's load. */
+    public static void promoteKpis(Entity target, Entity webMetricsSource, Entity broker, Entity database) {
+        promoteKpis(target, webMetricsSource);
+        target.addEnricher(SensorPropagatingEnricher.newInstanceListeningTo(broker,
+                BROKER_DESTINATION_STATS,
+                BROKER_DESTINATION_COUNT,
+                BROKER_ENQUEUES_PER_SECOND,
+                BROKER_DEQUEUES_PER_SECOND,
+                BROKER_PENDING_MESSAGES,
+                BROKER_CONSUMERS,
+                BROKER_MEMORY_PERCENT_USAGE_MAX));
+        target.addEnricher(SensorPropagatingEnricher.newInstanceListeningTo(database,
+                DATABASE_ACTIVE_CONNECTIONS,
+                DATABASE_IDLE_CONNECTIONS,
+                DATABASE_MAX_CONNECTIONS,
+                DATABASE_CONNECTIONS_FRACTION,
+                DATABASE_TRANSACTIONS_PER_SECOND,
+                DATABASE_BUFFER_HIT_RATIO,
+                DATABASE_LOCK_WAITS,
+                DATABASE_LONGEST_QUERY));
+    }
+
+    /** The largest of the (non-null) values, or null if there are none. */
+    public static <T extends Comparable<? super T>> Function<Collection<T>, T> max() {
+        return new Function<Collection<T>, T>() {
+            @Override
+            public T apply(Collection<T> input) {
+                if (input == null) return null;
+                T result = null;
+                for (T value : input) {
+                    if (value != null && (result == null || value.compareTo(result) > 0)) result = value;
+                }
+                return result;
+            }
+        };
     }
 
     // TODO use StringFunctions.surround when available
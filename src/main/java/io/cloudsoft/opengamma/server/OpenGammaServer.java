@@ -1,13 +1,21 @@
 package io.cloudsoft.opengamma.server;
 
+import io.cloudsoft.opengamma.jmx.BulkJmxFeed;
+
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 
 import brooklyn.config.ConfigKey;
+import brooklyn.entity.Entity;
+import brooklyn.entity.annotation.Effector;
 import brooklyn.entity.basic.BrooklynConfigKeys;
 import brooklyn.entity.basic.ConfigKeys;
+import brooklyn.entity.basic.MethodEffector;
 import brooklyn.entity.basic.SoftwareProcess;
 import brooklyn.entity.database.postgresql.PostgreSqlNode;
 import brooklyn.entity.messaging.activemq.ActiveMQBroker;
@@ -44,6 +52,187 @@ public interface OpenGammaServer extends SoftwareProcess, WebAppService {
     ConfigKey<String> DOWNLOAD_ARCHIVE_SUBPATH = ConfigKeys.newStringConfigKey(
             "download.archive.subpath", "Path segment(s) which must be traversed from the downloaded archive to find the real content", "examples-simulated-${version}");
 
+    @SetFromFlag("downloadChecksum")
+    ConfigKey<String> DOWNLOAD_CHECKSUM = ConfigKeys.newStringConfigKey(
+            "download.checksum.sha256", "Expected SHA-256 checksum of the downloaded archive (optional; used to key and verify the artifact cache)");
+
+    @SetFromFlag("artifactCache")
+    ConfigKey<Boolean> ARTIFACT_CACHE_ENABLED = ConfigKeys.newBooleanConfigKey(
+            "opengamma.install.artifactCache", "Whether to download the archive once to the management node and copy it " +
+            "to each server from there, falling back to downloading from the origin on each server if that fails", false);
+
+    @SetFromFlag("artifactCacheDir")
+    ConfigKey<String> ARTIFACT_CACHE_DIR = ConfigKeys.newStringConfigKey(
+            "opengamma.install.artifactCache.dir", "Directory on the management node for the artifact cache (defaults to ~/.brooklyn/opengamma/artifacts)");
+
+    @SetFromFlag("streamedInstall")
+    ConfigKey<Boolean> STREAMED_INSTALL = ConfigKeys.newBooleanConfigKey(
+            "opengamma.install.streamed", "Whether to decompress and unpack the archive as it downloads " +
+            "(when downloading from the origin), rather than saving it to disk first", false);
+
+    @SetFromFlag("runDirLayout")
+    ConfigKey<RunDirLayout> RUN_DIR_LAYOUT = ConfigKeys.newConfigKey(RunDirLayout.class,
+            "opengamma.install.runDirLayout", "How the OpenGamma directory in the run dir is created from the install dir: " +
+            "COPY (full copy, the default), HARDLINK or SYMLINK (only files written by Brooklyn are separate copies; " +
+            "any file OpenGamma rewrites in place is changed in the install dir, for every server on the machine)", RunDirLayout.COPY);
+
+    @SetFromFlag("cluster")
+    ConfigKey<Entity> OWNING_CLUSTER = ConfigKeys.newConfigKey(Entity.class,
+            "opengamma.server.cluster", "The cluster whose golden image and shared config templates the server uses, " +
+            "for a server which is not (yet) one of its members, such as a standby; defaults to the server's parent");
+
+    @SetFromFlag("goldenImage")
+    ConfigKey<Boolean> GOLDEN_IMAGE_ENABLED = ConfigKeys.newBooleanConfigKey(
+            "opengamma.goldenImage", "Whether to capture the installed state of the first server in the cluster to reach service-up " +
+            "(a tarball of its prepared OpenGamma directory, kept in the artifact cache), and start later members from it: " +
+            "they restore it in one step rather than installing, laying out and patching from scratch", false);
+
+    @SetFromFlag("goldenMachineImage")
+    ConfigKey<Boolean> GOLDEN_IMAGE_MACHINE_IMAGE = ConfigKeys.newBooleanConfigKey(
+            "opengamma.goldenImage.machineImage", "Whether, in golden-image mode, to also capture a machine image of the first server " +
+            "where the cloud supports it, so later members are provisioned with Java and the golden tarball already in place", true);
+
+    @SetFromFlag("databaseDumpUrl")
+    ConfigKey<String> DATABASE_DUMP_URL = ConfigKeys.newStringConfigKey(
+            "opengamma.database.dump.url", "URL of a pre-populated dump (in PostgreSQL's custom format, from pg_dump -Fc) of each " +
+            "OpenGamma database, which may contain ${version} and ${database}. If set, the databases are initialised by " +
+            "restoring these rather than by running the Java populator (ExampleDatabaseCreator).");
+
+    @SetFromFlag("databaseDumpRestoreJobs")
+    ConfigKey<Integer> DATABASE_DUMP_RESTORE_JOBS = ConfigKeys.newIntegerConfigKey(
+            "opengamma.database.dump.restoreJobs", "Number of parallel jobs for pg_restore", 4);
+
+    @SetFromFlag("databaseDumpSaveDir")
+    ConfigKey<String> DATABASE_DUMP_SAVE_DIR = ConfigKeys.newStringConfigKey(
+            "opengamma.database.dump.saveDir", "Directory on the management node to save dumps of the databases to, after they " +
+            "are initialised by the Java populator, as opengamma-${version}-${database}.dump (for use with opengamma.database.dump.url)");
+
+    @SetFromFlag("startedLogMarker")
+    ConfigKey<String> STARTED_LOG_MARKER = ConfigKeys.newStringConfigKey(
+            "opengamma.server.startedLogMarker", "Text logged by OpenGamma once its component repository has started; " +
+            "the primary server waits for this before signalling that other servers can launch", "OPENGAMMA STARTED");
+
+    @SetFromFlag("startedLogMarkerTimeout")
+    ConfigKey<Duration> STARTED_LOG_MARKER_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.server.startedLogMarker.timeout", "How long to wait for the started log marker before continuing regardless",
+            Duration.FIVE_MINUTES);
+
+    @SetFromFlag("databaseInitTimeout")
+    ConfigKey<Duration> DATABASE_INIT_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.database.init.timeout", "How long a server waits for another to initialise the database and start, " +
+            "before failing; the wait is cut short if that server fails or is removed, by taking over the initialisation",
+            Duration.of(1, TimeUnit.HOURS));
+
+    @SetFromFlag("heapFraction")
+    ConfigKey<Double> JVM_HEAP_FRACTION = ConfigKeys.newDoubleConfigKey(
+            "opengamma.jvm.heapFraction", "Fraction of the machine's memory to use for the server's (fixed-size) heap, " +
+            "to be shared out by the user where other processes (servers, a standby, the database or broker) run on the same machine; " +
+            "if null (the default), the start script's default heap and collector are used");
+
+    @SetFromFlag("gcProfile")
+    ConfigKey<JvmSizing.GcProfile> JVM_GC_PROFILE = ConfigKeys.newConfigKey(JvmSizing.GcProfile.class,
+            "opengamma.jvm.gcProfile", "Garbage collector for the server, when its heap is sized from opengamma.jvm.heapFraction: " +
+            "PARALLEL (throughput), CMS or G1 (shorter pauses); if null (the default), the start script's collector is used");
+
+    @SetFromFlag("youngGenFraction")
+    ConfigKey<Double> JVM_YOUNG_GEN_FRACTION = ConfigKeys.newDoubleConfigKey(
+            "opengamma.jvm.youngGenFraction", "Fraction of the heap for the young generation, with the PARALLEL or CMS collectors; " +
+            "if null, or with any other collector, this is left to the JVM", 0.25d);
+
+    @SetFromFlag("largePages")
+    ConfigKey<Boolean> JVM_LARGE_PAGES = ConfigKeys.newBooleanConfigKey(
+            "opengamma.jvm.largePages", "Whether to back the heap with large pages (which must be configured on the machine)", false);
+
+    @SetFromFlag("holdBeforeLaunch")
+    ConfigKey<Boolean> HOLD_BEFORE_LAUNCH = ConfigKeys.newBooleanConfigKey(
+            "opengamma.server.holdBeforeLaunch", "Whether to wait, once installed and customized, until launch is released " +
+            "(by setting opengamma.server.launchReleased), e.g. for a standby server", false);
+
+    @SetFromFlag("jmxPollPeriod")
+    ConfigKey<Duration> JMX_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.jmx.poll.period", "Shortest interval between polls of the server's OpenGamma and Jetty MBeans " +
+            "(used while their values are changing, or a policy is close to acting on them)", Duration.ONE_SECOND);
+
+    @SetFromFlag("jmxPollMaxPeriod")
+    ConfigKey<Duration> JMX_POLL_MAX_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.jmx.poll.maxPeriod", "Longest interval the MBean polls stretch to while their values are stable " +
+            "(the same as opengamma.jmx.poll.period for fixed-interval polling)", Duration.TEN_SECONDS);
+
+    @SetFromFlag("jmxBulkPolling")
+    ConfigKey<Boolean> JMX_BULK_POLLING = ConfigKeys.newBooleanConfigKey(
+            "opengamma.jmx.poll.bulk", "Whether to fetch each MBean's polled attributes in one call over a shared connection; " +
+            "if false, each attribute is polled separately (as by a plain JMX feed)", true);
+
+    @SetFromFlag("sensorPublishWindow")
+    ConfigKey<Duration> SENSOR_PUBLISH_WINDOW = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.sensors.publish.window", "Window over which changes to metric sensors (of the servers, and aggregated " +
+            "on their clusters) are coalesced, publishing only the latest value of each; unchanged values are never published " +
+            "(null to publish every value as it is set)", Duration.of(5, TimeUnit.SECONDS));
+
+    @SetFromFlag("sensorPublishMaxPerSecond")
+    ConfigKey<Double> SENSOR_PUBLISH_MAX_PER_SECOND = ConfigKeys.newDoubleConfigKey(
+            "opengamma.sensors.publish.maxPerSecond", "Most coalesced metric values an entity publishes per second " +
+            "(values over the cap wait for the next window)", 10d);
+
+    @SetFromFlag("sensorPublishSignificantChange")
+    ConfigKey<Double> SENSOR_PUBLISH_SIGNIFICANT_CHANGE = ConfigKeys.newDoubleConfigKey(
+            "opengamma.sensors.publish.significantChange", "Fractional change in a metric which is published at once, " +
+            "rather than at the end of the window (0 for none; changes across an auto-scaler's thresholds are always published at once)", 0.5d);
+
+    @SetFromFlag("viewStatsMBeanPattern")
+    ConfigKey<String> VIEW_STATS_MBEAN_PATTERN = ConfigKeys.newStringConfigKey(
+            "opengamma.views.stats.mbeanPattern", "Pattern of the names of the per-view-process statistics MBeans, " +
+            "queried on each poll as views start and stop (null to not collect view cycle statistics)",
+            "com.opengamma:type=ViewProcessor,ViewProcess=*,*");
+
+    @SetFromFlag("viewStatsAttributes")
+    ConfigKey<Map<String, String>> VIEW_STATS_ATTRIBUTES = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, String>>() {}, "opengamma.views.stats.attributes",
+            "Attributes of each view-process statistics MBean to read: cycleCount (cumulative), cycleDurationMs and " +
+            "graphBuildTimeMs, mapped to the attribute names (the defaults follow OpenGamma's graph execution statistics)",
+            ImmutableMap.of(
+                    ViewProcessCollector.CYCLE_COUNT, "ProcessedGraphs",
+                    ViewCycleStats.CYCLE_DURATION, "LastActualTime",
+                    ViewCycleStats.GRAPH_BUILD_TIME, "LastGraphBuildTime"));
+
+    @SetFromFlag("calcNodeStatsMBeanPattern")
+    ConfigKey<String> CALC_NODE_STATS_MBEAN_PATTERN = ConfigKeys.newStringConfigKey(
+            "opengamma.calc.nodes.stats.mbeanPattern", "Pattern of the names of the per-calc-node statistics MBeans, " +
+            "from which job wait and execution times are derived (null to not collect them)",
+            "com.opengamma:type=CalculationNodeStatistics,*");
+
+    @SetFromFlag("calcNodeStatsAttributes")
+    ConfigKey<Map<String, String>> CALC_NODE_STATS_ATTRIBUTES = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, String>>() {}, "opengamma.calc.nodes.stats.attributes",
+            "Attributes to read for calc node utilisation: totalNodes, idleNodes and queuedJobs of the calculation nodes MBean; " +
+            "completedJobs, executionTime and nonExecutionTime (cumulative nanoseconds) of each node statistics MBean",
+            ImmutableMap.<String, String>builder()
+                    .put(CalcNodeCollector.TOTAL_NODES, "TotalNodeCount")
+                    .put(CalcNodeCollector.IDLE_NODES, "AvailableNodeCount")
+                    .put(CalcNodeCollector.QUEUED_JOBS, "PendingJobCount")
+                    .put(CalcNodeCollector.COMPLETED_JOBS, "SuccessfulJobs")
+                    .put(CalcNodeCollector.EXECUTION_TIME, "ExecutionTime")
+                    .put(CalcNodeCollector.NON_EXECUTION_TIME, "NonExecutionTime")
+                    .build());
+
+    @SetFromFlag("cacheStatsMBeanPattern")
+    ConfigKey<String> CACHE_STATS_MBEAN_PATTERN = ConfigKeys.newStringConfigKey(
+            "opengamma.caches.stats.mbeanPattern", "Pattern of the names of the cache statistics MBeans, one per cache region " +
+            "(null to not collect cache statistics)", "net.sf.ehcache:type=CacheStatistics,*");
+
+    @SetFromFlag("cacheStatsAttributes")
+    ConfigKey<Map<String, String>> CACHE_STATS_ATTRIBUTES = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, String>>() {}, "opengamma.caches.stats.attributes",
+            "Cumulative attributes of each cache statistics MBean to read: hits, misses and evictions, mapped to the attribute names",
+            ImmutableMap.of(
+                    CacheCollector.HITS, "CacheHits",
+                    CacheCollector.MISSES, "CacheMisses",
+                    CacheCollector.EVICTIONS, "EvictionCount"));
+
+    @SetFromFlag("gcStatsWindow")
+    ConfigKey<Duration> GC_STATS_WINDOW = ConfigKeys.newConfigKey(Duration.class,
+            "opengamma.jvm.gc.window", "Window over which garbage collection and allocation rates are published", Duration.ONE_MINUTE);
+
     @SetFromFlag("broker")
     ConfigKey<ActiveMQBroker> BROKER = new BasicConfigKey<ActiveMQBroker>(ActiveMQBroker.class,
             "opengamma.services.message-bus.entity", "The entity representing the OpenGamma message bus broker");
@@ -64,12 +253,37 @@ public interface OpenGammaServer extends SoftwareProcess, WebAppService {
             "URLs to files that will be templated and copied to each OpenGamma server at the given path, " +
             "relative to the server's OpenGamma subdirectory, in the server's customise phase.");
 
+    @SetFromFlag("sharedConfigTemplates")
+    ConfigKey<List<String>> SHARED_CONFIG_TEMPLATES = ConfigKeys.newConfigKey(
+            new TypeToken<List<String>>() {}, "opengamma.server.config.template.shared",
+            "URLs (keys of opengamma.server.config.template) of templates which depend only on cluster-wide values " +
+            "(e.g. the broker and database locations), so are rendered once and reused by every server in the cluster",
+            ImmutableList.<String>of());
+
     @SetFromFlag("extraScripts")
     ConfigKey<List<String>> EXTRA_SCRIPTS = ConfigKeys.newConfigKey(
             new TypeToken<List<String>>() {},
             "opengamma.server.config.extraScripts",
             "Extra scripts to be copied to the OpenGamma server's script directory with permissions 755");
 
+    @SetFromFlag("libPatches")
+    ConfigKey<Map<String, List<String>>> LIB_PATCHES = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, List<String>>>() {}, "opengamma.server.libPatches",
+            "Jars to patch, relative to the server's OpenGamma subdirectory (may contain ${version}), mapped to the URLs of " +
+            "patch jars whose classes replace those in the original, or are added to it. Each patched jar is built once on the management node " +
+            "and cached, then copied to every server in its customise phase.",
+            ImmutableMap.<String, List<String>>of(
+                    // workaround for https://github.com/OpenGamma/OG-Platform/pull/6 (remove once that is fixed in OG)
+                    "lib/og-masterdb-2.1.0.jar",
+                    ImmutableList.of("classpath:/io/cloudsoft/opengamma/config/patches/patch-postgres-rsk-v-51.jar")));
+
+    @SetFromFlag("agentClasses")
+    ConfigKey<List<String>> AGENT_CLASSES = ConfigKeys.newConfigKey(
+            new TypeToken<List<String>>() {}, "opengamma.server.agentClasses",
+            "Classes (from Brooklyn's classpath) to run inside the OpenGamma server, e.g. Jetty handlers referenced by its config; " +
+            "packaged into a jar in its lib/override directory in the customise phase",
+            ImmutableList.<String>of());
+
     @SetFromFlag("startScript")
     ConfigKey<String> SERVER_START_SCRIPT = ConfigKeys.newStringConfigKey(
             "opengamma.server.config.startScript",
@@ -78,25 +292,196 @@ public interface OpenGammaServer extends SoftwareProcess, WebAppService {
     AttributeSensor<Boolean> DATABASE_INITIALIZED =
         new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.db.completed", "OG database completely initialised");
     
+    AttributeSensor<Long> DATABASE_INIT_DURATION =
+        new BasicAttributeSensor<Long>(Long.class, "opengamma.db.init.duration", "Time taken (ms) to initialise the OG database, by restore or populator (set on the database)");
+
+    AttributeSensor<String> DATABASE_INIT_METHOD =
+        new BasicAttributeSensor<String>(String.class, "opengamma.db.init.method", "How the OG database was initialised: restore or populate (set on the database)");
+
+    AttributeSensor<Boolean> HELD_BEFORE_LAUNCH =
+        new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.server.heldBeforeLaunch", "Whether the server is installed and customized, waiting for launch to be released");
+
+    AttributeSensor<Boolean> LAUNCH_RELEASED =
+        new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.server.launchReleased", "Set to release the launch of a server which holds before launch");
+
     AttributeSensor<Integer> VIEW_PROCESSES_COUNT =
             new BasicAttributeSensor<Integer>(Integer.class, "opengamma.views.processes.active.count", "Number of active view processes");
 
     AttributeSensor<Integer> CALC_JOB_COUNT =
             new BasicAttributeSensor<Integer>(Integer.class, "opengamma.calc.jobs.count", "Calc jobs total");
 
-    // "count" is some temporal value already
-//   BasicAttributeSensor<Double> CALC_JOB_RATE =
-//            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.rate", "Calc jobs per second");
+    // the count is cumulative, so the rates are derived from it (as processing time per second is from total processing time)
+    AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_LAST =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.perSec.last", "Calc jobs completed per second (most recent period)");
+
+    AttributeSensor<Double> CALC_JOB_RATE_PER_SECOND_IN_WINDOW =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.perSec.windowed", "Calc jobs completed per second (windowed over time period)");
 
     AttributeSensor<Integer> CALC_NODE_COUNT =
             new BasicAttributeSensor<Integer>(Integer.class, "opengamma.calc.nodes.count", "Calc nodes total (default 8 per server)");
 
+    AttributeSensor<Integer> CALC_JOB_QUEUE_DEPTH =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.calc.jobs.queued", "Calc jobs waiting for a calc node");
+
+    AttributeSensor<Integer> CALC_NODES_BUSY =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.calc.nodes.busy", "Calc nodes executing a job");
+
+    AttributeSensor<Integer> CALC_NODES_IDLE =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.calc.nodes.idle", "Calc nodes available for a job");
+
+    AttributeSensor<Double> CALC_NODE_UTILISATION =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.nodes.utilisation", "Fraction of calc nodes executing a job");
+
+    AttributeSensor<Double> CALC_JOB_WAIT_TIME =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.waitTime.mean", "Mean time (ms) a calc job spent other than executing, e.g. queued (jobs completed since the last poll)");
+
+    AttributeSensor<Double> CALC_JOB_EXECUTION_TIME =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.calc.jobs.executionTime.mean", "Mean time (ms) a calc job spent executing (jobs completed since the last poll)");
+
     AttributeSensor<Double> PROCESSING_TIME_PER_SECOND_LAST =
             new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.processingTime.perSec.last", "Percentage of time spent processing requests (most recent period; cf CPU utilisation)");
 
     AttributeSensor<Double> PROCESSING_TIME_PER_SECOND_IN_WINDOW =
             new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.processingTime.perSec.windowed", "Percentage of time spent processing requests (windowed over time period)");
 
+    AttributeSensor<Boolean> INSTALLED_FROM_ARTIFACT_CACHE =
+            new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.install.artifactCache.used", "Whether the archive was copied from the management node's artifact cache");
+
+    AttributeSensor<Long> ARTIFACT_CACHE_BYTES_SERVED =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.install.artifactCache.bytesServed",
+                    "Bytes copied to this server from the management node's artifact cache (archive, patched jars and golden tarball)");
+
+    AttributeSensor<String> GOLDEN_IMAGE_SOURCE =
+            new BasicAttributeSensor<String>(String.class, "opengamma.goldenImage.source", "Id of the server whose installed state is captured as the golden image (set on the cluster)");
+
+    AttributeSensor<String> GOLDEN_IMAGE_ARCHIVE =
+            new BasicAttributeSensor<String>(String.class, "opengamma.goldenImage.archive", "Path on the management node of the golden tarball (set on the cluster)");
+
+    AttributeSensor<String> GOLDEN_IMAGE_ID =
+            new BasicAttributeSensor<String>(String.class, "opengamma.goldenImage.imageId", "Id of the golden machine image, if one was captured (set on the cluster)");
+
+    AttributeSensor<Boolean> STARTED_FROM_GOLDEN_IMAGE =
+            new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.goldenImage.used", "Whether the server was restored from the golden tarball rather than installed");
+
+    AttributeSensor<Integer> JVM_HEAP_MB =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.jvm.heap.mb", "Heap size (MB) the server was started with, if sized by Brooklyn");
+
+    AttributeSensor<Integer> JVM_YOUNG_GEN_MB =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.jvm.youngGen.mb", "Young generation size (MB) the server was started with (0 if left to the JVM)");
+
+    AttributeSensor<String> JVM_GC_PROFILE_USED =
+            new BasicAttributeSensor<String>(String.class, "opengamma.jvm.gcProfile", "Garbage collector profile the server was started with");
+
+    AttributeSensor<Integer> JVM_GC_THREADS =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.jvm.gc.threads", "Parallel GC threads the server was started with");
+
+    AttributeSensor<String> JVM_OPTIONS =
+            new BasicAttributeSensor<String>(String.class, "opengamma.jvm.options", "Heap and GC options the server was started with");
+
+    AttributeSensor<Double> GC_TIME_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.gc.time.perSec.windowed", "Time (ms) spent in garbage collection per second (windowed)");
+
+    AttributeSensor<Long> GC_PAUSE_MAX =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.jvm.gc.pause.max", "Longest single garbage collection (ms) in the window");
+
+    AttributeSensor<Double> GC_COLLECTIONS_PER_MINUTE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.gc.collections.perMin.windowed", "Garbage collections per minute, all collectors (windowed)");
+
+    AttributeSensor<Double> ALLOCATION_RATE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.allocation.mbPerSec.windowed", "Estimated heap allocation rate (MB/s, windowed)");
+
+    AttributeSensor<Double> PROMOTION_RATE =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.jvm.promotion.mbPerSec.windowed", "Estimated rate (MB/s, windowed) of promotion into the old generation");
+
+    AttributeSensor<Map<String, Map<String, Double>>> CONNECTION_POOL_STATS = new BasicAttributeSensor<Map<String, Map<String, Double>>>(
+            new TypeToken<Map<String, Map<String, Double>>>() {}, "opengamma.db.pools.stats", "Statistics of each database connection pool, by pool name");
+
+    AttributeSensor<Double> CONNECTION_POOL_WAIT_TIME_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.db.pools.waitTime.max", "Longest mean time (ms) to get a connection from any database connection pool (since the last poll)");
+
+    AttributeSensor<Double> CONNECTION_POOL_SATURATION_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.db.pools.saturation.max", "Highest fraction of its maximum size leased from any database connection pool");
+
+    AttributeSensor<Map<String, Map<String, Double>>> CACHE_STATS = new BasicAttributeSensor<Map<String, Map<String, Double>>>(
+            new TypeToken<Map<String, Map<String, Double>>>() {}, "opengamma.caches.stats", "Hit ratio and evictions per second of each cache region, by cache name");
+
+    AttributeSensor<Double> CACHE_HIT_RATIO =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.caches.hitRatio", "Fraction of cache lookups, all regions, which were hits (since the last poll with lookups)");
+
+    AttributeSensor<Double> CACHE_EVICTIONS_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.caches.evictions.perSec", "Cache evictions per second, all regions");
+
+    AttributeSensor<Long> MACHINE_MEMORY_MB =
+            new BasicAttributeSensor<Long>(Long.class, "opengamma.machine.memory.mb", "Total memory (MB) of the server's machine");
+
+    AttributeSensor<Integer> MACHINE_CORES =
+            new BasicAttributeSensor<Integer>(Integer.class, "opengamma.machine.cores", "Number of cores of the server's machine");
+
+    AttributeSensor<Integer> CONNECTIONS_OPEN =
+            new BasicAttributeSensor<Integer>(Integer.class, "webapp.connections.open", "Number of HTTP connections open to the server, i.e. requests in flight or waiting for one");
+
+    AttributeSensor<Double> REQUEST_LATENCY_P50 =
+            new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.latency.p50", "Median request latency (ms) over the last one to two minutes");
+
+    AttributeSensor<Double> REQUEST_LATENCY_P95 =
+            new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.latency.p95", "95th percentile request latency (ms) over the last one to two minutes");
+
+    AttributeSensor<Double> REQUEST_LATENCY_P99 =
+            new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.latency.p99", "99th percentile request latency (ms) over the last one to two minutes");
+
+    AttributeSensor<Double> REQUEST_LATENCY_P999 =
+            new BasicAttributeSensor<Double>(Double.class, "webapp.reqs.latency.p999", "99.9th percentile request latency (ms) over the last one to two minutes");
+
+    AttributeSensor<Map<Integer, Long>> REQUEST_LATENCY_SKETCH = new BasicAttributeSensor<Map<Integer, Long>>(
+            new TypeToken<Map<Integer, Long>>() {}, "webapp.reqs.latency.sketch", "Request latency histogram over the last one to two minutes, " +
+            "as request counts by bucket, mergeable across servers (see LatencySketches)");
+
+    AttributeSensor<Map<String, Map<String, Double>>> VIEW_CYCLE_STATS = new BasicAttributeSensor<Map<String, Map<String, Double>>>(
+            new TypeToken<Map<String, Map<String, Double>>>() {}, "opengamma.views.cycle.stats", "Cycle statistics of each active view process, by the canonical name of its statistics MBean");
+
+    AttributeSensor<Double> VIEW_CYCLE_DURATION_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.views.cycle.duration.max", "Longest last cycle duration (ms) of any view process");
+
+    AttributeSensor<Double> VIEW_CYCLE_DURATION_P95 =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.views.cycle.duration.p95", "95th percentile across view processes of last cycle duration (ms)");
+
+    AttributeSensor<Double> VIEW_CYCLES_PER_SECOND =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.views.cycles.perSec", "View cycles completed per second, all view processes");
+
+    AttributeSensor<Double> VIEW_GRAPH_BUILD_TIME_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.views.graphBuild.time.max", "Longest last dependency graph build time (ms) of any view process");
+
+    AttributeSensor<Double> VIEW_LAST_CYCLE_AGE_MAX =
+            new BasicAttributeSensor<Double>(Double.class, "opengamma.views.cycle.age.max", "Longest time (s) since a view process last completed a cycle, i.e. how stale the stalest view is");
+
+    AttributeSensor<String> VIEW_SLOWEST =
+            new BasicAttributeSensor<String>(String.class, "opengamma.views.cycle.slowest", "MBean name of the view process with the longest last cycle duration");
+
+    AttributeSensor<Long> JMX_POLL_LATENCY = BulkJmxFeed.POLL_LATENCY;
+
+    AttributeSensor<Long> JMX_POLL_COST = BulkJmxFeed.POLL_COST;
+
+    AttributeSensor<Integer> JMX_POLL_ROUND_TRIPS = BulkJmxFeed.POLL_ROUND_TRIPS;
+
+    AttributeSensor<Long> JMX_POLL_INTERVAL = BulkJmxFeed.POLL_INTERVAL;
+
+    AttributeSensor<Long> JMX_POLL_DEFERRED = BulkJmxFeed.POLL_DEFERRED;
+
+    AttributeSensor<Boolean> JMX_POLL_URGENT = BulkJmxFeed.POLL_URGENT;
+
+    /** How the run dir shares files with the (read-only) unpacked install dir. */
+    enum RunDirLayout {
+        COPY,
+        HARDLINK,
+        SYMLINK
+    }
+
+    MethodEffector<Void> PUSH_CONFIG = new MethodEffector<Void>(OpenGammaServer.class, "pushConfig");
+
+    /** Re-renders the server's config files and pushes them to it; they take effect when it is next restarted. */
+    @Effector(description="Re-render the server's config files and push them to it (taking effect on restart)")
+    void pushConfig();
+
     /** The OpenGamma message bus broker entity. */
     ActiveMQBroker getBroker();
 
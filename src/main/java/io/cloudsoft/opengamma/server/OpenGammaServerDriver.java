@@ -6,4 +6,13 @@ import brooklyn.entity.proxying.ImplementedBy;
 @ImplementedBy(OpenGammaServerImpl.class)
 public interface OpenGammaServerDriver extends JavaSoftwareProcessDriver {
 
+    /**
+     * Captures the server's prepared OpenGamma directory (and, where supported, its machine) as the
+     * golden image for its cluster; see {@link OpenGammaServer#GOLDEN_IMAGE_ENABLED}.
+     */
+    void captureGoldenImage();
+
+    /** Re-renders the server's config files and pushes them to it; they take effect when it is next restarted. */
+    void pushConfig();
+
 }
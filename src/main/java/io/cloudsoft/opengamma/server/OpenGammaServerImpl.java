@@ -1,6 +1,12 @@
 package io.cloudsoft.opengamma.server;
 
+import io.cloudsoft.opengamma.jetty.LatencyHistogramHandler;
+import io.cloudsoft.opengamma.jmx.BulkJmxFeed;
+import io.cloudsoft.opengamma.jmx.JmxConnectionPool;
+
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.jclouds.compute.domain.OsFamily;
 import org.slf4j.Logger;
@@ -8,6 +14,9 @@ import org.slf4j.LoggerFactory;
 
 import brooklyn.enricher.RollingTimeWindowMeanEnricher;
 import brooklyn.enricher.TimeWeightedDeltaEnricher;
+import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityInternal;
 import brooklyn.entity.basic.SoftwareProcessImpl;
 import brooklyn.entity.database.postgresql.PostgreSqlNode;
 import brooklyn.entity.java.JavaAppUtils;
@@ -15,6 +24,9 @@ import brooklyn.entity.java.UsesJmx;
 import brooklyn.entity.messaging.activemq.ActiveMQBroker;
 import brooklyn.entity.webapp.WebAppServiceConstants;
 import brooklyn.entity.webapp.WebAppServiceMethods;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
 import brooklyn.event.feed.http.HttpFeed;
 import brooklyn.event.feed.http.HttpPollConfig;
 import brooklyn.event.feed.http.HttpValueFunctions;
@@ -24,18 +36,49 @@ import brooklyn.event.feed.jmx.JmxHelper;
 import brooklyn.location.MachineProvisioningLocation;
 import brooklyn.location.access.BrooklynAccessUtils;
 import brooklyn.location.jclouds.templates.PortableTemplateBuilder;
+import brooklyn.management.Task;
 import brooklyn.util.exceptions.Exceptions;
+import brooklyn.util.task.Tasks;
 import brooklyn.util.time.Duration;
 import brooklyn.util.time.Time;
 
 import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HostAndPort;
 
 public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGammaServer, UsesJmx {
 
     private static final Logger log = LoggerFactory.getLogger(OpenGammaServerImpl.class);
 
-    private volatile JmxFeed jmxFeed;
+    private static final Object GOLDEN_IMAGE_CLAIM_LOCK = new Object();
+
+    /**
+     * The metrics from the JMX feed and collectors, and the feed's statistics of its own polls, which are published
+     * coalesced. The others, such as service up and the counters which enrichers derive rates from, are set as they are polled.
+     */
+    static final Set<AttributeSensor<?>> COALESCED_SENSORS = ImmutableSet.<AttributeSensor<?>>of(
+            REQUEST_LATENCY_P50, REQUEST_LATENCY_P95, REQUEST_LATENCY_P99, REQUEST_LATENCY_P999, REQUEST_LATENCY_SKETCH,
+            CALC_JOB_QUEUE_DEPTH, CALC_NODES_IDLE, CALC_NODES_BUSY, CALC_NODE_UTILISATION, CALC_JOB_EXECUTION_TIME, CALC_JOB_WAIT_TIME,
+            GC_TIME_PER_SECOND, GC_PAUSE_MAX, GC_COLLECTIONS_PER_MINUTE, ALLOCATION_RATE, PROMOTION_RATE,
+            CONNECTION_POOL_STATS, CONNECTION_POOL_WAIT_TIME_MAX, CONNECTION_POOL_SATURATION_MAX,
+            CACHE_STATS, CACHE_HIT_RATIO, CACHE_EVICTIONS_PER_SECOND,
+            VIEW_CYCLE_STATS, VIEW_CYCLE_DURATION_MAX, VIEW_CYCLE_DURATION_P95, VIEW_CYCLES_PER_SECOND,
+            VIEW_GRAPH_BUILD_TIME_MAX, VIEW_LAST_CYCLE_AGE_MAX,
+            JMX_POLL_LATENCY, JMX_POLL_COST, JMX_POLL_ROUND_TRIPS, JMX_POLL_INTERVAL, JMX_POLL_DEFERRED);
+
+    private volatile CoalescingSensorPublisher sensorPublisher;
+
+    /** Where the JMX feed and collectors publish: through the coalescing publisher for its metrics, otherwise directly. */
+    private final CoalescingSensorPublisher.Sink metrics = new CoalescingSensorPublisher.Sink() {
+        @Override
+        public <T> void publish(AttributeSensor<T> sensor, T value) {
+            CoalescingSensorPublisher publisher = sensorPublisher;
+            if (publisher != null && COALESCED_SENSORS.contains(sensor)) publisher.publish(sensor, value);
+            else setAttribute(sensor, value);
+        }
+    };
+    private volatile Task<?> sensorFlusher;
+    private volatile BulkJmxFeed jmxFeed;
     private JmxFeed jmxMxBeanFeed;
     private HttpFeed httpFeed;
     private ActiveMQBroker broker;
@@ -64,11 +107,27 @@ public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGamm
 //          .osFamily(OsFamily.UBUNTU).osVersionMatches("12.04")
 //          .osFamily(OsFamily.CENTOS)
             );
+        Entity cluster = getOwningCluster(this);
+        String goldenImageId = (cluster != null && Boolean.TRUE.equals(getConfig(GOLDEN_IMAGE_ENABLED)))
+                ? cluster.getAttribute(GOLDEN_IMAGE_ID) : null;
+        if (goldenImageId != null) {
+            log.info("{}: provisioning from golden image {}", this, goldenImageId);
+            flags.put("imageId", goldenImageId);
+        }
         return flags;
     }
 
     @Override
     protected void connectSensors() {
+        // metrics from the feeds and collectors are published coalesced, and unchanged values not at all
+        sensorPublisher = CoalescingSensorPublisher.newInstance(this, new CoalescingSensorPublisher.Sink() {
+            @Override
+            public <T> void publish(AttributeSensor<T> sensor, T value) {
+                setAttribute(sensor, value);
+            }
+        });
+        if (sensorPublisher != null) sensorFlusher = sensorPublisher.scheduleFlushes(this);
+
         super.connectSensors();
 
         HostAndPort hp = BrooklynAccessUtils.getBrooklynAccessibleAddress(this, getAttribute(HTTP_PORT));
@@ -90,7 +149,11 @@ public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGamm
     protected void postStart() {
         super.postStart();
         String ogJettyStatsMbeanName = "com.opengamma.jetty:service=HttpConnector";
-        jmxFeed = JmxFeed.builder().entity(this).period(Duration.ONE_SECOND)
+        // one getAttributes call per MBean, rather than one round trip per attribute, less often while values are stable
+        BulkJmxFeed.Builder jmxFeedBuilder = BulkJmxFeed.builder().entity(this).sink(metrics)
+                    .period(getConfig(JMX_POLL_PERIOD))
+                    .maxPeriod(getConfig(JMX_POLL_MAX_PERIOD))
+                    .bulk(Boolean.TRUE.equals(getConfig(JMX_BULK_POLLING)))
                     .pollAttribute(new JmxAttributePollConfig<Boolean>(SERVICE_UP)
                             .objectName(ogJettyStatsMbeanName)
                             .attributeName("Running")
@@ -98,6 +161,9 @@ public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGamm
                     .pollAttribute(new JmxAttributePollConfig<Integer>(REQUEST_COUNT)
                             .objectName(ogJettyStatsMbeanName)
                             .attributeName("Requests"))
+                    .pollAttribute(new JmxAttributePollConfig<Integer>(CONNECTIONS_OPEN)
+                            .objectName(ogJettyStatsMbeanName)
+                            .attributeName("ConnectionsOpen"))
         // these two from jetty not available from opengamma bean:
 //        jettyStatsHandler.attribute("requestTimeTotal").subscribe(TOTAL_PROCESSING_TIME);
 //        jettyStatsHandler.attribute("responsesBytesTotal").subscribe(BYTES_SENT);
@@ -117,9 +183,63 @@ public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGamm
                             .attributeName("TotalJobCount"))
                     .pollAttribute(new JmxAttributePollConfig<Integer>(CALC_NODE_COUNT)
                             .objectName("com.opengamma:type=CalculationNodes,name=local")
-                            .attributeName("TotalNodeCount"))
-                            
-                    .build();
+                            .attributeName("TotalNodeCount"));
+
+        // request latency percentiles, from the histogram handler in jetty-spring.xml (if the server runs it)
+        List<String> agentClasses = getConfig(AGENT_CLASSES);
+        if (agentClasses != null && agentClasses.contains(LatencyHistogramHandler.class.getName())) {
+            String latencyMbeanName = "com.opengamma.jetty:service=RequestLatency";
+            jmxFeedBuilder
+                    .pollAttribute(new JmxAttributePollConfig<Double>(REQUEST_LATENCY_P50)
+                            .objectName(latencyMbeanName)
+                            .attributeName("LatencyP50"))
+                    .pollAttribute(new JmxAttributePollConfig<Double>(REQUEST_LATENCY_P95)
+                            .objectName(latencyMbeanName)
+                            .attributeName("LatencyP95"))
+                    .pollAttribute(new JmxAttributePollConfig<Double>(REQUEST_LATENCY_P99)
+                            .objectName(latencyMbeanName)
+                            .attributeName("LatencyP99"))
+                    .pollAttribute(new JmxAttributePollConfig<Double>(REQUEST_LATENCY_P999)
+                            .objectName(latencyMbeanName)
+                            .attributeName("LatencyP999"))
+                    // changes with every request, so would keep the poll interval at its shortest
+                    .pollAttributeUntracked(new JmxAttributePollConfig<Map<Integer, Long>>(REQUEST_LATENCY_SKETCH)
+                            .objectName(latencyMbeanName)
+                            .attributeName("LatencySketch")
+                            .onSuccess(LatencySketches.parser()));
+        }
+
+        // calc node saturation, the leading indicator of overload
+        jmxFeedBuilder.collector(new CalcNodeCollector(this, metrics, "com.opengamma:type=CalculationNodes,name=local",
+                getConfig(CALC_NODE_STATS_MBEAN_PATTERN), getConfig(CALC_NODE_STATS_ATTRIBUTES)));
+
+        // GC pauses and allocation, which stall view recalculation
+        jmxFeedBuilder.collector(new GcCollector(this, metrics, getConfig(GC_STATS_WINDOW)));
+
+        // database connection pools and caches (see brooklyn-infrastructure-spring.xml), for sizing them
+        jmxFeedBuilder.collector(new ConnectionPoolCollector(this, metrics));
+        String cacheStatsPattern = getConfig(CACHE_STATS_MBEAN_PATTERN);
+        if (cacheStatsPattern != null) {
+            jmxFeedBuilder.collector(new CacheCollector(this, metrics, cacheStatsPattern, getConfig(CACHE_STATS_ATTRIBUTES)));
+        }
+
+        // per-view cycle statistics, from MBeans found as view processes come and go
+        String viewStatsPattern = getConfig(VIEW_STATS_MBEAN_PATTERN);
+        if (viewStatsPattern != null) {
+            jmxFeedBuilder.collector(new ViewProcessCollector(this, metrics, viewStatsPattern, getConfig(VIEW_STATS_ATTRIBUTES)));
+        }
+        jmxFeed = jmxFeedBuilder.build();
+
+        if (getOwningCluster(this) != null && Boolean.TRUE.equals(getConfig(GOLDEN_IMAGE_ENABLED))) {
+            subscribe(this, SERVICE_UP, new SensorEventListener<Boolean>() {
+                @Override
+                public void onEvent(SensorEvent<Boolean> event) {
+                    if (Boolean.TRUE.equals(event.getValue())) captureGoldenImageIfFirst();
+                }
+            });
+            // usually already up by now, so the subscription only sees later changes
+            if (Boolean.TRUE.equals(getAttribute(SERVICE_UP))) captureGoldenImageIfFirst();
+        }
 
         jmxMxBeanFeed = JavaAppUtils.connectMXBeanSensors(this);
         JavaAppUtils.connectJavaAppServerPolicies(this);
@@ -130,30 +250,94 @@ public class OpenGammaServerImpl extends SoftwareProcessImpl implements OpenGamm
         addEnricher(new RollingTimeWindowMeanEnricher<Double>(this,
                 PROCESSING_TIME_PER_SECOND_LAST, PROCESSING_TIME_PER_SECOND_IN_WINDOW,
                 WebAppServiceMethods.DEFAULT_WINDOW_DURATION));
+        addEnricher(new TimeWeightedDeltaEnricher<Integer>(this,
+                CALC_JOB_COUNT, CALC_JOB_RATE_PER_SECOND_LAST, 1000));
+        addEnricher(new RollingTimeWindowMeanEnricher<Double>(this,
+                CALC_JOB_RATE_PER_SECOND_LAST, CALC_JOB_RATE_PER_SECOND_IN_WINDOW,
+                WebAppServiceMethods.DEFAULT_WINDOW_DURATION));
 
         // turn stats on, allowing a few sleep-then-retries in case the server isn't yet up
-        for (int i=3; i<=0; i--) {
+        for (int i=3; i>=0; i--) {
             try {
                 // many of the stats only are available once we explicitly turn them on
-                Object jettyStatsOnResult = new JmxHelper(this).operation(JmxHelper.createObjectName("com.opengamma.jetty:service=HttpConnector"), 
-                    "setStatsOn", true);
+                Object jettyStatsOnResult = setJettyStatsOn();
                 log.debug("result of setStatsOn for "+this+": "+jettyStatsOnResult);
                 break;
             } catch (Exception e) {
                 Exceptions.propagateIfFatal(e);
-                if (i==0)
-                    throw Exceptions.propagate(e);
+                if (i==0) {
+                    // the stats are for monitoring, so don't fail the server for them
+                    log.warn("Unable to turn on Jetty stats for "+this+"; request stats will not be available: "+e);
+                    break;
+                }
                 Time.sleep(Duration.TEN_SECONDS);
             }
         }
     }
     
+    /** Turns Jetty's stats on, over the server's pooled JMX connection. */
+    protected Object setJettyStatsOn() throws Exception {
+        JmxHelper helper = JmxConnectionPool.acquire(this);
+        try {
+            if (!helper.isConnected()) helper.connect();
+            return helper.operation(JmxHelper.createObjectName("com.opengamma.jetty:service=HttpConnector"), "setStatsOn", true);
+        } finally {
+            JmxConnectionPool.release(this);
+        }
+    }
+
     @Override
     protected void disconnectSensors() {
         super.disconnectSensors();
         if (httpFeed != null) httpFeed.stop();
         if (jmxFeed != null) jmxFeed.stop();
         if (jmxMxBeanFeed != null) jmxMxBeanFeed.stop();
+        if (sensorFlusher != null) sensorFlusher.cancel(true);
+        CoalescingSensorPublisher publisher = sensorPublisher;
+        sensorPublisher = null;
+        if (publisher != null) {
+            publisher.flushAll();
+            log.debug("{} sensor publication: {}", this, publisher);
+        }
+    }
+
+    /**
+     * Captures this server as the golden image for its cluster, if the cluster has none and no other member has
+     * already claimed that. If the capture fails the claim is released, so the next member to start tries again.
+     */
+    protected void captureGoldenImageIfFirst() {
+        final Entity cluster = getOwningCluster(this);
+        synchronized (GOLDEN_IMAGE_CLAIM_LOCK) {
+            if (cluster.getAttribute(GOLDEN_IMAGE_SOURCE) != null || cluster.getAttribute(GOLDEN_IMAGE_ARCHIVE) != null) return;
+            ((EntityInternal) cluster).setAttribute(GOLDEN_IMAGE_SOURCE, getId());
+        }
+        Entities.submit(this, Tasks.builder().name("capturing golden image").body(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ((OpenGammaServerDriver) getDriver()).captureGoldenImage();
+                } catch (Exception e) {
+                    // release the claim so the next member to start tries again
+                    Exceptions.propagateIfFatal(e);
+                    log.warn("Unable to capture golden image of "+OpenGammaServerImpl.this+" for "+cluster+": "+e, e);
+                    ((EntityInternal) cluster).setAttribute(GOLDEN_IMAGE_SOURCE, null);
+                }
+            }
+        }).build());
+    }
+
+    /**
+     * The cluster the server belongs to, whose attributes hold the golden image and which scopes shared templates:
+     * {@link OpenGammaServer#OWNING_CLUSTER} if set (e.g. for a standby, whose parent is its pool), else the parent.
+     */
+    static Entity getOwningCluster(Entity server) {
+        Entity cluster = server.getConfig(OWNING_CLUSTER);
+        return (cluster != null) ? cluster : server.getParent();
+    }
+
+    @Override
+    public void pushConfig() {
+        ((OpenGammaServerDriver) getDriver()).pushConfig();
     }
 
     /** HTTP port number for Jetty web service. */
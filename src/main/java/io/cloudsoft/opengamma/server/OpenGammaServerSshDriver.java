@@ -1,21 +1,53 @@
 package io.cloudsoft.opengamma.server;
 
+import io.cloudsoft.opengamma.install.ArtifactCache;
+import io.cloudsoft.opengamma.install.ClassJar;
+import io.cloudsoft.opengamma.install.ConfigBundle;
+import io.cloudsoft.opengamma.install.JarPatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.Image;
+import org.jclouds.compute.domain.ImageTemplate;
+import org.jclouds.compute.extensions.ImageExtension;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
 import com.google.common.net.HostAndPort;
 
 import brooklyn.config.ConfigKey;
 import brooklyn.entity.Entity;
+import brooklyn.entity.basic.Attributes;
 import brooklyn.entity.basic.Entities;
 import brooklyn.entity.basic.EntityInternal;
 import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.basic.Lifecycle;
 import brooklyn.entity.database.postgresql.PostgreSqlNode;
 import brooklyn.entity.drivers.downloads.DownloadResolver;
 import brooklyn.entity.java.JavaSoftwareProcessSshDriver;
@@ -24,12 +56,14 @@ import brooklyn.event.AttributeSensor;
 import brooklyn.event.basic.BasicAttributeSensor;
 import brooklyn.event.basic.DependentConfiguration;
 import brooklyn.location.basic.SshMachineLocation;
+import brooklyn.location.jclouds.JcloudsSshMachineLocation;
+import brooklyn.util.ResourceUtils;
 import brooklyn.util.collections.MutableMap;
 import brooklyn.util.exceptions.Exceptions;
-import brooklyn.util.internal.ssh.SshTool;
 import brooklyn.util.net.Urls;
 import brooklyn.util.ssh.BashCommands;
 import brooklyn.util.stream.KnownSizeInputStream;
+import brooklyn.util.internal.Repeater;
 import brooklyn.util.task.Tasks;
 import brooklyn.util.task.ssh.SshTasks;
 import brooklyn.util.task.system.ProcessTaskWrapper;
@@ -43,6 +77,28 @@ public class OpenGammaServerSshDriver extends JavaSoftwareProcessSshDriver imple
     public static final AttributeSensor<Boolean> DB_INITIALISED =
             new BasicAttributeSensor<Boolean>(Boolean.class, "opengamma.database.initialised");
     
+    // rendered templates which are the same for every member of a cluster, keyed on cluster and inputs
+    private static final Cache<String, String> SHARED_TEMPLATES = CacheBuilder.newBuilder()
+            .maximumSize(256)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    // sensor put on DB entity: id of the server which has claimed initialisation of the database
+    public static final AttributeSensor<String> DB_INITIALISER =
+            new BasicAttributeSensor<String>(String.class, "opengamma.database.initialiser");
+
+    private static final Object DB_INITIALISER_CLAIM_LOCK = new Object();
+
+    // Spring bean classes in config files which are Brooklyn's, so must be deployed as agent classes
+    private static final Pattern AGENT_CLASS_REFERENCE = Pattern.compile("class=\"(io\\.cloudsoft\\.opengamma\\.[\\w.$]+)\"");
+
+    // computed on first use, from the machine's memory and cores (null if the probe failed, which is not retried)
+    private volatile JvmSizing jvmSizing;
+    private volatile boolean jvmSizingProbed;
+
+    // golden tarball to restore from (see OpenGammaServer.GOLDEN_IMAGE_ENABLED), or null to install from scratch
+    private volatile File goldenArchive;
+
     public OpenGammaServerSshDriver(EntityLocal entity, SshMachineLocation machine) {
         super(entity, machine);
     }
@@ -95,6 +151,12 @@ public class OpenGammaServerSshDriver extends JavaSoftwareProcessSshDriver imple
             "${version}", getVersion());
     }
 
+    /** @return The absolute path to the unpacked distribution in the (shared) install dir */
+    protected String getUnpackedInstallDirectory() {
+        DownloadResolver resolver = Entities.newDownloader(this);
+        return getInstallDir()+"/"+resolver.getUnpackedDirectoryName(getDownloadArchiveSubpath());
+    }
+
     /** @return The absolute path to the OpenGamma application on the server */
     protected String getOpenGammaDirectory() {
         return getRunDir() + "/opengamma";
@@ -153,27 +215,478 @@ public class OpenGammaServerSshDriver extends JavaSoftwareProcessSshDriver imple
         String jopts = env.remove("JAVA_OPTS");
         if (jopts != null) env.put("EXTRA_JVM_OPTS", jopts);
 
+        // heap and GC for this machine; og-brooklyn.sh uses these in place of its defaults
+        JvmSizing sizing = getJvmSizing();
+        if (sizing != null) {
+            env.put("OG_MEM_OPTS", sizing.getMemoryOptions());
+            if (sizing.getGcOptions() != null) env.put("OG_GC_OPTS", sizing.getGcOptions());
+        }
+
         return env;
     }
 
+    /**
+     * @return the heap and GC settings for this server's machine (probing it the first time), or null if
+     *         {@link OpenGammaServer#JVM_HEAP_FRACTION} is not set or the machine could not be probed (in which
+     *         case it is not probed again, as every script would otherwise wait for the probe to fail)
+     */
+    protected synchronized JvmSizing getJvmSizing() {
+        if (jvmSizingProbed) return jvmSizing;
+        Double heapFraction = entity.getConfig(OpenGammaServer.JVM_HEAP_FRACTION);
+        if (heapFraction == null) return null;
+        try {
+            ProcessTaskWrapper<Integer> probe = Entities.submit(getEntity(), SshTasks.newSshExecTaskFactory(getMachine(),
+                    "grep MemTotal /proc/meminfo | awk '{ print $2 }'",
+                    "nproc 2>/dev/null || grep -c ^processor /proc/cpuinfo").requiringExitCodeZero());
+            probe.get();
+            List<String> lines = Lists.newArrayList(Splitter.on('\n').omitEmptyStrings().trimResults().split(probe.getStdout()));
+            long memoryMb = Long.parseLong(lines.get(lines.size()-2)) / 1024;
+            int cores = Integer.parseInt(lines.get(lines.size()-1));
+
+            JvmSizing result = new JvmSizing(memoryMb, cores, heapFraction, entity.getConfig(OpenGammaServer.JVM_GC_PROFILE),
+                    entity.getConfig(OpenGammaServer.JVM_YOUNG_GEN_FRACTION), Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.JVM_LARGE_PAGES)));
+            log.info("{}: JVM sizing for {}: {}", new Object[] { entity, getMachine(), result });
+            entity.setAttribute(OpenGammaServer.MACHINE_MEMORY_MB, result.getMachineMemoryMb());
+            entity.setAttribute(OpenGammaServer.MACHINE_CORES, result.getMachineCores());
+            entity.setAttribute(OpenGammaServer.JVM_HEAP_MB, result.getHeapMb());
+            entity.setAttribute(OpenGammaServer.JVM_YOUNG_GEN_MB, result.getYoungGenMb());
+            if (result.getGcProfile() != null) {
+                entity.setAttribute(OpenGammaServer.JVM_GC_PROFILE_USED, result.getGcProfile().name());
+                entity.setAttribute(OpenGammaServer.JVM_GC_THREADS, result.getGcThreads());
+            }
+            entity.setAttribute(OpenGammaServer.JVM_OPTIONS, result.getJvmOptions());
+            jvmSizing = result;
+            jvmSizingProbed = true;
+            return result;
+        } catch (Exception e) {
+            Exceptions.propagateIfFatal(e);
+            log.warn("Unable to probe "+getMachine()+" for JVM sizing of "+entity+"; using start script defaults: "+e);
+            jvmSizingProbed = true;
+            return null;
+        }
+    }
+
     @Override
     public void install() {
+        goldenArchive = getGoldenArchive();
+        if (goldenArchive != null) {
+            // the prepared OpenGamma directory is restored from the golden tarball in customize, instead
+            log.info("{}: starting from golden image of {}; skipping install", entity, OpenGammaServerImpl.getOwningCluster(entity));
+            copyGoldenArchive(goldenArchive);
+            entity.setAttribute(OpenGammaServer.STARTED_FROM_GOLDEN_IMAGE, true);
+            return;
+        }
+        entity.setAttribute(OpenGammaServer.STARTED_FROM_GOLDEN_IMAGE, false);
+
         DownloadResolver resolver = Entities.newDownloader(this);
         List<String> urls = resolver.getTargets();
         String saveAs = resolver.getFilename();
 
-        List<String> commands = ImmutableList.<String>builder()
-                .addAll(BashCommands.commandsToDownloadUrlsAs(urls, saveAs))
-                .add(BashCommands.INSTALL_TAR)
-                .add(BashCommands.INSTALL_UNZIP)
-                // some versions of tar must NOT specify z for a bzip file (e.g. centos on interroute)
-                .add(BashCommands.alternatives("tar xvfz "+saveAs, "tar xvf "+saveAs))
-                .build();
+        boolean copiedFromCache = copyFromArtifactCache(urls, saveAs);
+
+        List<String> commands;
+        if (!copiedFromCache && Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.STREAMED_INSTALL))) {
+            // decompress and unpack as the archive downloads, rather than writing it to disk first
+            String unpackedDir = resolver.getUnpackedDirectoryName(getDownloadArchiveSubpath());
+            List<String> streams = Lists.newArrayList();
+            for (String url : urls) {
+                streams.add("( curl -f -L -k --retry 3 \""+url+"\" | "+getDecompressCommand(saveAs)+" | tar xf - && test -d "+unpackedDir+" )");
+            }
+            commands = ImmutableList.<String>builder()
+                    .add(BashCommands.INSTALL_CURL)
+                    .add(BashCommands.INSTALL_TAR)
+                    .add(BashCommands.INSTALL_UNZIP)
+                    .add(BashCommands.installPackage("bzip2"))
+                    .add(BashCommands.alternatives(streams))
+                    .build();
+        } else {
+            commands = ImmutableList.<String>builder()
+                    .addAll(copiedFromCache ? ImmutableList.<String>of() : BashCommands.commandsToDownloadUrlsAs(urls, saveAs))
+                    .add(BashCommands.INSTALL_TAR)
+                    .add(BashCommands.INSTALL_UNZIP)
+                    // some versions of tar must NOT specify z for a bzip file (e.g. centos on interroute)
+                    .add(BashCommands.alternatives("tar xvfz "+saveAs, "tar xvf "+saveAs))
+                    .build();
+        }
 
         newScript(INSTALLING)
                 .updateTaskAndFailOnNonZeroResultCode()
                 .body.append(commands).execute();
     }
+
+    /** Command to decompress the named archive from stdin to stdout, based on its extension. */
+    protected String getDecompressCommand(String archive) {
+        String name = archive.toLowerCase();
+        if (name.endsWith(".bz2") || name.endsWith(".tbz") || name.endsWith(".tbz2")) return "bzip2 -dc";
+        if (name.endsWith(".gz") || name.endsWith(".tgz")) return "gzip -dc";
+        return "cat";
+    }
+
+    /**
+     * Command to lay out the OpenGamma directory in the run dir from the unpacked install dir,
+     * according to {@link OpenGammaServer#RUN_DIR_LAYOUT}. Linked layouts fall back to a copy
+     * where the platform's {@code cp} does not support them (or the dirs are on different filesystems).
+     */
+    protected String getRunDirLayoutCommand(String source, String target) {
+        String copy = "cp -r "+source+" "+target;
+        OpenGammaServer.RunDirLayout layout = entity.getConfig(OpenGammaServer.RUN_DIR_LAYOUT);
+        if (layout == null || layout == OpenGammaServer.RunDirLayout.COPY) return copy;
+        String link = (layout == OpenGammaServer.RunDirLayout.SYMLINK ? "cp -rs " : "cp -al ") + source + " " + target;
+        return "( "+link+" || ( rm -rf "+target+" && "+copy+" ) )";
+    }
+
+    /**
+     * Command to make the given file executable. Where the run dir is linked to the install dir the file is
+     * first replaced by a copy of itself, so the install dir's file (shared by other servers) is left unchanged.
+     */
+    protected String getChmodCommand(String path) {
+        OpenGammaServer.RunDirLayout layout = entity.getConfig(OpenGammaServer.RUN_DIR_LAYOUT);
+        String chmod = "chmod 755 "+path;
+        if (layout == null || layout == OpenGammaServer.RunDirLayout.COPY) return chmod;
+        // cp follows a symlink, and writes a new file for a hard link
+        return "cp -p "+path+" "+path+".unlinked && mv -f "+path+".unlinked "+path+" && "+chmod;
+    }
+
+    /**
+     * Absolute paths of the files which customize writes over the distribution. When the run dir
+     * shares files with the install dir these must be unlinked first, so the install dir is not
+     * modified by writing through the link.
+     */
+    protected List<String> getConfigDestinations() {
+        List<String> result = Lists.newArrayList();
+        Map<String, String> filesToCopyLiterally = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_COPY);
+        if (filesToCopyLiterally != null) {
+            for (String destination : filesToCopyLiterally.values()) {
+                result.add(Urls.mergePaths(getOpenGammaDirectory(), destination));
+            }
+        }
+        Map<String, String> filesToCopyTemplated = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_TEMPLATE_AND_COPY);
+        if (filesToCopyTemplated != null) {
+            for (String destination : filesToCopyTemplated.values()) {
+                result.add(Urls.mergePaths(getOpenGammaDirectory(), destination));
+            }
+        }
+        Map<String, List<String>> patches = entity.getConfig(OpenGammaServer.LIB_PATCHES);
+        if (patches != null) {
+            for (String jar : patches.keySet()) {
+                result.add(Urls.mergePaths(getOpenGammaDirectory(), Strings.replaceAllNonRegex(jar, "${version}", getVersion())));
+            }
+        }
+        List<String> extraScripts = entity.getConfig(OpenGammaServer.EXTRA_SCRIPTS);
+        if (extraScripts != null) {
+            for (String script : extraScripts) {
+                result.add(Urls.mergePaths(getScriptsDirectory(), script.substring(script.lastIndexOf("/") + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the bundle of {@link OpenGammaServer#CONFIG_FILES_TO_COPY literal files},
+     * {@link OpenGammaServer#CONFIG_FILES_TO_TEMPLATE_AND_COPY rendered templates} and
+     * {@link OpenGammaServer#EXTRA_SCRIPTS scripts}, with paths relative to the OpenGamma directory.
+     * Templates listed in {@link OpenGammaServer#SHARED_CONFIG_TEMPLATES} are rendered once per cluster.
+     */
+    protected ConfigBundle buildConfigBundle() {
+        ConfigBundle bundle = new ConfigBundle();
+        List<String> agentClasses = entity.getConfig(OpenGammaServer.AGENT_CLASSES);
+
+        Map<String, String> filesToCopyLiterally = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_COPY);
+        if (filesToCopyLiterally != null) {
+            for (Entry<String, String> nameAndDestination : filesToCopyLiterally.entrySet()) {
+                byte[] contents = getResourceAsBytes(nameAndDestination.getKey());
+                if (nameAndDestination.getKey().endsWith(".xml")) {
+                    checkAgentClasses(nameAndDestination.getKey(), new String(contents, Charsets.UTF_8), agentClasses);
+                }
+                bundle.add(nameAndDestination.getValue(), contents);
+            }
+        }
+
+        Map<String, String> filesToCopyTemplated = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_TEMPLATE_AND_COPY);
+        if (filesToCopyTemplated != null) {
+            List<String> shared = entity.getConfig(OpenGammaServer.SHARED_CONFIG_TEMPLATES);
+            for (Entry<String, String> nameAndDestination : filesToCopyTemplated.entrySet()) {
+                String template = nameAndDestination.getKey();
+                String contents = (shared != null && shared.contains(template)) ? processSharedTemplate(template) : processTemplate(template);
+                if (template.endsWith(".xml")) checkAgentClasses(template, contents, agentClasses);
+                bundle.add(nameAndDestination.getValue(), contents);
+            }
+        }
+
+        List<String> extraScripts = entity.getConfig(OpenGammaServer.EXTRA_SCRIPTS);
+        if (extraScripts != null) {
+            for (String script : extraScripts) {
+                String name = script.substring(script.lastIndexOf("/") + 1);
+                bundle.addExecutable(Urls.mergePaths("scripts", name), getResourceAsBytes(script));
+            }
+        }
+
+        if (agentClasses != null && !agentClasses.isEmpty()) {
+            bundle.add("lib/override/brooklyn-opengamma-agent.jar", ClassJar.of(getClass().getClassLoader(), agentClasses));
+        }
+        return bundle;
+    }
+
+    /**
+     * Fails if a Spring config file refers to one of Brooklyn's own classes (such as the latency histogram handler in
+     * {@code jetty-spring.xml}) which is not in {@link OpenGammaServer#AGENT_CLASSES}, so not deployed to the server:
+     * better here than the server failing to start.
+     */
+    protected void checkAgentClasses(String file, String contents, List<String> agentClasses) {
+        Matcher matcher = AGENT_CLASS_REFERENCE.matcher(contents);
+        while (matcher.find()) {
+            String agentClass = matcher.group(1);
+            if (agentClasses == null || !agentClasses.contains(agentClass)) {
+                throw new IllegalStateException("Config file "+file+" of "+entity+" refers to "+agentClass+
+                        ", which is not in "+OpenGammaServer.AGENT_CLASSES.getName()+" "+agentClasses);
+            }
+        }
+    }
+
+    /**
+     * Renders a template which depends only on attributes shared by the whole cluster (such as the
+     * broker and database locations), reusing the result already rendered for another member if there is one.
+     */
+    protected String processSharedTemplate(final String template) {
+        Entity cluster = OpenGammaServerImpl.getOwningCluster(entity);
+        String key = Joiner.on("|").useForNull("").join(cluster != null ? cluster.getId() : entity.getId(), template, getVersion(),
+                getBrokerLocation(), getDatabaseLocation());
+        try {
+            return SHARED_TEMPLATES.get(key, new Callable<String>() {
+                @Override
+                public String call() {
+                    return processTemplate(template);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Sends the {@link #buildConfigBundle() config bundle} to the server in a single transfer, and
+     * unpacks it (over any existing files) and sets permissions with a single remote command.
+     */
+    protected void pushConfigBundle() {
+        ConfigBundle bundle = buildConfigBundle();
+        String bundleFile = Urls.mergePaths(getTempDirectory(), "brooklyn-config-bundle.zip");
+        List<String> commands = Lists.newArrayList("cd " + getOpenGammaDirectory());
+        if (!bundle.isEmpty()) {
+            byte[] zip = bundle.toZip();
+            int result = getMachine().copyTo(new KnownSizeInputStream(new ByteArrayInputStream(zip), zip.length), bundleFile);
+            if (result != 0) throw new IllegalStateException("Unable to copy config bundle to "+getMachine()+" (result "+result+")");
+            commands.add("unzip -o -q " + bundleFile);
+            commands.add("rm -f " + bundleFile);
+            for (String executable : bundle.getExecutablePaths()) {
+                commands.add(getChmodCommand(executable));
+            }
+        }
+        commands.add(getChmodCommand(getServerStartupScript()));
+        newScript("unpacking config bundle")
+            .updateTaskAndFailOnNonZeroResultCode()
+            .body.append(commands)
+            .failOnNonZeroResultCode()
+            .execute();
+    }
+
+    @Override
+    public void pushConfig() {
+        log.info("{}: pushing config to {}", entity, getMachine());
+        pushConfigBundle();
+    }
+
+    protected byte[] getResourceAsBytes(String url) {
+        try {
+            return ByteStreams.toByteArray(ResourceUtils.create(entity).getResourceFromUrl(url));
+        } catch (IOException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+
+    /**
+     * Copies each of the jars patched according to {@link OpenGammaServer#LIB_PATCHES} over the original in
+     * the run dir. The patched jars are built on the management node from the original in this server's
+     * install dir the first time they are needed, and are cached there for every other server of that version.
+     */
+    protected void installPatchedJars() {
+        Map<String, List<String>> patches = entity.getConfig(OpenGammaServer.LIB_PATCHES);
+        if (patches == null || patches.isEmpty()) return;
+
+        ArtifactCache cache = ArtifactCache.forDirectory(entity.getConfig(OpenGammaServer.ARTIFACT_CACHE_DIR));
+        for (Entry<String, List<String>> patch : patches.entrySet()) {
+            String jar = Strings.replaceAllNonRegex(patch.getKey(), "${version}", getVersion());
+            final String originalJar = Urls.mergePaths(getUnpackedInstallDirectory(), jar);
+            final List<byte[]> patchContents = Lists.newArrayList();
+            StringBuilder recipe = new StringBuilder(getVersion()).append("|").append(jar);
+            for (String url : patch.getValue()) {
+                byte[] contents = getResourceAsBytes(url);
+                patchContents.add(contents);
+                recipe.append("|").append(Hashing.sha256().hashBytes(contents).toString());
+            }
+
+            File patched = cache.getDerived(recipe.toString(), new File(jar).getName(), new ArtifactCache.ArtifactBuilder() {
+                @Override
+                public void build(File target) throws Exception {
+                    log.info("{}: building patched {} on management node", entity, originalJar);
+                    List<File> tempFiles = Lists.newArrayList();
+                    try {
+                        File base = File.createTempFile("opengamma-base", ".jar");
+                        tempFiles.add(base);
+                        int result = getMachine().copyFrom(originalJar, base.getAbsolutePath());
+                        if (result != 0) throw new IllegalStateException("Unable to copy "+originalJar+" from "+getMachine()+" (result "+result+")");
+                        List<File> patchFiles = Lists.newArrayList();
+                        for (byte[] contents : patchContents) {
+                            File patchFile = File.createTempFile("opengamma-patch", ".jar");
+                            tempFiles.add(patchFile);
+                            Files.write(contents, patchFile);
+                            patchFiles.add(patchFile);
+                        }
+                        JarPatcher.patch(base, patchFiles, target);
+                    } finally {
+                        for (File f : tempFiles) f.delete();
+                    }
+                }
+            });
+
+            // destination has already been unlinked from the install dir (see getConfigDestinations)
+            String destination = Urls.mergePaths(getOpenGammaDirectory(), jar);
+            int result = getMachine().copyTo(patched, destination);
+            if (result != 0) throw new IllegalStateException("Unable to copy patched "+jar+" to "+getMachine()+" (result "+result+")");
+            recordServed(cache, patched.length());
+        }
+    }
+
+    /**
+     * @return the golden tarball on the management node, if golden-image mode is enabled and one has
+     *         been captured for this server's cluster; otherwise null
+     */
+    protected File getGoldenArchive() {
+        if (!Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.GOLDEN_IMAGE_ENABLED))) return null;
+        Entity cluster = OpenGammaServerImpl.getOwningCluster(entity);
+        String path = (cluster != null) ? cluster.getAttribute(OpenGammaServer.GOLDEN_IMAGE_ARCHIVE) : null;
+        if (Strings.isBlank(path)) return null;
+        File result = new File(path);
+        if (!result.exists()) {
+            log.warn("{}: golden tarball {} for {} no longer exists; installing from scratch", new Object[] { entity, path, cluster });
+            return null;
+        }
+        return result;
+    }
+
+    /** Path of the golden tarball on the server (in the install dir, so it is included in any golden machine image). */
+    protected String getGoldenArchiveRemotePath() {
+        return Urls.mergePaths(getInstallDir(), "opengamma-golden.tar.gz");
+    }
+
+    /** Copies the golden tarball to the server, unless it is already there (e.g. provisioned from the golden machine image). */
+    protected void copyGoldenArchive(File archive) {
+        String remote = getGoldenArchiveRemotePath();
+        if (getMachine().execCommands("checking for golden tarball", ImmutableList.of("test -f " + remote)) == 0) {
+            log.debug("{}: golden tarball already present at {}", entity, remote);
+            return;
+        }
+        getMachine().execCommands("creating install dir", ImmutableList.of("mkdir -p " + getInstallDir()));
+        int result = getMachine().copyTo(archive, remote);
+        if (result != 0) throw new IllegalStateException("Unable to copy golden tarball to "+getMachine()+" (result "+result+")");
+        recordServed(ArtifactCache.forDirectory(entity.getConfig(OpenGammaServer.ARTIFACT_CACHE_DIR)), archive.length());
+    }
+
+    @Override
+    public void captureGoldenImage() {
+        final Entity cluster = OpenGammaServerImpl.getOwningCluster(entity);
+        final String remote = getGoldenArchiveRemotePath();
+        log.info("{}: capturing golden image for {}", entity, cluster);
+
+        // logs, pid file and temp files are specific to this server; links into this server's install dir
+        // are dereferenced (-h), as members restored from the tarball skip install and so have no install dir
+        newScript("capturing golden tarball")
+            .failOnNonZeroResultCode()
+            .body.append(
+                "cd " + getRunDir(),
+                "rm -f " + remote + ".part",
+                "tar czhf " + remote + ".part --exclude='opengamma/logs/*' --exclude='opengamma/data/*' --exclude='opengamma/temp/*' opengamma",
+                "mv " + remote + ".part " + remote)
+            .execute();
+
+        ArtifactCache cache = ArtifactCache.forDirectory(entity.getConfig(OpenGammaServer.ARTIFACT_CACHE_DIR));
+        File archive = cache.getDerived("golden|" + cluster.getId() + "|" + entity.getId() + "|" + getVersion(), "opengamma-golden.tar.gz",
+                new ArtifactCache.ArtifactBuilder() {
+                    @Override
+                    public void build(File target) throws Exception {
+                        int result = getMachine().copyFrom(remote, target.getAbsolutePath());
+                        if (result != 0) throw new IllegalStateException("Unable to copy golden tarball from "+getMachine()+" (result "+result+")");
+                    }
+                });
+        ((EntityLocal) cluster).setAttribute(OpenGammaServer.GOLDEN_IMAGE_ARCHIVE, archive.getAbsolutePath());
+        log.info("{}: golden tarball for {} captured at {} ({} bytes)", new Object[] { entity, cluster, archive, archive.length() });
+
+        if (Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.GOLDEN_IMAGE_MACHINE_IMAGE)) && getMachine() instanceof JcloudsSshMachineLocation) {
+            try {
+                String imageId = captureMachineImage((JcloudsSshMachineLocation) getMachine(), "opengamma-golden-" + cluster.getId());
+                if (imageId != null) {
+                    ((EntityLocal) cluster).setAttribute(OpenGammaServer.GOLDEN_IMAGE_ID, imageId);
+                    log.info("{}: golden machine image for {} captured as {}", new Object[] { entity, cluster, imageId });
+                }
+            } catch (Exception e) {
+                // later members still start from the golden tarball
+                Exceptions.propagateIfFatal(e);
+                log.warn("Unable to capture golden machine image of "+getMachine()+" for "+cluster+"; using golden tarball only: "+e);
+            }
+        }
+    }
+
+    /** @return the id of the new image, or null if the cloud does not support capturing images */
+    protected String captureMachineImage(JcloudsSshMachineLocation machine, String name) throws Exception {
+        ComputeService computeService = machine.getParent().getComputeService();
+        Optional<ImageExtension> imageExtension = computeService.getImageExtension();
+        if (!imageExtension.isPresent()) {
+            log.info("{}: {} does not support capturing images; using golden tarball only", entity, machine.getParent().getProvider());
+            return null;
+        }
+        ImageTemplate template = imageExtension.get().buildImageTemplateFromNode(name, machine.getNode().getId());
+        Image image = imageExtension.get().createImage(template).get();
+        return image.getId();
+    }
+
+    /**
+     * Copies the archive to the install dir from the management node's {@link ArtifactCache},
+     * populating the cache from the given URLs if needed.
+     *
+     * @return true if the archive is now in place; false if the caller should download it from the origin
+     */
+    protected boolean copyFromArtifactCache(List<String> urls, String saveAs) {
+        if (!Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.ARTIFACT_CACHE_ENABLED))) return false;
+
+        ArtifactCache cache = ArtifactCache.forDirectory(entity.getConfig(OpenGammaServer.ARTIFACT_CACHE_DIR));
+        boolean copied = false;
+        try {
+            File artifact = cache.get(urls, entity.getConfig(OpenGammaServer.DOWNLOAD_CHECKSUM));
+            if (artifact != null) {
+                getMachine().execCommands("creating install dir", ImmutableList.of("mkdir -p " + getInstallDir()));
+                int result = getMachine().copyTo(artifact, Urls.mergePaths(getInstallDir(), saveAs));
+                if (result == 0) {
+                    recordServed(cache, artifact.length());
+                    copied = true;
+                } else {
+                    log.warn("Unable to copy {} from artifact cache to {} (result {}); downloading from origin instead",
+                            new Object[] { artifact, getMachine(), result });
+                }
+            }
+        } catch (Exception e) {
+            Exceptions.propagateIfFatal(e);
+            log.warn("Artifact cache unavailable for "+entity+"; downloading from origin instead: "+e);
+        }
+
+        entity.setAttribute(OpenGammaServer.INSTALLED_FROM_ARTIFACT_CACHE, copied);
+        return copied;
+    }
+
+    /** Records bytes sent from the cache to this server, in the cache's (management node) tally and this server's. */
+    protected void recordServed(ArtifactCache cache, long bytes) {
+        cache.recordServed(bytes);
+        Long served = entity.getAttribute(OpenGammaServer.ARTIFACT_CACHE_BYTES_SERVED);
+        entity.setAttribute(OpenGammaServer.ARTIFACT_CACHE_BYTES_SERVED, (served != null ? served : 0L) + bytes);
+    }
     /*
 
 in theory, from discussions with Stephen Colebourne; setting:
@@ -199,11 +712,20 @@ should effectively nullify the [activeMQ] section in the ini file
 
     @Override
     public void customize() {
-        DownloadResolver resolver = Entities.newDownloader(this);
-        // Copy the install files to the run-dir
+        List<String> prepare;
+        if (goldenArchive != null) {
+            // restore the prepared OpenGamma directory (including patched and extra jars) in one step
+            prepare = ImmutableList.of("tar xzf " + getGoldenArchiveRemotePath() + " -C " + getRunDir());
+        } else {
+            // Lay out the run-dir from the install files (copying, or linking so only the files we write are separate)
+            List<String> destinations = getConfigDestinations();
+            prepare = ImmutableList.of(
+                    getRunDirLayoutCommand(getUnpackedInstallDirectory(), getOpenGammaDirectory()),
+                    destinations.isEmpty() ? "true" : "rm -f "+Joiner.on(" ").join(destinations));
+        }
         newScript(CUSTOMIZING)
             .updateTaskAndFailOnNonZeroResultCode()
-            .body.append("cp -r "+getInstallDir()+"/"+resolver.getUnpackedDirectoryName(getDownloadArchiveSubpath())+" "+ getOpenGammaDirectory())
+            .body.append(prepare)
             // create the dirs where we will put config files
             .body.append("mkdir -p " + getTempDirectory())
             .body.append("mkdir -p " + getCommonDirectory())
@@ -213,94 +735,218 @@ should effectively nullify the [activeMQ] section in the ini file
             .body.append("mkdir -p " + getLogsDirectory())
             .body.append("mkdir -p " + getDataDirectory())
             // install the postgres jar (FIXME should be done as install step ideally)
-            .body.append(BashCommands.commandToDownloadUrlAs(
+            .body.append(goldenArchive != null ? "true" : BashCommands.commandToDownloadUrlAs(
                 "http://jdbc.postgresql.org/download/postgresql-9.2-1003.jdbc4.jar",
                 getLibOverrideDirectory()+"/postgresql-9.2-1003.jdbc4.jar"))
             .execute();
 
-        // TODO: Make sure destination directories already exist
-        Map<String, String> filesToCopyLiterally = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_COPY);
-        if (filesToCopyLiterally != null) {
-            for (Entry<String, String> nameAndDestination : filesToCopyLiterally.entrySet()) {
-                String destination = Urls.mergePaths(getOpenGammaDirectory(), nameAndDestination.getValue());
-                String contents = getResourceAsString(nameAndDestination.getKey());
-                getMachine().copyTo(KnownSizeInputStream.of(contents), destination);
+        // all config files, templates and scripts go in a single transfer
+        pushConfigBundle();
+
+        // needed for 2.1.0 due as workaround for https://github.com/OpenGamma/OG-Platform/pull/6
+        // (remove once that is fixed in OG); see OpenGammaServer.LIB_PATCHES
+        if (goldenArchive == null) installPatchedJars();
+        
+        // Claim the database initialisation, if no other server has; the others do not wait here, but in launch
+        Entity database = entity.getConfig(OpenGammaServer.DATABASE);
+        if (database!=null && claimDatabaseInitialisation(database)) {
+            initialiseDatabase(database);
+        }
+    }
+
+    /**
+     * Claims the initialisation of the database for this server, unless it is already initialised or
+     * claimed by another server. The claim is held only for the check, so other servers customize in parallel.
+     */
+    protected boolean claimDatabaseInitialisation(Entity database) {
+        synchronized (DB_INITIALISER_CLAIM_LOCK) {
+            if (database.getAttribute(DB_INITIALISED) == Boolean.TRUE) {
+                log.info("{}: Database on {} already initialised", entity, database);
+                return false;
+            }
+            String initialiser = database.getAttribute(DB_INITIALISER);
+            if (initialiser != null && !initialiser.equals(entity.getId())) {
+                log.debug("{}: Database on {} being initialised by {}", new Object[] { entity, database, initialiser });
+                return false;
             }
+            ((EntityLocal)database).setAttribute(DB_INITIALISER, entity.getId());
+            isInitial = true;
+            return true;
         }
+    }
 
-        // TODO: Make sure destination directories already exist
-        Map<String, String> filesToCopyTemplated = entity.getConfig(OpenGammaServer.CONFIG_FILES_TO_TEMPLATE_AND_COPY);
-        if (filesToCopyTemplated != null) {
-            for (Entry<String, String> nameAndDestination : filesToCopyTemplated.entrySet()) {
-                String destination = Urls.mergePaths(getOpenGammaDirectory(), nameAndDestination.getValue());
-                String contents = processTemplate(nameAndDestination.getKey());
-                getMachine().copyTo(KnownSizeInputStream.of(contents), destination);
+    /**
+     * Initialises the database (having {@link #claimDatabaseInitialisation(Entity) claimed} it), from a dump
+     * or by running the Java populator. If that fails the claim is released, so another server can take over.
+     */
+    protected void initialiseDatabase(Entity database) {
+        try {
+            // wait for DB up, of course
+            attributeWhenReady(OpenGammaServer.DATABASE, PostgreSqlNode.SERVICE_UP);
+            SshMachineLocation machine = (SshMachineLocation) Iterables.find(database.getLocations(), Predicates.instanceOf(SshMachineLocation.class));
+
+            if (isDatabaseInitialised(database, machine)) {
+                // e.g. a persistent database outliving a previous deployment, or initialised by a server which then failed
+                log.info("{}: Database on {} already initialised; not initialising", entity, database);
+                ((EntityLocal)database).setAttribute(OpenGammaServer.DATABASE_INIT_METHOD, "existing");
+                ((EntityLocal)database).setAttribute(DB_INITIALISED, true);
+                return;
+            }
+            if (isDatabasePopulated(database, machine)) {
+                // tables but no marker: a previous initialisation did not complete, so start again from empty
+                log.warn("{}: Database on {} has tables but was not completely initialised; dropping them", entity, database);
+                int result = machine.execCommands("clearing OG db", PostgreSqlCommands.dropOwned(database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT)));
+                if (result != 0) throw new IllegalStateException("Unable to clear partly-initialised database on "+database+" (result "+result+")");
+            }
+
+            long start = System.currentTimeMillis();
+            String dumpUrl = entity.getConfig(OpenGammaServer.DATABASE_DUMP_URL);
+            if (Strings.isNonBlank(dumpUrl)) {
+                log.info("{}: Initialising database on {} from dump {}", new Object[] { entity, database, dumpUrl });
+                restoreDatabaseDumps(database, machine, dumpUrl);
+                ((EntityLocal)database).setAttribute(OpenGammaServer.DATABASE_INIT_METHOD, "restore");
+            } else {
+                log.info("{}: Initialising database on {}", entity, database);
+                newScript("initialising OG db")
+                        .updateTaskAndFailOnNonZeroResultCode()
+                        .body.append("cd "+getRunDir(), "cd opengamma", "unset JAVA_HOME", "scripts/init-brooklyn-db.sh")
+                        .execute();
+                ((EntityLocal)database).setAttribute(OpenGammaServer.DATABASE_INIT_METHOD, "populate");
             }
+            long duration = System.currentTimeMillis() - start;
+            log.info("{}: Database on {} initialised in {}", new Object[] { entity, database, Time.makeTimeStringRounded(duration) });
+            ((EntityLocal)database).setAttribute(OpenGammaServer.DATABASE_INIT_DURATION, duration);
+            if (Strings.isBlank(dumpUrl) && Strings.isNonBlank(entity.getConfig(OpenGammaServer.DATABASE_DUMP_SAVE_DIR))) {
+                saveDatabaseDumps(database, machine, entity.getConfig(OpenGammaServer.DATABASE_DUMP_SAVE_DIR));
+            }
+            // the last step, so a failed initialisation is never taken for a complete one (the dumps do not include it)
+            int result = machine.execCommands("marking OG db initialised",
+                    PostgreSqlCommands.markInitialised(database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT), getVersion()));
+            if (result != 0) throw new IllegalStateException("Unable to mark database on "+database+" initialised (result "+result+")");
+            ((EntityLocal)database).setAttribute(DB_INITIALISED, true);
+        } catch (RuntimeException e) {
+            log.warn("{}: Failed to initialise database on {}; releasing claim so another server can: {}", new Object[] { entity, database, e });
+            isInitial = false;
+            ((EntityLocal)database).setAttribute(DB_INITIALISER, null);
+            throw e;
         }
+    }
+
+    /**
+     * Probes for the {@link PostgreSqlCommands#INIT_MARKER_TABLE marker} written once initialisation completes,
+     * so a completely initialised database (e.g. from a previous deployment) is not initialised again.
+     */
+    protected boolean isDatabaseInitialised(Entity database, SshMachineLocation machine) {
+        int port = database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT);
+        return probeCount(database, machine, PostgreSqlCommands.countInitMarkers(port)) > 0;
+    }
 
-        for (String script : entity.getConfig(OpenGammaServer.EXTRA_SCRIPTS)) {
-            String name = script.substring(script.lastIndexOf("/") + 1);
-            String contents = getResourceAsString(script);
-            String destination = Urls.mergePaths(getScriptsDirectory(), name);
-            getMachine().copyTo(MutableMap.of(SshTool.PROP_PERMISSIONS.getName(), "0755"),
-                    KnownSizeInputStream.of(contents), destination);
+    /** Probes the schema for tables, which without the initialisation marker are left by an initialisation which failed. */
+    protected boolean isDatabasePopulated(Entity database, SshMachineLocation machine) {
+        int port = database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT);
+        return probeCount(database, machine, PostgreSqlCommands.countTables(PostgreSqlCommands.DATABASES.get(0), port)) > 0;
+    }
+
+    /** @return the count printed last by the commands, or 0 if they fail */
+    private int probeCount(Entity database, SshMachineLocation machine, List<String> commands) {
+        try {
+            ProcessTaskWrapper<Integer> probe = Entities.submit(getEntity(), SshTasks.newSshExecTaskFactory(machine,
+                    commands.toArray(new String[0])));
+            if (probe.get() != 0) return 0;
+            String out = probe.getStdout().trim();
+            String last = out.substring(out.lastIndexOf('\n') + 1).trim();
+            return Integer.parseInt(last);
+        } catch (Exception e) {
+            Exceptions.propagateIfFatal(e);
+            log.debug("{}: Unable to probe database on {}; assuming not initialised: {}", new Object[] { entity, database, e });
+            return 0;
         }
+    }
 
-        // needed for 2.1.0 due as workaround for https://github.com/OpenGamma/OG-Platform/pull/6
-        // (remove once that is fixed in OG)
-        copyResource("classpath:/io/cloudsoft/opengamma/config/patches/patch-postgres-rsk-v-51.jar",
-                getLibOverrideDirectory() + "/patch-postgres-rsk-v-51.jar");
-        // patch does not work due to local classloading -- we need to rebuild the jar
-        newScript("patching postgres rsk and making start script executable")
-            .updateTaskAndFailOnNonZeroResultCode()
-            .body.append(
-                "cd "+ getLibOverrideDirectory(),
-                "mkdir tmp", 
-                "cd tmp",
-                "unzip ../../og-masterdb-2.1.0.jar",
-                "mv META-INF META-INF_masterdb",
-                "unzip -fo ../patch-postgres-rsk-v-51.jar",
-                "rm -rf META-INF",
-                "mv META-INF_masterdb META-INF",
-                "jar cvf ../og-masterdb-2.1.0.jar .",
-                "cd ..",
-                "rm -rf tmp",
-                "rm -f patch-postgres-rsk-v-51.jar",
-                "mv og-masterdb-2.1.0.jar ..",
-                "chmod 755 " + getOpenGammaDirectory() + "/" + getServerStartupScript())
-            .failOnNonZeroResultCode()
-            .execute();
-        
-        // wait for DB up, of course
-        attributeWhenReady(OpenGammaServer.DATABASE, PostgreSqlNode.SERVICE_UP);
+    /** Restores each of the {@link PostgreSqlCommands#DATABASES OpenGamma databases} from its dump; see {@link OpenGammaServer#DATABASE_DUMP_URL}. */
+    protected void restoreDatabaseDumps(Entity database, SshMachineLocation machine, String dumpUrl) {
+        int port = database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT);
+        int jobs = entity.getConfig(OpenGammaServer.DATABASE_DUMP_RESTORE_JOBS);
+        String dumpDir = "/tmp/opengamma-dumps-" + database.getId();
+        machine.execCommands("creating dump dir", ImmutableList.of("mkdir -p " + dumpDir));
+        for (String name : PostgreSqlCommands.DATABASES) {
+            String url = Strings.replaceAllNonRegex(Strings.replaceAllNonRegex(dumpUrl, "${version}", getVersion()), "${database}", name);
+            String dumpFile = dumpDir + "/" + name + ".dump";
+            List<String> commands = Lists.newArrayList();
+            if (url.matches("^(https?|ftp)://.*")) {
+                // fetch directly on the database host
+                commands.addAll(BashCommands.commandsToDownloadUrlsAs(ImmutableList.of(url), dumpFile));
+            } else {
+                File local = new File(url.startsWith("file://") ? url.substring("file://".length()) : url);
+                int result = local.exists() ? machine.copyTo(local, dumpFile) : copyResourceTo(machine, url, dumpFile);
+                if (result != 0) throw new IllegalStateException("Unable to copy dump "+url+" to "+machine+" (result "+result+")");
+            }
+            commands.addAll(PostgreSqlCommands.restore(dumpFile, name, port, jobs));
+            commands.add("rm -f " + dumpFile);
+            int result = machine.execCommands("restoring OG db "+name, commands);
+            if (result != 0) throw new IllegalStateException("Unable to restore database "+name+" on "+database+" from "+url+" (result "+result+")");
+        }
+    }
 
-        // Use the database server's location  and id as a mutex to prevents multiple execution of the initialisation code
-        Entity database = entity.getConfig(OpenGammaServer.DATABASE);
-        if (database!=null) {
-            SshMachineLocation machine = (SshMachineLocation) Iterables.find(database.getLocations(), Predicates.instanceOf(SshMachineLocation.class));
+    /** Streams the resource (e.g. on the classpath) to the machine, rather than reading it into memory, as a dump can be hundreds of MB. */
+    protected int copyResourceTo(SshMachineLocation machine, String url, String destination) {
+        InputStream in = ResourceUtils.create(entity).getResourceFromUrl(url);
+        try {
+            return machine.copyTo(in, destination);
+        } finally {
             try {
-                machine.acquireMutex(database.getId(), "initialising database "+database);
-                if (database.getAttribute(DB_INITIALISED) != Boolean.TRUE) {
-                    isInitial = true;
-                    log.info("{}: Initialising database on {}", entity, database);
-                    newScript("initialising OG db")
-                            .updateTaskAndFailOnNonZeroResultCode()
-                            .body.append("cd "+getRunDir(), "cd opengamma", "unset JAVA_HOME", "scripts/init-brooklyn-db.sh")
-                            .execute();
-                    ((EntityLocal)database).setAttribute(DB_INITIALISED, true);
-                } else {
-                    log.info("{}: Database on {} already initialised", entity, database);
-                }
-            } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
-            } finally {
-                machine.releaseMutex(database.getId());
+                Closeables.close(in, true);
+            } catch (IOException e) {
+                throw Exceptions.propagate(e);
             }
         }
     }
 
+    /**
+     * Dumps each of the {@link PostgreSqlCommands#DATABASES OpenGamma databases} and copies it to the
+     * management node, so later deployments can use it as {@link OpenGammaServer#DATABASE_DUMP_URL}.
+     */
+    protected void saveDatabaseDumps(Entity database, SshMachineLocation machine, String saveDir) {
+        int port = database.getAttribute(PostgreSqlNode.POSTGRESQL_PORT);
+        String dumpDir = "/tmp/opengamma-dumps-" + database.getId();
+        new File(saveDir).mkdirs();
+        try {
+            for (String name : PostgreSqlCommands.DATABASES) {
+                String dumpFile = dumpDir + "/" + name + ".dump";
+                List<String> commands = Lists.newArrayList("mkdir -p " + dumpDir);
+                commands.addAll(PostgreSqlCommands.dump(name, port, dumpFile));
+                int result = machine.execCommands("dumping OG db "+name, commands);
+                if (result != 0) throw new IllegalStateException("Unable to dump database "+name+" on "+database+" (result "+result+")");
+                File target = new File(saveDir, "opengamma-" + getVersion() + "-" + name + ".dump");
+                result = machine.copyFrom(dumpFile, target.getAbsolutePath());
+                if (result != 0) throw new IllegalStateException("Unable to copy dump of "+name+" from "+machine+" (result "+result+")");
+                log.info("{}: saved dump of database {} on {} to {}", new Object[] { entity, name, database, target });
+            }
+            log.info("{}: to skip the populator in later deployments, set {} to file://{}/opengamma-${version}-${database}.dump",
+                    new Object[] { entity, OpenGammaServer.DATABASE_DUMP_URL.getName(), new File(saveDir).getAbsolutePath() });
+        } catch (Exception e) {
+            // the database itself is fine; only the saved dump is missing
+            Exceptions.propagateIfFatal(e);
+            log.warn("Unable to save database dumps from "+database+" to "+saveDir+": "+e);
+        } finally {
+            machine.execCommands("removing dumps", ImmutableList.of("rm -rf " + dumpDir));
+        }
+    }
+
     @Override
     public void launch() {
+        if (Boolean.TRUE.equals(entity.getConfig(OpenGammaServer.HOLD_BEFORE_LAUNCH)) && !Boolean.TRUE.equals(entity.getAttribute(OpenGammaServer.LAUNCH_RELEASED))) {
+            log.info("{}: installed and customized; holding until launch is released", entity);
+            entity.setAttribute(OpenGammaServer.HELD_BEFORE_LAUNCH, true);
+            Tasks.setBlockingDetails("Holding until launch is released");
+            try {
+                Entities.submit(getEntity(), DependentConfiguration.attributeWhenReady(entity, OpenGammaServer.LAUNCH_RELEASED)).getUnchecked();
+            } finally {
+                Tasks.resetBlockingDetails();
+                entity.setAttribute(OpenGammaServer.HELD_BEFORE_LAUNCH, false);
+            }
+        }
+
         // and wait for broker up also
         attributeWhenReady(OpenGammaServer.BROKER, ActiveMQBroker.SERVICE_UP);
 
@@ -308,35 +954,132 @@ should effectively nullify the [activeMQ] section in the ini file
         
         if (!isInitial) {
             // have seen errors if two cluster nodes start at the same time, subsequent may try to initialize database
-            Boolean up = database.getAttribute(OpenGammaServer.DATABASE_INITIALIZED);
-            if (Boolean.TRUE.equals(up)) {
-                log.debug("OG server "+getEntity()+" is not initial, but database is already up, so continuing");
-            } else {
-                log.info("OG server "+getEntity()+" is not initial, waiting on database to be completely initialised");
-                Tasks.setBlockingDetails("Waiting on OpenGamma database to be initialised");
-                Entities.submit(getEntity(), DependentConfiguration.attributeWhenReady(database, OpenGammaServer.DATABASE_INITIALIZED)).getUnchecked();
-                log.debug("OG server "+getEntity()+" continuing, as database is now completely initialised");
-            }
+            awaitDatabaseInitialised(database);
         }
         
+        String pidFile = getPidFileRelativeToRunDir();
         newScript(LAUNCHING)
                 .updateTaskAndFailOnNonZeroResultCode()
                 .body.append(
                         "cd opengamma",
                         "unset JAVA_HOME",
+                        // so a restart does not find the started marker logged by the previous run
+                        getRotateLogsCommand(),
                         "nohup "+getServerStartupScript()+" start",
-                        /* sleep needed sometimes else the java process - the last thing done by the script -
-                         * does not seem to start; it is being invoked as `exec (setsid) java ... < /dev/null &` */
-                        "sleep 3")
+                        /* the java process - the last thing done by the script - is invoked as
+                         * `exec (setsid) java ... < /dev/null &`, so wait until it is actually running */
+                        "for i in $(seq 1 30); do [ -f "+pidFile+" ] && ps -p $(cat "+pidFile+") > /dev/null && break; sleep 1; done",
+                        "[ -f "+pidFile+" ] && ps -p $(cat "+pidFile+") > /dev/null")
                 .execute();
         
         if (isInitial) {
-            log.info("Primary "+getEntity()+" has launched, will set database initialized to allow other servers to boot");
-            Time.sleep(Duration.TEN_SECONDS);
+            log.info("Primary "+getEntity()+" has launched, will set database initialized (once started) to allow other servers to boot");
+            awaitStartedLogMarker();
             ((EntityInternal)database).setAttribute(OpenGammaServer.DATABASE_INITIALIZED, true);
         }
     }
 
+    /**
+     * Blocks until the primary server has initialised the database and started, up to
+     * {@link OpenGammaServer#DATABASE_INIT_TIMEOUT}. If the server which claimed the initialisation gives up
+     * (releasing its claim), or fails or is removed (so will never release it), this server claims the
+     * initialisation instead, completing it if needed, and becomes the primary.
+     */
+    protected void awaitDatabaseInitialised(final Entity database) {
+        if (Boolean.TRUE.equals(database.getAttribute(OpenGammaServer.DATABASE_INITIALIZED))) {
+            log.debug("OG server "+getEntity()+" is not initial, but database is already up, so continuing");
+            return;
+        }
+        log.info("OG server "+getEntity()+" is not initial, waiting on database to be completely initialised");
+        Duration timeout = entity.getConfig(OpenGammaServer.DATABASE_INIT_TIMEOUT);
+        Tasks.setBlockingDetails("Waiting on OpenGamma database to be initialised");
+        try {
+            boolean initialised = Repeater.create("waiting on OpenGamma database for "+entity)
+                    .every(1, TimeUnit.SECONDS)
+                    .until(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            if (Boolean.TRUE.equals(database.getAttribute(OpenGammaServer.DATABASE_INITIALIZED))) return true;
+                            String initialiser = database.getAttribute(DB_INITIALISER);
+                            if (initialiser != null && isFailed(initialiser) && takeOverDatabaseInitialisation(database, initialiser)) {
+                                log.info("OG server "+getEntity()+" taking over database on "+database+" from failed server "+initialiser);
+                                initialiseDatabase(database);
+                                return true;
+                            }
+                            if (initialiser == null && claimDatabaseInitialisation(database)) {
+                                log.info("OG server "+getEntity()+" taking over initialisation of database on "+database);
+                                initialiseDatabase(database);
+                                return true;
+                            }
+                            return false;
+                        }
+                    })
+                    .limitTimeTo(timeout.toMilliseconds(), TimeUnit.MILLISECONDS)
+                    .rethrowExceptionImmediately()
+                    .run();
+            if (!initialised) {
+                throw new IllegalStateException("Database on "+database+" not initialised within "+timeout+" (by "+database.getAttribute(DB_INITIALISER)+")");
+            }
+        } finally {
+            Tasks.resetBlockingDetails();
+        }
+        log.debug("OG server "+getEntity()+" continuing, as database is now completely initialised");
+    }
+
+    /** Whether the entity with the given id has been removed, or has failed or stopped (so will not complete a claim). */
+    protected boolean isFailed(String entityId) {
+        Entity other = ((EntityInternal)entity).getManagementContext().getEntityManager().getEntity(entityId);
+        if (other == null || !Entities.isManaged(other)) return true;
+        Lifecycle state = other.getAttribute(Attributes.SERVICE_STATE);
+        return state == Lifecycle.ON_FIRE || state == Lifecycle.STOPPING || state == Lifecycle.STOPPED;
+    }
+
+    /**
+     * Claims the database from the given server, which holds the claim but has failed, whether or not the
+     * database was initialised before it failed; this server then becomes the primary.
+     */
+    protected boolean takeOverDatabaseInitialisation(Entity database, String failedInitialiser) {
+        synchronized (DB_INITIALISER_CLAIM_LOCK) {
+            if (!failedInitialiser.equals(database.getAttribute(DB_INITIALISER))) return false;
+            ((EntityLocal)database).setAttribute(DB_INITIALISER, entity.getId());
+            isInitial = true;
+            return true;
+        }
+    }
+
+    /**
+     * Waits for {@link OpenGammaServer#STARTED_LOG_MARKER} to appear in the server's logs, i.e. for the
+     * component repository to have started, up to {@link OpenGammaServer#STARTED_LOG_MARKER_TIMEOUT}.
+     * Logs of earlier runs are moved aside on launch (see {@link #getRotateLogsCommand()}), and not searched.
+     */
+    protected void awaitStartedLogMarker() {
+        String marker = entity.getConfig(OpenGammaServer.STARTED_LOG_MARKER);
+        Duration timeout = entity.getConfig(OpenGammaServer.STARTED_LOG_MARKER_TIMEOUT);
+        if (Strings.isBlank(marker)) return;
+        final List<String> grep = ImmutableList.of("grep -rqsF --exclude-dir=previous \""+marker+"\" "+getLogsDirectory());
+        Tasks.setBlockingDetails("Waiting for OpenGamma to log '"+marker+"'");
+        try {
+            boolean started = Repeater.create("waiting for OpenGamma started marker on "+entity)
+                    .every(1, TimeUnit.SECONDS)
+                    .until(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return getMachine().execCommands(MutableMap.of("logPrefix", ""+entity), "checking started", grep) == 0;
+                        }
+                    })
+                    .limitTimeTo(timeout.toMilliseconds(), TimeUnit.MILLISECONDS)
+                    .run();
+            if (!started) log.warn("{}: '{}' not logged within {}; continuing", new Object[] { entity, marker, timeout });
+        } finally {
+            Tasks.resetBlockingDetails();
+        }
+    }
+
+    /** Command to move the logs of any earlier run into {@code logs/previous}, replacing those of the run before. */
+    protected String getRotateLogsCommand() {
+        String previous = getLogsDirectory() + "/previous";
+        return "mkdir -p "+previous+" && find "+getLogsDirectory()+" -maxdepth 1 -type f -exec mv -f {} "+previous+"/ \\;";
+    }
 
     @Override
     public boolean isRunning() {
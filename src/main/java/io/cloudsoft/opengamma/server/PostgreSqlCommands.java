@@ -0,0 +1,151 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Shell commands run on the {@link brooklyn.entity.database.postgresql.PostgreSqlNode PostgreSQL} host
+ * against the OpenGamma databases, connecting as the OpenGamma user created by {@code create-brooklyn-db.sql}.
+ */
+public class PostgreSqlCommands {
+
+    /** The databases populated for OpenGamma (see {@code brooklyn.properties}). */
+    public static final List<String> DATABASES = ImmutableList.of("example", "opengamma");
+
+    public static final String USER = "opengamma";
+    public static final String PASSWORD = "OpenGamma";
+
+    private PostgreSqlCommands() {}
+
+    /**
+     * Sets the given shell variable to the path of a PostgreSQL client binary, which is not always
+     * on the path (e.g. under {@code /usr/pgsql-9.x/bin} on CentOS), failing if it cannot be found.
+     */
+    public static List<String> findBinary(String variable, String binary) {
+        return ImmutableList.of(
+                variable+"=$(which "+binary+" 2>/dev/null || ls /usr/lib/postgresql/*/bin/"+binary+" /usr/pgsql-*/bin/"+binary+
+                        " /usr/local/pgsql/bin/"+binary+" 2>/dev/null | tail -1)",
+                "test -n \"$"+variable+"\" || { echo \"Cannot find "+binary+"\"; exit 1; }");
+    }
+
+    /** Restores a dump in PostgreSQL's custom (binary) format into the (existing, empty) database, using parallel jobs. */
+    public static List<String> restore(String dumpFile, String database, int port, int jobs) {
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PG_RESTORE", "pg_restore"))
+                .add("PGPASSWORD="+PASSWORD+" $PG_RESTORE -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+database+
+                        " --no-owner --no-acl --exit-on-error -j "+Math.max(1, jobs)+" "+dumpFile)
+                .build();
+    }
+
+    /**
+     * Table in the first of the {@link #DATABASES} recording that the OpenGamma databases were completely initialised;
+     * it is created, with its one row, only once initialisation has succeeded, so a partly-populated schema has none.
+     */
+    public static final String INIT_MARKER_TABLE = "brooklyn_init";
+
+    /** Records that the databases have been completely initialised for the given OpenGamma version (in a single transaction). */
+    public static List<String> markInitialised(int port, String version) {
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PSQL", "psql"))
+                .add("PGPASSWORD="+PASSWORD+" $PSQL -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+DATABASES.get(0)+
+                        " -v ON_ERROR_STOP=1 -1 -c \"create table if not exists "+INIT_MARKER_TABLE+" (version varchar(64), completed timestamp default now());"+
+                        " insert into "+INIT_MARKER_TABLE+" (version) values ('"+version+"')\"")
+                .build();
+    }
+
+    /** Prints the number of {@link #INIT_MARKER_TABLE initialisation markers} (zero if initialisation has not completed). */
+    public static List<String> countInitMarkers(int port) {
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PSQL", "psql"))
+                .add("PGPASSWORD="+PASSWORD+" $PSQL -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+DATABASES.get(0)+
+                        " -tAc \"select count(*) from information_schema.tables where table_schema = 'public'"+
+                        " and table_name = '"+INIT_MARKER_TABLE+"'\"")
+                .build();
+    }
+
+    /** Drops everything the OpenGamma user owns in each of the {@link #DATABASES}, e.g. left by a failed initialisation. */
+    public static List<String> dropOwned(int port) {
+        ImmutableList.Builder<String> result = ImmutableList.<String>builder().addAll(findBinary("PSQL", "psql"));
+        for (String database : DATABASES) {
+            result.add("PGPASSWORD="+PASSWORD+" $PSQL -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+database+
+                    " -v ON_ERROR_STOP=1 -c \"drop owned by "+USER+" cascade\"");
+        }
+        return result.build();
+    }
+
+    /** Prints the number of tables in the database's public schema (zero if it has not been populated). */
+    public static List<String> countTables(String database, int port) {
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PSQL", "psql"))
+                .add("PGPASSWORD="+PASSWORD+" $PSQL -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+database+
+                        " -tAc \"select count(*) from information_schema.tables where table_schema = 'public'\"")
+                .build();
+    }
+
+    /**
+     * Columns of the single line printed by {@link #loadStats(int)}, separated by {@code |}: the OpenGamma user's
+     * active and idle connections, max_connections, total transactions and block cache hits and reads (all
+     * cumulative), lock requests waiting, and the age (seconds) of the oldest running query.
+     */
+    public static final List<String> LOAD_STATS_COLUMNS = ImmutableList.of(
+            "activeConnections", "idleConnections", "maxConnections", "transactions", "blocksHit", "blocksRead", "lockWaits", "longestQuery");
+
+    /**
+     * Prints the server's load, as {@link #LOAD_STATS_COLUMNS}. Connections and queries are those of the OpenGamma user,
+     * as other users' activity is not visible to it (PostgreSQL 9.2 or later, for {@code pg_stat_activity.state}).
+     */
+    public static List<String> loadStats(int port) {
+        String query = "select"+
+                " (select count(*) from pg_stat_activity where state = 'active' and pid <> pg_backend_pid()),"+
+                " (select count(*) from pg_stat_activity where state like 'idle%'),"+
+                " (select setting from pg_settings where name = 'max_connections'),"+
+                " (select sum(xact_commit + xact_rollback) from pg_stat_database),"+
+                " (select sum(blks_hit) from pg_stat_database),"+
+                " (select sum(blks_read) from pg_stat_database),"+
+                " (select count(*) from pg_locks where not granted),"+
+                " (select coalesce(max(extract(epoch from now() - query_start)), 0) from pg_stat_activity"+
+                        " where state = 'active' and pid <> pg_backend_pid())";
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PSQL", "psql"))
+                .add("PGPASSWORD="+PASSWORD+" $PSQL -h 127.0.0.1 -p "+port+" -U "+USER+" -d "+DATABASES.get(0)+
+                        " -tA -F '|' -c \""+query+"\"")
+                .build();
+    }
+
+    /**
+     * Parses the output of {@link #loadStats(int)}: the last line with one value per {@link #LOAD_STATS_COLUMNS column},
+     * so that any header, footer or notice lines are skipped.
+     * @return the numeric values by column name (omitting empty or non-numeric values), or an empty map if there is no such line
+     */
+    public static Map<String, Double> parseLoadStats(String output) {
+        Map<String, Double> result = Maps.newLinkedHashMap();
+        if (output == null) return result;
+        String[] lines = output.split("\r?\n");
+        for (int i = lines.length - 1; i >= 0; i--) {
+            String[] values = lines[i].trim().split("\\|", -1);
+            if (values.length != LOAD_STATS_COLUMNS.size()) continue;
+            for (int column = 0; column < values.length; column++) {
+                try {
+                    result.put(LOAD_STATS_COLUMNS.get(column), Double.parseDouble(values[column].trim()));
+                } catch (NumberFormatException e) {
+                    // empty (e.g. a sum over no rows) or a header
+                }
+            }
+            // a header line has as many columns, but no numbers
+            if (!result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /** Dumps the database in PostgreSQL's custom (binary) format, suitable for {@link #restore(String, String, int, int)}. */
+    public static List<String> dump(String database, int port, String dumpFile) {
+        return ImmutableList.<String>builder()
+                .addAll(findBinary("PG_DUMP", "pg_dump"))
+                .add("PGPASSWORD="+PASSWORD+" $PG_DUMP -h 127.0.0.1 -p "+port+" -U "+USER+" -Fc -f "+dumpFile+" "+database)
+                .build();
+    }
+
+}
@@ -0,0 +1,121 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.TreeMultiset;
+
+/**
+ * Running statistics over one value per member (keyed by member id), updated as each member's value changes
+ * rather than recomputed over all members: the sum and count in constant time, the min and max in log time.
+ * <p>
+ * Not thread-safe; see {@link IncrementalClusterAggregator}.
+ */
+public class RunningStats {
+
+    /** Updates between recomputing the sum from the values, so floating-point error cannot build up. */
+    private static final int UPDATES_PER_RESUM = 1000;
+
+    private final Map<String, Double> values = Maps.newHashMap();
+    private final TreeMultiset<Double> sorted = TreeMultiset.create();
+    private double sum;
+    private int updates;
+
+    /**
+     * Sets the member's value, or clears it if null (e.g. the member has not reported it yet).
+     * @return whether the statistics changed
+     */
+    public boolean put(String member, Double value) {
+        if (value == null || value.isNaN()) return remove(member);
+        Double old = values.put(member, value);
+        if (value.equals(old)) return false;
+        if (old != null) {
+            sum -= old;
+            sorted.remove(old);
+        }
+        sum += value;
+        sorted.add(value);
+        if (++updates >= UPDATES_PER_RESUM) resum();
+        return true;
+    }
+
+    /** @return whether the statistics changed, i.e. the member had a value */
+    public boolean remove(String member) {
+        Double old = values.remove(member);
+        if (old == null) return false;
+        sorted.remove(old);
+        if (values.isEmpty()) {
+            sum = 0;
+        } else {
+            sum -= old;
+        }
+        return true;
+    }
+
+    private void resum() {
+        sum = 0;
+        for (Double value : values.values()) {
+            sum += value;
+        }
+        updates = 0;
+    }
+
+    /** @return the member's value, or null if it has none */
+    public Double get(String member) {
+        return values.get(member);
+    }
+
+    /** @return the number of members with a value */
+    public int count() {
+        return values.size();
+    }
+
+    /** @return the sum of the members' values (0 if there are none) */
+    public double sum() {
+        return sum;
+    }
+
+    /** @return the mean of the members' values, or null if there are none */
+    public Double mean() {
+        return values.isEmpty() ? null : sum / values.size();
+    }
+
+    /** @return the smallest value, or null if there are none */
+    public Double min() {
+        return sorted.isEmpty() ? null : sorted.firstEntry().getElement();
+    }
+
+    /** @return the largest value, or null if there are none */
+    public Double max() {
+        return sorted.isEmpty() ? null : sorted.lastEntry().getElement();
+    }
+
+    /** @return the nearest-rank percentile (e.g. 0.95) of the values, or null if there are none; linear in the number of distinct values */
+    public Double percentile(double fraction) {
+        if (sorted.isEmpty()) return null;
+        int rank = Math.max((int) Math.ceil(fraction * sorted.size()), 1);
+        int seen = 0;
+        for (Multiset.Entry<Double> entry : sorted.entrySet()) {
+            seen += entry.getCount();
+            if (seen >= rank) return entry.getElement();
+        }
+        return max();
+    }
+
+    /** @return a member with the largest value, or null if there are none; linear in the number of members */
+    public String maxMember() {
+        Double max = max();
+        if (max == null) return null;
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            if (entry.getValue().equals(max)) return entry.getKey();
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"[count="+count()+", sum="+sum+", min="+min()+", max="+max()+"]";
+    }
+
+}
@@ -1,5 +1,9 @@
 package io.cloudsoft.opengamma.server;
 
+import io.cloudsoft.opengamma.ehcache.CacheStatisticsEnabler;
+import io.cloudsoft.opengamma.jetty.LatencyHistogram;
+import io.cloudsoft.opengamma.jetty.LatencyHistogramHandler;
+
 import java.util.List;
 import java.util.Map;
 
@@ -36,11 +40,22 @@ public interface SimulatedExamplesServer extends OpenGammaServer {
                     "classpath:/io/cloudsoft/opengamma/config/brooklyn/toolcontext-example.properties",
                     "config/brooklyn/toolcontext-example.properties"));
 
+    @SetFromFlag("sharedConfigTemplates")
+    ConfigKey<List<String>> SHARED_CONFIG_TEMPLATES = ConfigKeys.newConfigKeyWithDefault(
+            OpenGammaServer.SHARED_CONFIG_TEMPLATES,
+            ImmutableList.of("classpath:/io/cloudsoft/opengamma/config/brooklyn/toolcontext-example.properties"));
+
     @SetFromFlag("extraScripts")
     ConfigKey<List<String>> EXTRA_SCRIPTS = ConfigKeys.newConfigKeyWithDefault(
             OpenGammaServer.EXTRA_SCRIPTS,
             ImmutableList.of("classpath:/io/cloudsoft/opengamma/scripts/init-brooklyn-db.sh"));
 
+    @SetFromFlag("agentClasses")
+    ConfigKey<List<String>> AGENT_CLASSES = ConfigKeys.newConfigKeyWithDefault(
+            OpenGammaServer.AGENT_CLASSES,
+            ImmutableList.of(LatencyHistogram.class.getName(), LatencyHistogramHandler.class.getName(),
+                    CacheStatisticsEnabler.class.getName()));
+
     @SetFromFlag("startScript")
     ConfigKey<String> SERVER_START_SCRIPT = ConfigKeys.newConfigKeyWithDefault(
             OpenGammaServer.SERVER_START_SCRIPT,
@@ -0,0 +1,111 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+/**
+ * Roll-ups of per-view cycle statistics, as published by {@link ViewProcessCollector} in
+ * {@link OpenGammaServer#VIEW_CYCLE_STATS}: a map from each view's statistics MBean name to that view's statistics
+ * (keyed by the constants here). Used both for a server's own views and, over the members' maps, for a cluster's.
+ */
+public class ViewCycleStats {
+
+    public static final String CYCLE_DURATION = "cycleDurationMs";
+    public static final String CYCLES_PER_SECOND = "cyclesPerSecond";
+    public static final String GRAPH_BUILD_TIME = "graphBuildTimeMs";
+    public static final String LAST_CYCLE_AGE = "lastCycleAgeSeconds";
+
+    /** The values of the given statistic across all views (skipping views without it). */
+    public static List<Double> values(Collection<? extends Map<String, ? extends Map<String, Double>>> statsMaps, String stat) {
+        List<Double> result = Lists.newArrayList();
+        for (Map<String, ? extends Map<String, Double>> stats : statsMaps) {
+            if (stats == null) continue;
+            for (Map<String, Double> view : stats.values()) {
+                Double value = view.get(stat);
+                if (value != null) result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /** @return the largest value, or null if there are none */
+    public static Double max(Collection<Double> values) {
+        return values.isEmpty() ? null : Collections.max(values);
+    }
+
+    /** @return the sum, or null if there are no values */
+    public static Double sum(Collection<Double> values) {
+        if (values.isEmpty()) return null;
+        double result = 0;
+        for (Double value : values) result += value;
+        return result;
+    }
+
+    /** @return the nearest-rank percentile (e.g. 0.95), or null if there are no values */
+    public static Double percentile(Collection<Double> values, double fraction) {
+        if (values.isEmpty()) return null;
+        List<Double> sorted = Lists.newArrayList(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(fraction * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    /** @return the name of the view with the longest cycle duration, or null if there is none */
+    public static String slowest(Collection<? extends Map<String, ? extends Map<String, Double>>> statsMaps) {
+        String result = null;
+        double longest = -1;
+        for (Map<String, ? extends Map<String, Double>> stats : statsMaps) {
+            if (stats == null) continue;
+            for (Map.Entry<String, ? extends Map<String, Double>> view : stats.entrySet()) {
+                Double duration = view.getValue().get(CYCLE_DURATION);
+                if (duration != null && duration > longest) {
+                    longest = duration;
+                    result = view.getKey();
+                }
+            }
+        }
+        return result;
+    }
+
+    public static Function<Collection<Map<String, Map<String, Double>>>, Double> maxOf(final String stat) {
+        return new Function<Collection<Map<String, Map<String, Double>>>, Double>() {
+            @Override
+            public Double apply(Collection<Map<String, Map<String, Double>>> input) {
+                return max(values(input, stat));
+            }
+        };
+    }
+
+    public static Function<Collection<Map<String, Map<String, Double>>>, Double> sumOf(final String stat) {
+        return new Function<Collection<Map<String, Map<String, Double>>>, Double>() {
+            @Override
+            public Double apply(Collection<Map<String, Map<String, Double>>> input) {
+                return sum(values(input, stat));
+            }
+        };
+    }
+
+    public static Function<Collection<Map<String, Map<String, Double>>>, Double> percentileOf(final String stat, final double fraction) {
+        return new Function<Collection<Map<String, Map<String, Double>>>, Double>() {
+            @Override
+            public Double apply(Collection<Map<String, Map<String, Double>>> input) {
+                return percentile(values(input, stat), fraction);
+            }
+        };
+    }
+
+    public static Function<Collection<Map<String, Map<String, Double>>>, String> slowestView() {
+        return new Function<Collection<Map<String, Map<String, Double>>>, String>() {
+            @Override
+            public String apply(Collection<Map<String, Map<String, Double>>> input) {
+                return slowest(input);
+            }
+        };
+    }
+
+}
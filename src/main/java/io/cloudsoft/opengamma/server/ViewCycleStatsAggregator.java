@@ -0,0 +1,147 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Map;
+import java.util.Set;
+
+import brooklyn.enricher.basic.AbstractEnricher;
+import brooklyn.entity.Entity;
+import brooklyn.entity.Group;
+import brooklyn.entity.basic.AbstractGroup;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.SensorEvent;
+import brooklyn.event.SensorEventListener;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Rolls up the members' {@link OpenGammaServer#VIEW_CYCLE_STATS per-view cycle statistics} onto the group: the longest
+ * and 95th percentile cycle duration, the total cycles per second, the longest graph build time and last cycle age,
+ * and the slowest view, each over all the members' views (so the percentile is over all views, not an average of
+ * the servers' percentiles).
+ * <p>
+ * As {@link IncrementalClusterAggregator}, one enricher with one subscription keeps {@link RunningStats} over every
+ * view of every member, which each member event updates for that member's views only, rather than rescanning every
+ * member's map for each roll-up.
+ */
+public class ViewCycleStatsAggregator extends AbstractEnricher {
+
+    /** ids */
+    private final Set<String> members = Sets.newHashSet();
+    /** keys (member id and view) of each member's views */
+    private final Map<String, Set<String>> viewsByMember = Maps.newHashMap();
+    private final RunningStats durations = new RunningStats();
+    private final RunningStats rates = new RunningStats();
+    private final RunningStats buildTimes = new RunningStats();
+    private final RunningStats ages = new RunningStats();
+    /** key of the view with the longest cycle, as last found */
+    private String slowest;
+    /** by sensor name */
+    private final Map<String, Object> published = Maps.newHashMap();
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        Preconditions.checkArgument(entity instanceof Group, "aggregator must be added to a group, not %s", entity);
+        super.setEntity(entity);
+        Group group = (Group) entity;
+
+        subscribe(group, AbstractGroup.MEMBER_ADDED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberAdded(event.getValue());
+            }
+        });
+        subscribe(group, AbstractGroup.MEMBER_REMOVED, new SensorEventListener<Entity>() {
+            @Override
+            public void onEvent(SensorEvent<Entity> event) {
+                onMemberRemoved(event.getValue());
+            }
+        });
+        subscribeToMembers(group, OpenGammaServer.VIEW_CYCLE_STATS, new SensorEventListener<Map<String, Map<String, Double>>>() {
+            @Override
+            public void onEvent(SensorEvent<Map<String, Map<String, Double>>> event) {
+                onValue(event.getSource(), event.getValue());
+            }
+        });
+
+        for (Entity member : group.getMembers()) {
+            onMemberAdded(member);
+        }
+    }
+
+    protected synchronized void onMemberAdded(Entity member) {
+        if (!members.add(member.getId())) return;
+        update(member.getId(), member.getAttribute(OpenGammaServer.VIEW_CYCLE_STATS));
+        publish();
+    }
+
+    protected synchronized void onMemberRemoved(Entity member) {
+        if (!members.remove(member.getId())) return;
+        if (update(member.getId(), null)) publish();
+    }
+
+    protected synchronized void onValue(Entity member, Map<String, Map<String, Double>> stats) {
+        // events can arrive from a member just removed
+        if (!members.contains(member.getId())) return;
+        if (update(member.getId(), stats)) publish();
+    }
+
+    /** Replaces the member's views' statistics. @return whether any changed */
+    private boolean update(String member, Map<String, Map<String, Double>> stats) {
+        Set<String> previous = viewsByMember.remove(member);
+        Set<String> current = Sets.newHashSet();
+        boolean changed = false;
+        if (stats != null) {
+            for (Map.Entry<String, Map<String, Double>> view : stats.entrySet()) {
+                String key = member + "/" + view.getKey();
+                current.add(key);
+                changed |= put(key, view.getValue());
+            }
+        }
+        for (String key : (previous != null ? previous : ImmutableSet.<String>of())) {
+            if (!current.contains(key)) changed |= put(key, null);
+        }
+        if (!current.isEmpty()) viewsByMember.put(member, current);
+        return changed;
+    }
+
+    private boolean put(String key, Map<String, Double> view) {
+        boolean changed = durations.put(key, (view != null) ? view.get(ViewCycleStats.CYCLE_DURATION) : null);
+        changed |= rates.put(key, (view != null) ? view.get(ViewCycleStats.CYCLES_PER_SECOND) : null);
+        changed |= buildTimes.put(key, (view != null) ? view.get(ViewCycleStats.GRAPH_BUILD_TIME) : null);
+        changed |= ages.put(key, (view != null) ? view.get(ViewCycleStats.LAST_CYCLE_AGE) : null);
+        return changed;
+    }
+
+    private void publish() {
+        publish(OpenGammaServer.VIEW_CYCLE_DURATION_MAX, durations.max());
+        publish(OpenGammaServer.VIEW_CYCLE_DURATION_P95, durations.percentile(0.95));
+        publish(OpenGammaServer.VIEW_CYCLES_PER_SECOND, (rates.count() > 0) ? rates.sum() : null);
+        publish(OpenGammaServer.VIEW_GRAPH_BUILD_TIME_MAX, buildTimes.max());
+        publish(OpenGammaServer.VIEW_LAST_CYCLE_AGE_MAX, ages.max());
+        publish(OpenGammaServer.VIEW_SLOWEST, viewOf(slowestKey()));
+    }
+
+    /** The key of the view with the longest cycle, rescanning only if the previous slowest is no longer the longest. */
+    private String slowestKey() {
+        Double max = durations.max();
+        if (max == null) return null;
+        if (slowest == null || !max.equals(durations.get(slowest))) slowest = durations.maxMember();
+        return slowest;
+    }
+
+    private static String viewOf(String key) {
+        return (key != null) ? key.substring(key.indexOf('/') + 1) : null;
+    }
+
+    private <T> void publish(AttributeSensor<T> sensor, T value) {
+        if (published.containsKey(sensor.getName()) && Objects.equal(published.get(sensor.getName()), value)) return;
+        published.put(sensor.getName(), value);
+        entity.setAttribute(sensor, value);
+    }
+
+}
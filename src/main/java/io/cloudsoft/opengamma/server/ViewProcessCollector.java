@@ -0,0 +1,152 @@
+package io.cloudsoft.opengamma.server;
+
+import io.cloudsoft.opengamma.jmx.JmxCollector;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.event.feed.jmx.JmxHelper;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Discovers the server's per-view-process statistics MBeans on each poll, and publishes each view's
+ * cycle duration, cycles per second, dependency graph build time and time since its last cycle in
+ * {@link OpenGammaServer#VIEW_CYCLE_STATS}, along with the server's worst case and percentile across its views.
+ * <p>
+ * Views are keyed by their MBean's full (canonical) name: a view process can register several MBeans (e.g. one
+ * per calculation configuration), and their key properties hold ids rather than names, so no one property
+ * identifies a view uniquely.
+ * <p>
+ * Which MBeans and attributes are read is configurable ({@link OpenGammaServer#VIEW_STATS_MBEAN_PATTERN},
+ * {@link OpenGammaServer#VIEW_STATS_ATTRIBUTES}); durations are taken to be in milliseconds. The cycle rate
+ * and the time since the last cycle are derived from the cycle count between polls.
+ */
+public class ViewProcessCollector implements JmxCollector {
+
+    /** Key in {@link OpenGammaServer#VIEW_STATS_ATTRIBUTES} of the (cumulative) cycle count attribute. */
+    public static final String CYCLE_COUNT = "cycleCount";
+
+    private static class ViewState {
+        Double lastCount;
+        long lastCountTime;
+        long lastCycleTime;
+    }
+
+    private final EntityLocal entity;
+    private final CoalescingSensorPublisher.Sink sensors;
+    private final ObjectName pattern;
+    private final Map<String, String> attributes;
+    private final String[] attributeNames;
+    private final Map<ObjectName, ViewState> views = Maps.newHashMap();
+    private Map<String, Object> lastSignature = Maps.newHashMap();
+    private volatile int roundTrips = 1;
+
+    public ViewProcessCollector(EntityLocal entity, CoalescingSensorPublisher.Sink sensors, String pattern, Map<String, String> attributes) {
+        this.entity = entity;
+        this.sensors = sensors;
+        this.pattern = JmxHelper.createObjectName(pattern);
+        this.attributes = Maps.newLinkedHashMap(attributes);
+        List<String> names = Lists.newArrayList();
+        for (String name : attributes.values()) {
+            if (!names.contains(name)) names.add(name);
+        }
+        this.attributeNames = names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    @Override
+    public synchronized boolean collect(MBeanServerConnection connection) throws Exception {
+        Set<ObjectName> names = connection.queryNames(pattern, null);
+        roundTrips = 1 + names.size();
+        views.keySet().retainAll(names);
+
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Double>> stats = Maps.newTreeMap();
+        Map<String, Object> signature = Maps.newHashMap();
+        for (ObjectName name : names) {
+            Map<String, Object> values = Maps.newHashMap();
+            try {
+                for (Attribute attribute : connection.getAttributes(name, attributeNames).asList()) {
+                    values.put(attribute.getName(), attribute.getValue());
+                }
+            } catch (InstanceNotFoundException e) {
+                // the view process ended since the query
+                continue;
+            }
+            Map<String, Double> view = Maps.newLinkedHashMap();
+            putIfPresent(view, ViewCycleStats.CYCLE_DURATION, values.get(attributes.get(ViewCycleStats.CYCLE_DURATION)));
+            putIfPresent(view, ViewCycleStats.GRAPH_BUILD_TIME, values.get(attributes.get(ViewCycleStats.GRAPH_BUILD_TIME)));
+
+            Double count = toDouble(values.get(attributes.get(CYCLE_COUNT)));
+            if (count != null) {
+                ViewState state = views.get(name);
+                if (state == null) {
+                    state = new ViewState();
+                    state.lastCycleTime = now;
+                    views.put(name, state);
+                }
+                if (state.lastCount != null && now > state.lastCountTime) {
+                    double cycles = Math.max(count - state.lastCount, 0);
+                    if (cycles > 0) state.lastCycleTime = now;
+                    view.put(ViewCycleStats.CYCLES_PER_SECOND, cycles * 1000d / (now - state.lastCountTime));
+                }
+                state.lastCount = count;
+                state.lastCountTime = now;
+                view.put(ViewCycleStats.LAST_CYCLE_AGE, (now - state.lastCycleTime) / 1000d);
+            }
+            // MBeans matching the pattern which have none of the attributes are not views' statistics
+            if (view.isEmpty()) continue;
+            String key = viewKey(name);
+            stats.put(key, view);
+            signature.put(key, ImmutableList.of(String.valueOf(count), String.valueOf(view.get(ViewCycleStats.CYCLE_DURATION))));
+        }
+
+        List<Map<String, Map<String, Double>>> own = ImmutableList.of(stats);
+        sensors.publish(OpenGammaServer.VIEW_CYCLE_STATS, stats);
+        sensors.publish(OpenGammaServer.VIEW_CYCLE_DURATION_MAX, ViewCycleStats.max(ViewCycleStats.values(own, ViewCycleStats.CYCLE_DURATION)));
+        sensors.publish(OpenGammaServer.VIEW_CYCLE_DURATION_P95, ViewCycleStats.percentile(ViewCycleStats.values(own, ViewCycleStats.CYCLE_DURATION), 0.95));
+        sensors.publish(OpenGammaServer.VIEW_CYCLES_PER_SECOND, ViewCycleStats.sum(ViewCycleStats.values(own, ViewCycleStats.CYCLES_PER_SECOND)));
+        sensors.publish(OpenGammaServer.VIEW_GRAPH_BUILD_TIME_MAX, ViewCycleStats.max(ViewCycleStats.values(own, ViewCycleStats.GRAPH_BUILD_TIME)));
+        sensors.publish(OpenGammaServer.VIEW_LAST_CYCLE_AGE_MAX, ViewCycleStats.max(ViewCycleStats.values(own, ViewCycleStats.LAST_CYCLE_AGE)));
+        sensors.publish(OpenGammaServer.VIEW_SLOWEST, ViewCycleStats.slowest(own));
+
+        boolean changed = !Objects.equal(signature, lastSignature);
+        lastSignature = signature;
+        return changed;
+    }
+
+    /** The key of the view's statistics, unique per MBean: its canonical name. */
+    protected String viewKey(ObjectName name) {
+        return name.getCanonicalName();
+    }
+
+    private static void putIfPresent(Map<String, Double> view, String stat, Object value) {
+        Double d = toDouble(value);
+        if (d != null) view.put(stat, d);
+    }
+
+    private static Double toDouble(Object value) {
+        return (value instanceof Number) ? ((Number) value).doubleValue() : null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName()+"["+entity+", "+pattern+"]";
+    }
+
+}
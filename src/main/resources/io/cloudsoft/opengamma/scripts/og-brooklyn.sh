@@ -58,8 +58,14 @@ load_default_config
 # Component specific default configs
 CONFIG=classpath:brooklyn/brooklyn.properties
 LOGBACK_CONFIG=jetty-logback.xml
-# No need to use 4g in the examples
-MEM_OPTS="-Xms512m -Xmx1024m -XX:MaxPermSize=256m"
+# Brooklyn sizes the heap and chooses the GC for the machine if configured to (OG_MEM_OPTS, OG_GC_OPTS);
+# otherwise, no need to use 4g in the examples
+MEM_OPTS="${OG_MEM_OPTS:--Xms512m -Xmx1024m -XX:MaxPermSize=256m}"
+if [ -n "${OG_GC_OPTS}" ]; then
+  # replace (rather than add to) any default collector, as conflicting collectors stop the JVM starting
+  GC_OPTS=""
+  EXTRA_JVM_OPTS="${EXTRA_JVM_OPTS} ${OG_GC_OPTS}"
+fi
 
 # User customizations
 load_component_config ${PROJECT} ${COMPONENT}
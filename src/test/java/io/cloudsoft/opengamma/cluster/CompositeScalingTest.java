@@ -0,0 +1,51 @@
+package io.cloudsoft.opengamma.cluster;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class CompositeScalingTest {
+
+    private static final Map<String, Double> TARGETS = ImmutableMap.of(
+            CompositeScaling.VIEWS, 2.0, CompositeScaling.CPU, 0.8, CompositeScaling.LATENCY, 1000.0);
+
+    @Test
+    public void testMaxScalesOnAnyMetric() {
+        CompositeScaling scaling = new CompositeScaling(CompositeScaling.Combination.MAX, TARGETS, ImmutableMap.<String, Double>of());
+        // one light view, but CPU over target
+        Map<String, Double> values = ImmutableMap.of(CompositeScaling.VIEWS, 1.0, CompositeScaling.CPU, 1.0, CompositeScaling.LATENCY, 500.0);
+        assertEquals(scaling.score(values), 1.25, 0.0001);
+        assertEquals(scaling.driver(values), CompositeScaling.CPU);
+    }
+
+    @Test
+    public void testWeightedMean() {
+        CompositeScaling scaling = new CompositeScaling(CompositeScaling.Combination.WEIGHTED_MEAN, TARGETS,
+                ImmutableMap.of(CompositeScaling.VIEWS, 1.0, CompositeScaling.CPU, 3.0));
+        Map<String, Double> values = ImmutableMap.of(CompositeScaling.VIEWS, 1.0, CompositeScaling.CPU, 1.0, CompositeScaling.LATENCY, 500.0);
+        // (0.5*1 + 1.25*3 + 0.5*1) / 5
+        assertEquals(scaling.score(values), 0.95, 0.0001);
+    }
+
+    @Test
+    public void testLeavesOutZeroWeightsAndMissingValues() {
+        CompositeScaling scaling = new CompositeScaling(CompositeScaling.Combination.MAX, TARGETS,
+                ImmutableMap.of(CompositeScaling.CPU, 0.0));
+        // no target for processing time, so it is left out too
+        assertEquals(scaling.getSensors().keySet(), ImmutableMap.of(CompositeScaling.VIEWS, 0, CompositeScaling.LATENCY, 0).keySet());
+        Map<String, Double> values = Maps.newHashMap();
+        values.put(CompositeScaling.CPU, 5.0);
+        values.put(CompositeScaling.VIEWS, null);
+        assertNull(scaling.score(values));
+        assertNull(scaling.driver(values));
+        values.put(CompositeScaling.LATENCY, 1500.0);
+        assertEquals(scaling.score(values), 1.5, 0.0001);
+    }
+
+}
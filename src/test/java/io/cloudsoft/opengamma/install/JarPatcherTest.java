@@ -0,0 +1,105 @@
+package io.cloudsoft.opengamma.install;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+public class JarPatcherTest {
+
+    private File tempDir;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDir();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (tempDir != null) {
+            for (File f : tempDir.listFiles()) f.delete();
+            tempDir.delete();
+        }
+    }
+
+    @Test
+    public void testPatchReplacesClassesAndKeepsBaseManifest() throws Exception {
+        File base = writeJar("base.jar", ImmutableMap.of(
+                "META-INF/MANIFEST.MF", "base manifest",
+                "com/opengamma/A.class", "original A",
+                "com/opengamma/B.class", "original B"));
+        File patch = writeJar("patch.jar", ImmutableMap.of(
+                "META-INF/MANIFEST.MF", "patch manifest",
+                "com/opengamma/B.class", "patched B",
+                "com/opengamma/B$1.class", "patched B$1"));
+        File target = new File(tempDir, "patched.jar");
+
+        JarPatcher.patch(base, ImmutableList.of(patch), target);
+
+        Map<String, String> entries = readJar(target);
+        assertEquals(entries.get("META-INF/MANIFEST.MF"), "base manifest");
+        assertEquals(entries.get("com/opengamma/A.class"), "original A");
+        assertEquals(entries.get("com/opengamma/B.class"), "patched B");
+        assertEquals(entries.get("com/opengamma/B$1.class"), "patched B$1");
+        assertEquals(entries.size(), 4);
+    }
+
+    @Test
+    public void testLaterPatchesTakePrecedence() throws Exception {
+        File base = writeJar("base.jar", ImmutableMap.of("A.class", "original"));
+        File patch1 = writeJar("patch1.jar", ImmutableMap.of("A.class", "first"));
+        File patch2 = writeJar("patch2.jar", ImmutableMap.of("A.class", "second"));
+        File target = new File(tempDir, "patched.jar");
+
+        JarPatcher.patch(base, ImmutableList.of(patch1, patch2), target);
+
+        assertEquals(readJar(target).get("A.class"), "second");
+        assertFalse(readJar(base).get("A.class").equals("second"));
+    }
+
+    private File writeJar(String name, Map<String, String> entries) throws Exception {
+        File result = new File(tempDir, name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(result));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(Charsets.UTF_8));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return result;
+    }
+
+    private Map<String, String> readJar(File jar) throws Exception {
+        Map<String, String> result = Maps.newLinkedHashMap();
+        ZipInputStream in = new ZipInputStream(new FileInputStream(jar));
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                result.put(entry.getName(), new String(ByteStreams.toByteArray(in), Charsets.UTF_8));
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+}
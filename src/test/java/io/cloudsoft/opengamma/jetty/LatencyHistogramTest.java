@@ -0,0 +1,47 @@
+package io.cloudsoft.opengamma.jetty;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverValuesWithinOneSixteenth() {
+        for (long micros : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 12345, 999999, 1L << 40 }) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(upper >= micros, micros+" above its bucket's bound "+upper);
+            assertTrue(upper - micros <= micros / 16, micros+" too far below its bucket's bound "+upper);
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    }
+
+    @Test
+    public void testPercentilesReflectTail() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) histogram.record(2000);
+        for (int i = 0; i < 10; i++) histogram.record(500000);
+        assertEquals(histogram.getLatencyCount(), 1000);
+        assertEquals(histogram.getLatencyP50(), 2.047, 0.001);
+        assertEquals(histogram.getLatencyP99(), 2.047, 0.001);
+        assertEquals(histogram.getLatencyP999(), 507.903, 0.001);
+    }
+
+    @Test
+    public void testSketchListsNonEmptyBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getLatencySketch(), "");
+        histogram.record(2000);
+        histogram.record(2000);
+        histogram.record(5);
+        assertEquals(histogram.getLatencySketch(), "5:1,"+LatencyHistogram.bucketOf(2000)+":2");
+    }
+
+    @Test
+    public void testEmptyHistogramReportsZero() {
+        assertEquals(new LatencyHistogram().getLatencyP95(), 0d);
+    }
+
+}
@@ -0,0 +1,33 @@
+package io.cloudsoft.opengamma.jmx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import org.testng.annotations.Test;
+
+public class AdaptiveIntervalTest {
+
+    @Test
+    public void testStretchesWhileStableAndResetsOnChange() {
+        AdaptiveInterval interval = new AdaptiveInterval(1000, 4000, 2);
+        interval.onPoll(false);
+        assertEquals(interval.getMillis(), 2000);
+        interval.onPoll(false);
+        interval.onPoll(false);
+        assertEquals(interval.getMillis(), 4000);
+        interval.onPoll(true);
+        assertEquals(interval.getMillis(), 1000);
+        interval.onPoll(false);
+        interval.urgent();
+        assertEquals(interval.getMillis(), 1000);
+    }
+
+    @Test
+    public void testFixedWhenMaxIsMin() {
+        AdaptiveInterval interval = new AdaptiveInterval(1000, 1000, 2);
+        assertFalse(interval.isAdaptive());
+        interval.onPoll(false);
+        assertEquals(interval.getMillis(), 1000);
+    }
+
+}
@@ -0,0 +1,43 @@
+package io.cloudsoft.opengamma.jmx;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+
+public class PollBudgetTest {
+
+    static class FakeTicker extends Ticker {
+        long nanos = 0;
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @Test
+    public void testRoutinePollsDeferredOnceSecondsBudgetUsed() {
+        FakeTicker ticker = new FakeTicker();
+        PollBudget budget = new PollBudget(ticker);
+        assertTrue(budget.tryAcquire(3, false, 5));
+        assertFalse(budget.tryAcquire(3, false, 5));
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(budget.tryAcquire(3, false, 5));
+        assertEquals(budget.getDeferredCount(), 1);
+    }
+
+    @Test
+    public void testUrgentAndUnlimitedPollsAlwaysGranted() {
+        PollBudget budget = new PollBudget(new FakeTicker());
+        assertTrue(budget.tryAcquire(3, false, 3));
+        assertTrue(budget.tryAcquire(3, true, 3));
+        assertTrue(budget.tryAcquire(3, false, null));
+        assertFalse(budget.tryAcquire(1, false, 3));
+    }
+
+}
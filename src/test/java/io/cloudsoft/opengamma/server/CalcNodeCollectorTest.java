@@ -0,0 +1,163 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import io.cloudsoft.opengamma.cluster.OpenGammaScalingMetric;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.BasicGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.proxying.EntitySpec;
+import brooklyn.test.EntityTestUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+import brooklyn.util.time.Duration;
+
+public class CalcNodeCollectorTest {
+
+    private static final String NODES_MBEAN = "com.opengamma:type=CalculationNodes,name=local";
+
+    public interface NodesMBean {
+        int getTotalNodeCount();
+        int getAvailableNodeCount();
+        int getPendingJobCount();
+    }
+
+    public static class Nodes implements NodesMBean {
+        volatile int total, available, pending;
+
+        @Override
+        public int getTotalNodeCount() {
+            return total;
+        }
+
+        @Override
+        public int getAvailableNodeCount() {
+            return available;
+        }
+
+        @Override
+        public int getPendingJobCount() {
+            return pending;
+        }
+    }
+
+    public interface NodeStatsMBean {
+        long getSuccessfulJobs();
+        long getExecutionTime();
+        long getNonExecutionTime();
+    }
+
+    public static class NodeStats implements NodeStatsMBean {
+        volatile long jobs, executionTime, nonExecutionTime;
+
+        @Override
+        public long getSuccessfulJobs() {
+            return jobs;
+        }
+
+        @Override
+        public long getExecutionTime() {
+            return executionTime;
+        }
+
+        @Override
+        public long getNonExecutionTime() {
+            return nonExecutionTime;
+        }
+    }
+
+    private TestApplication app;
+    private MBeanServer server;
+    private CalcNodeCollector collector;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        server = MBeanServerFactory.newMBeanServer();
+        collector = new CalcNodeCollector(app, CoalescingSensorPublisher.directTo(app), NODES_MBEAN,
+                OpenGammaServer.CALC_NODE_STATS_MBEAN_PATTERN.getDefaultValue(),
+                OpenGammaServer.CALC_NODE_STATS_ATTRIBUTES.getDefaultValue());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    @Test
+    public void testNothingPublishedBeforeMBeansRegistered() throws Exception {
+        assertTrue(collector.collect(server));
+        assertNull(app.getAttribute(OpenGammaServer.CALC_JOB_QUEUE_DEPTH));
+        assertNull(app.getAttribute(OpenGammaServer.CALC_NODE_UTILISATION));
+        assertFalse(collector.collect(server));
+    }
+
+    @Test
+    public void testParsesNodesAndDerivesPerJobTimes() throws Exception {
+        Nodes nodes = new Nodes();
+        nodes.total = 4;
+        nodes.available = 1;
+        nodes.pending = 6;
+        server.registerMBean(new StandardMBean(nodes, NodesMBean.class), new ObjectName(NODES_MBEAN));
+        NodeStats first = new NodeStats();
+        first.jobs = 10;
+        first.executionTime = 1000000000L;
+        server.registerMBean(new StandardMBean(first, NodeStatsMBean.class), new ObjectName("com.opengamma:type=CalculationNodeStatistics,name=node-1"));
+        NodeStats second = new NodeStats();
+        server.registerMBean(new StandardMBean(second, NodeStatsMBean.class), new ObjectName("com.opengamma:type=CalculationNodeStatistics,name=node-2"));
+
+        assertTrue(collector.collect(server));
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_JOB_QUEUE_DEPTH), (Integer) 6);
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_NODES_IDLE), (Integer) 1);
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_NODES_BUSY), (Integer) 3);
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_NODE_UTILISATION), 0.75);
+        // no previous poll to take the jobs since
+        assertNull(app.getAttribute(OpenGammaServer.CALC_JOB_EXECUTION_TIME));
+        assertEquals(collector.getRoundTrips(), 4);
+
+        // 20 more jobs across the nodes, executing for 2s and waiting for 0.5s in all
+        first.jobs = 25;
+        first.executionTime = 2500000000L;
+        first.nonExecutionTime = 200000000L;
+        second.jobs = 5;
+        second.executionTime = 500000000L;
+        second.nonExecutionTime = 300000000L;
+        assertTrue(collector.collect(server));
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_JOB_EXECUTION_TIME), 100d, 1e-9);
+        assertEquals(app.getAttribute(OpenGammaServer.CALC_JOB_WAIT_TIME), 25d, 1e-9);
+        assertFalse(collector.collect(server));
+    }
+
+    @Test
+    public void testQueuePerServerIsMeanOfMembersQueues() throws Exception {
+        BasicGroup cluster = app.createAndManageChild(EntitySpec.create(BasicGroup.class)
+                .configure(OpenGammaServer.SENSOR_PUBLISH_WINDOW, Duration.ZERO));
+        TestEntity busy = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        TestEntity quiet = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        ((EntityLocal) busy).setAttribute(OpenGammaServer.CALC_JOB_QUEUE_DEPTH, 6);
+        ((EntityLocal) quiet).setAttribute(OpenGammaServer.CALC_JOB_QUEUE_DEPTH, 2);
+        cluster.addEnricher(new IncrementalClusterAggregator()
+                .averaging(OpenGammaMonitoringAggregation.CALC_JOB_QUEUE_DEPTH, OpenGammaMonitoringAggregation.CALC_JOB_QUEUE_DEPTH_PER_NODE));
+        cluster.addMember(busy);
+        cluster.addMember(quiet);
+
+        assertEquals(OpenGammaScalingMetric.CALC_QUEUE_PER_SERVER.getSensor(), OpenGammaMonitoringAggregation.CALC_JOB_QUEUE_DEPTH_PER_NODE);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaScalingMetric.CALC_QUEUE_PER_SERVER.getSensor(), 4d);
+        ((EntityLocal) quiet).setAttribute(OpenGammaServer.CALC_JOB_QUEUE_DEPTH, 0);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaScalingMetric.CALC_QUEUE_PER_SERVER.getSensor(), 3d);
+    }
+
+}
@@ -0,0 +1,76 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class CoalescingSensorPublisherTest {
+
+    private static final AttributeSensor<Double> LOAD = new BasicAttributeSensor<Double>(Double.class, "test.load");
+    private static final AttributeSensor<Double> OTHER = new BasicAttributeSensor<Double>(Double.class, "test.other");
+
+    private List<Object> published;
+    private CoalescingSensorPublisher.Sink sink;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        published = Lists.newArrayList();
+        sink = new CoalescingSensorPublisher.Sink() {
+            @Override
+            public <T> void publish(AttributeSensor<T> sensor, T value) {
+                published.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void testDropsUnchangedAndCoalescesWithinWindow() {
+        CoalescingSensorPublisher publisher = new CoalescingSensorPublisher(sink, 5000, 10, 0);
+        publisher.publish(LOAD, 1.0, 0);
+        publisher.publish(LOAD, 1.0, 1000);
+        publisher.publish(LOAD, 1.1, 2000);
+        publisher.publish(LOAD, 1.2, 3000);
+        assertEquals(published, ImmutableList.<Object>of(1.0));
+        publisher.flush(5000);
+        assertEquals(published, ImmutableList.<Object>of(1.0, 1.2));
+        assertEquals(publisher.getSuppressedCount(), 2);
+    }
+
+    @Test
+    public void testThresholdCrossingAndLargeChangePublishedAtOnce() {
+        CoalescingSensorPublisher publisher = new CoalescingSensorPublisher(sink, 5000, 10, 0.5);
+        publisher.addThresholds(LOAD, 1.5);
+        publisher.publish(LOAD, 1.0, 0);
+        publisher.publish(LOAD, 1.6, 1000);
+        publisher.publish(LOAD, 4.0, 2000);
+        publisher.publish(LOAD, 4.1, 3000);
+        assertEquals(published, ImmutableList.<Object>of(1.0, 1.6, 4.0));
+    }
+
+    @Test
+    public void testCapDefersRestToNextFlush() {
+        // one value per second, so at most one per one-second window
+        CoalescingSensorPublisher publisher = new CoalescingSensorPublisher(sink, 1000, 1, 0);
+        publisher.publish(LOAD, 1.0, 0);
+        publisher.publish(OTHER, 1.0, 0);
+        publisher.publish(LOAD, 1.1, 100);
+        publisher.publish(OTHER, 1.1, 100);
+        publisher.flush(1000);
+        assertEquals(published, ImmutableList.<Object>of(1.0, 1.0));
+        publisher.flush(2000);
+        assertEquals(published, ImmutableList.<Object>of(1.0, 1.0, 1.1));
+        publisher.flush(3000);
+        assertEquals(published, ImmutableList.<Object>of(1.0, 1.0, 1.1, 1.1));
+        assertEquals(publisher.getHeldCount(), 0);
+    }
+
+}
@@ -0,0 +1,132 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.Entities;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.util.time.Duration;
+
+public class GcCollectorTest {
+
+    public interface CollectorMBean {
+        long getCollectionCount();
+        long getCollectionTime();
+        CompositeData getLastGcInfo();
+    }
+
+    public static class Collector implements CollectorMBean {
+        private static final CompositeType GC_INFO;
+        static {
+            try {
+                GC_INFO = new CompositeType("GcInfo", "last GC", new String[] { "duration" }, new String[] { "duration (ms)" },
+                        new OpenType<?>[] { SimpleType.LONG });
+            } catch (OpenDataException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile long count, time, lastDuration;
+
+        Collector(long count, long time, long lastDuration) {
+            set(count, time, lastDuration);
+        }
+
+        void set(long count, long time, long lastDuration) {
+            this.count = count;
+            this.time = time;
+            this.lastDuration = lastDuration;
+        }
+
+        @Override
+        public long getCollectionCount() {
+            return count;
+        }
+
+        @Override
+        public long getCollectionTime() {
+            return time;
+        }
+
+        @Override
+        public CompositeData getLastGcInfo() {
+            try {
+                return new CompositeDataSupport(GC_INFO, new String[] { "duration" }, new Object[] { lastDuration });
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private TestApplication app;
+    private MBeanServer server;
+    private GcCollector collector;
+    private Collector young, old;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        server = MBeanServerFactory.newMBeanServer();
+        young = new Collector(10, 100, 20);
+        old = new Collector(2, 800, 500);
+        server.registerMBean(new StandardMBean(young, CollectorMBean.class), new ObjectName("java.lang:type=GarbageCollector,name=PS Scavenge"));
+        server.registerMBean(new StandardMBean(old, CollectorMBean.class), new ObjectName("java.lang:type=GarbageCollector,name=PS MarkSweep"));
+        collector = new GcCollector(app, CoalescingSensorPublisher.directTo(app), Duration.ONE_MINUTE);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    /** Polls after a moment, so the samples' times differ. */
+    private boolean poll() throws Exception {
+        Thread.sleep(10);
+        return collector.collect(server);
+    }
+
+    @Test
+    public void testPauseOnlyFromCollectorsWhichCollected() throws Exception {
+        assertTrue(poll());
+
+        // only the young collector has run: the old one's last (long) pause is from before
+        young.set(12, 130, 18);
+        assertTrue(poll());
+        assertEquals(app.getAttribute(OpenGammaServer.GC_PAUSE_MAX), (Long) 18L);
+
+        // nothing since, but the pause is still within the window
+        assertFalse(poll());
+        assertEquals(app.getAttribute(OpenGammaServer.GC_PAUSE_MAX), (Long) 18L);
+
+        old.set(3, 1400, 600);
+        assertTrue(poll());
+        assertEquals(app.getAttribute(OpenGammaServer.GC_PAUSE_MAX), (Long) 600L);
+    }
+
+    @Test
+    public void testPauseIsMeanOverPollWhenLongerThanLastGc() throws Exception {
+        assertTrue(poll());
+        // two collections taking 70ms in all, the last of them 10ms
+        young.set(12, 170, 10);
+        assertTrue(poll());
+        assertEquals(app.getAttribute(OpenGammaServer.GC_PAUSE_MAX), (Long) 35L);
+    }
+
+}
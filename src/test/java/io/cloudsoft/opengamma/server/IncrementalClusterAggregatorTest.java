@@ -0,0 +1,156 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.BasicGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.proxying.EntitySpec;
+import brooklyn.event.AttributeSensor;
+import brooklyn.event.basic.BasicAttributeSensor;
+import brooklyn.test.EntityTestUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+import brooklyn.util.collections.MutableMap;
+import brooklyn.util.time.Duration;
+
+public class IncrementalClusterAggregatorTest {
+
+    private static final AttributeSensor<Double> LOAD = new BasicAttributeSensor<Double>(Double.class, "test.load");
+    private static final AttributeSensor<Double> WEIGHT = new BasicAttributeSensor<Double>(Double.class, "test.weight");
+    private static final AttributeSensor<Double> LOAD_MEAN = new BasicAttributeSensor<Double>(Double.class, "test.load.mean");
+    private static final AttributeSensor<Double> LOAD_PER_MEMBER = new BasicAttributeSensor<Double>(Double.class, "test.load.perMember");
+    private static final AttributeSensor<Double> LOAD_WEIGHTED = new BasicAttributeSensor<Double>(Double.class, "test.load.weighted");
+    private static final AttributeSensor<Double> LOAD_SUM = new BasicAttributeSensor<Double>(Double.class, "test.load.sum");
+    private static final AttributeSensor<Integer> LOAD_SUM_INT = new BasicAttributeSensor<Integer>(Integer.class, "test.load.sum.int");
+    private static final AttributeSensor<Long> LOAD_MAX_LONG = new BasicAttributeSensor<Long>(Long.class, "test.load.max.long");
+
+    private TestApplication app;
+    private TestEntity first, second, third;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        first = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        second = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        third = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    /** A cluster of the three entities, publishing as values change (or coalesced over the given window). */
+    private BasicGroup newCluster(Duration publishWindow, IncrementalClusterAggregator aggregator) {
+        BasicGroup cluster = app.createAndManageChild(EntitySpec.create(BasicGroup.class)
+                .configure(OpenGammaServer.SENSOR_PUBLISH_WINDOW, publishWindow)
+                .configure(OpenGammaServer.SENSOR_PUBLISH_SIGNIFICANT_CHANGE, 0d));
+        cluster.addEnricher(aggregator);
+        cluster.addMember(first);
+        cluster.addMember(second);
+        cluster.addMember(third);
+        return cluster;
+    }
+
+    private static <T> void set(TestEntity member, AttributeSensor<T> sensor, T value) {
+        ((EntityLocal) member).setAttribute(sensor, value);
+    }
+
+    @Test
+    public void testMeanOverMembersCountsNonReportingMembersAsZero() throws Exception {
+        BasicGroup cluster = newCluster(Duration.ZERO, new IncrementalClusterAggregator()
+                .averaging(LOAD, LOAD_MEAN)
+                .averagingOverMembers(LOAD, LOAD_PER_MEMBER));
+        set(first, LOAD, 3d);
+        set(second, LOAD, 6d);
+
+        // the third has not reported
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_MEAN, 4.5d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_PER_MEMBER, 3d);
+
+        set(third, LOAD, 0d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_MEAN, 3d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_PER_MEMBER, 3d);
+    }
+
+    @Test
+    public void testWeightedMeanFallsBackToEqualWeights() throws Exception {
+        BasicGroup cluster = newCluster(Duration.ZERO, new IncrementalClusterAggregator()
+                .weightedAveraging(LOAD, WEIGHT, LOAD_WEIGHTED));
+        set(first, LOAD, 0.5);
+        set(first, WEIGHT, 0d);
+        set(second, LOAD, 1.0);
+        set(second, WEIGHT, 0d);
+
+        // no load anywhere, so the members count equally
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_WEIGHTED, 0.75);
+
+        // the busier member counts for more
+        set(first, WEIGHT, 3d);
+        set(second, WEIGHT, 1d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_WEIGHTED, 0.625);
+    }
+
+    @Test
+    public void testRemovedMembersLeaveMetrics() throws Exception {
+        BasicGroup cluster = newCluster(Duration.ZERO, new IncrementalClusterAggregator()
+                .summing(LOAD, LOAD_SUM)
+                .averagingOverMembers(LOAD, LOAD_PER_MEMBER));
+        set(first, LOAD, 1d);
+        set(second, LOAD, 2d);
+        set(third, LOAD, 6d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_SUM, 9d);
+
+        cluster.removeMember(third);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_SUM, 3d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_PER_MEMBER, 1.5d);
+
+        // a late event from the removed member is ignored
+        set(third, LOAD, 100d);
+        cluster.removeMember(second);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_SUM, 1d);
+
+        cluster.removeMember(first);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_SUM, null);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_PER_MEMBER, null);
+    }
+
+    @Test
+    public void testCoercesToIntegerAndLongTargets() throws Exception {
+        BasicGroup cluster = newCluster(Duration.ZERO, new IncrementalClusterAggregator()
+                .summing(LOAD, LOAD_SUM_INT)
+                .maximising(LOAD, LOAD_MAX_LONG));
+        set(first, LOAD, 2.4);
+        set(second, LOAD, 0.3);
+
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_SUM_INT, 3);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_MAX_LONG, 2L);
+    }
+
+    @Test
+    public void testThresholdAddedAfterEnricherPublishesCrossingAtOnce() throws Exception {
+        IncrementalClusterAggregator aggregator = new IncrementalClusterAggregator().averaging(LOAD, LOAD_MEAN);
+        BasicGroup cluster = newCluster(Duration.of(1, TimeUnit.HOURS), aggregator);
+        set(first, LOAD, 1d);
+        // the first value is published at once
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_MEAN, 1d);
+
+        // a small change waits for the end of the window
+        set(first, LOAD, 1.2);
+        EntityTestUtils.assertAttributeEqualsContinually(MutableMap.of("timeout", 500), cluster, LOAD_MEAN, 1d);
+
+        assertTrue(aggregator.publishes(LOAD_MEAN));
+        aggregator.addThresholds(LOAD_MEAN, 1.5);
+        set(first, LOAD, 1.6);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, LOAD_MEAN, 1.6);
+    }
+
+}
@@ -0,0 +1,54 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import io.cloudsoft.opengamma.server.JvmSizing.GcProfile;
+
+public class JvmSizingTest {
+
+    @Test
+    public void testHeapIsFractionOfMachineMemoryRoundedTo64m() {
+        JvmSizing sizing = new JvmSizing(7982, 2, 0.6, GcProfile.CMS, 0.25, false);
+        assertEquals(sizing.getHeapMb(), 4736);
+        assertEquals(sizing.getYoungGenMb(), 1184);
+        assertEquals(sizing.getMemoryOptions(), "-Xms4736m -Xmx4736m -XX:MaxPermSize=256m -Xmn1184m");
+        assertTrue(sizing.getGcOptions().contains("-XX:+UseConcMarkSweepGC"));
+        assertTrue(sizing.getGcOptions().endsWith("-XX:ParallelGCThreads=2"));
+    }
+
+    @Test
+    public void testSmallMachineGetsMinimumHeap() {
+        JvmSizing sizing = new JvmSizing(600, 1, 0.5, GcProfile.PARALLEL, null, false);
+        assertEquals(sizing.getHeapMb(), JvmSizing.MIN_HEAP_MB);
+        assertEquals(sizing.getYoungGenMb(), 0);
+        assertFalse(sizing.getMemoryOptions().contains("-Xmn"));
+    }
+
+    @Test
+    public void testG1LeavesYoungGenToJvmAndScalesGcThreads() {
+        JvmSizing sizing = new JvmSizing(32768, 16, 0.7, GcProfile.G1, 0.25, true);
+        assertEquals(sizing.getYoungGenMb(), 0);
+        assertEquals(sizing.getGcThreads(), 13);
+        assertTrue(sizing.getMemoryOptions().endsWith("-XX:+UseLargePages"));
+        assertTrue(sizing.getGcOptions().startsWith("-XX:+UseG1GC"));
+    }
+
+    @Test
+    public void testNoGcProfileLeavesCollectorToStartScript() {
+        JvmSizing sizing = new JvmSizing(8192, 4, 0.5, null, 0.25, false);
+        assertEquals(sizing.getHeapMb(), 4096);
+        assertEquals(sizing.getYoungGenMb(), 0);
+        assertNull(sizing.getGcOptions());
+        assertEquals(sizing.getJvmOptions(), "-Xms4096m -Xmx4096m -XX:MaxPermSize=256m");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsHeapFractionOutOfRange() {
+        new JvmSizing(8192, 2, 1.5, GcProfile.CMS, null, false);
+    }
+}
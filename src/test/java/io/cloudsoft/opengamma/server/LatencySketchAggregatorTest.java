@@ -0,0 +1,68 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.BasicGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.proxying.EntitySpec;
+import brooklyn.test.EntityTestUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+
+import com.google.common.collect.ImmutableMap;
+
+public class LatencySketchAggregatorTest {
+
+    private TestApplication app;
+    private BasicGroup cluster;
+    private TestEntity first, second;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        cluster = app.createAndManageChild(EntitySpec.create(BasicGroup.class));
+        first = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        second = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        cluster.addEnricher(new LatencySketchAggregator());
+        cluster.addMember(first);
+        cluster.addMember(second);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    private static void setSketch(TestEntity member, Map<Integer, Long> sketch) {
+        ((EntityLocal) member).setAttribute(OpenGammaServer.REQUEST_LATENCY_SKETCH, sketch);
+    }
+
+    @Test
+    public void testMergeFollowsMembersSketches() throws Exception {
+        setSketch(first, ImmutableMap.of(3, 10L, 5, 2L));
+        setSketch(second, ImmutableMap.of(5, 1L, 9, 4L));
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_SKETCH,
+                ImmutableMap.<Integer, Long>of(3, 10L, 5, 3L, 9, 4L));
+
+        setSketch(first, ImmutableMap.of(3, 12L));
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_SKETCH,
+                ImmutableMap.<Integer, Long>of(3, 12L, 5, 1L, 9, 4L));
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_P99,
+                LatencySketches.percentile(ImmutableMap.<Integer, Long>of(3, 12L, 5, 1L, 9, 4L), 0.99));
+
+        cluster.removeMember(second);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_SKETCH,
+                ImmutableMap.<Integer, Long>of(3, 12L));
+
+        cluster.removeMember(first);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_SKETCH, null);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.REQUEST_LATENCY_P95, null);
+    }
+
+}
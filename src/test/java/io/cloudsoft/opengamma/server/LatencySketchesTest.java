@@ -0,0 +1,56 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import io.cloudsoft.opengamma.jetty.LatencyHistogram;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class LatencySketchesTest {
+
+    @Test
+    public void testMergedPercentileKeepsSlowServersTail() {
+        LatencyHistogram fast = new LatencyHistogram();
+        for (int i = 0; i < 900; i++) fast.record(2000);
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) slow.record(500000);
+
+        Map<Integer, Long> merged = LatencySketches.merge(Arrays.asList(
+                LatencySketches.parse(fast.getLatencySketch()), null, LatencySketches.parse(slow.getLatencySketch())));
+        assertEquals(LatencySketches.percentile(merged, 0.5), fast.getLatencyP50());
+        // a tenth of all requests were slow, so the 95th percentile is the slow server's
+        assertEquals(LatencySketches.percentile(merged, 0.95), slow.getLatencyP95());
+    }
+
+    @Test
+    public void testAddToKeepsMergeAsSketchChanges() {
+        Map<Integer, Long> first = ImmutableMap.of(3, 10L, 5, 2L);
+        Map<Integer, Long> second = ImmutableMap.of(5, 1L, 9, 4L);
+        Map<Integer, Long> total = Maps.newTreeMap();
+        LatencySketches.addTo(total, first, 1);
+        LatencySketches.addTo(total, second, 1);
+        assertEquals(total, LatencySketches.merge(Arrays.asList(first, second)));
+
+        // the first server's sketch changes: take away its old counts, add its new
+        Map<Integer, Long> changed = ImmutableMap.of(3, 12L);
+        LatencySketches.addTo(total, first, -1);
+        LatencySketches.addTo(total, changed, 1);
+        assertEquals(total, LatencySketches.merge(Arrays.asList(changed, second)));
+        assertEquals(total, ImmutableMap.of(3, 12L, 5, 1L, 9, 4L));
+    }
+
+    @Test
+    public void testNoRequestsGivesNull() {
+        assertNull(LatencySketches.merge(Arrays.<Map<Integer, Long>>asList(null, null)));
+        assertNull(LatencySketches.percentile(LatencySketches.parse(""), 0.95));
+        assertNull(LatencySketches.percentile(null, 0.95));
+    }
+
+}
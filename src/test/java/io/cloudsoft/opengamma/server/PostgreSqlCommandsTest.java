@@ -0,0 +1,55 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PostgreSqlCommandsTest {
+
+    @Test
+    public void testParsesLoadStatsLine() {
+        Map<String, Double> stats = PostgreSqlCommands.parseLoadStats("3|12|100|456789|98000|2000|1|0.25\n");
+        assertEquals(ImmutableList.copyOf(stats.keySet()), PostgreSqlCommands.LOAD_STATS_COLUMNS);
+        assertEquals(stats.get("activeConnections"), 3d);
+        assertEquals(stats.get("maxConnections"), 100d);
+        assertEquals(stats.get("transactions"), 456789d);
+        assertEquals(stats.get("longestQuery"), 0.25);
+    }
+
+    @Test
+    public void testEmptyOutputHasNoStats() {
+        assertTrue(PostgreSqlCommands.parseLoadStats("").isEmpty());
+        assertTrue(PostgreSqlCommands.parseLoadStats("\n").isEmpty());
+        assertTrue(PostgreSqlCommands.parseLoadStats(null).isEmpty());
+    }
+
+    @Test
+    public void testSkipsHeaderAndFooterLines() {
+        String output = "?column?|?column?|?column?|?column?|?column?|?column?|?column?|?column?\n" +
+                "3|12|100|456789|98000|2000|1|0\n" +
+                "(1 row)\n";
+        Map<String, Double> stats = PostgreSqlCommands.parseLoadStats(output);
+        assertEquals(stats.get("idleConnections"), 12d);
+        assertEquals(stats.get("lockWaits"), 1d);
+
+        assertTrue(PostgreSqlCommands.parseLoadStats("?column?|?column?|?column?|?column?|?column?|?column?|?column?|?column?\n(0 rows)").isEmpty());
+        assertTrue(PostgreSqlCommands.parseLoadStats("psql: could not connect to server: Connection refused\n").isEmpty());
+    }
+
+    @Test
+    public void testEmptyValuesOmitted() {
+        // sums over no rows are null, printed as nothing
+        Map<String, Double> stats = PostgreSqlCommands.parseLoadStats("0|1|100|||||0\r\n");
+        assertEquals(stats.get("activeConnections"), 0d);
+        assertNull(stats.get("transactions"));
+        assertFalse(stats.containsKey("blocksHit"));
+    }
+
+}
@@ -0,0 +1,90 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import io.cloudsoft.opengamma.server.IncrementalClusterAggregator.Computation;
+
+import org.testng.annotations.Test;
+
+public class RunningStatsTest {
+
+    @Test
+    public void testUpdatesAsMembersChange() {
+        RunningStats stats = new RunningStats();
+        assertTrue(stats.put("a", 2d));
+        assertTrue(stats.put("b", 6d));
+        assertEquals(stats.sum(), 8d);
+        assertEquals(stats.mean(), 4d);
+        assertEquals(stats.max(), 6d);
+
+        assertFalse(stats.put("b", 6d));
+        assertTrue(stats.put("b", 1d));
+        assertEquals(stats.sum(), 3d);
+        assertEquals(stats.min(), 1d);
+        assertEquals(stats.max(), 2d);
+
+        assertTrue(stats.put("a", null));
+        assertEquals(stats.count(), 1);
+        assertTrue(stats.remove("b"));
+        assertFalse(stats.remove("b"));
+        assertEquals(stats.sum(), 0d);
+        assertNull(stats.mean());
+        assertNull(stats.max());
+    }
+
+    @Test
+    public void testPercentileAndMaxMember() {
+        RunningStats stats = new RunningStats();
+        assertNull(stats.percentile(0.95));
+        assertNull(stats.maxMember());
+        stats.put("a", 200d);
+        stats.put("b", 1500d);
+        stats.put("c", 400d);
+        stats.put("d", 400d);
+        assertEquals(stats.percentile(0.5), 400d);
+        assertEquals(stats.percentile(0.95), 1500d);
+        assertEquals(stats.percentile(0), 200d);
+        assertEquals(stats.maxMember(), "b");
+    }
+
+    @Test
+    public void testSumDoesNotDrift() {
+        RunningStats stats = new RunningStats();
+        stats.put("a", 1d);
+        for (int i = 0; i < 5000; i++) {
+            stats.put("b", 0.1 * (i % 7));
+        }
+        stats.put("b", 0.3);
+        assertEquals(stats.sum(), 1.3, 1e-12);
+    }
+
+    @Test
+    public void testComputations() {
+        RunningStats stats = new RunningStats();
+        assertNull(IncrementalClusterAggregator.compute(stats, Computation.SUM, 2));
+        stats.put("a", 3d);
+        assertEquals(IncrementalClusterAggregator.compute(stats, Computation.MEAN, 2), 3d);
+        // members not reporting count as 0
+        assertEquals(IncrementalClusterAggregator.compute(stats, Computation.MEAN_OVER_MEMBERS, 2), 1.5d);
+        assertEquals(IncrementalClusterAggregator.coerce(2.6d, Integer.class), 3);
+        assertEquals(IncrementalClusterAggregator.coerce(2.6d, Long.class), 3L);
+        assertEquals(IncrementalClusterAggregator.coerce(2.6d, Double.class), 2.6d);
+    }
+
+    @Test
+    public void testWeightedMean() {
+        // a busy member's value counts for more
+        RunningStats values = new RunningStats(), products = new RunningStats(), weights = new RunningStats();
+        values.put("a", 0.1); products.put("a", 0.1 * 90); weights.put("a", 90d);
+        values.put("b", 1.0); products.put("b", 1.0 * 10); weights.put("b", 10d);
+        assertEquals(IncrementalClusterAggregator.weightedMean(values, products, weights), 0.19, 1e-9);
+        // no load anywhere weights equally
+        products.put("a", 0d); weights.put("a", 0d);
+        products.put("b", 0d); weights.put("b", 0d);
+        assertEquals(IncrementalClusterAggregator.weightedMean(values, products, weights), 0.55, 1e-9);
+    }
+
+}
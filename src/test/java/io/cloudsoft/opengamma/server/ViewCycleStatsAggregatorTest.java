@@ -0,0 +1,82 @@
+package io.cloudsoft.opengamma.server;
+
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.BasicGroup;
+import brooklyn.entity.basic.Entities;
+import brooklyn.entity.basic.EntityLocal;
+import brooklyn.entity.proxying.EntitySpec;
+import brooklyn.test.EntityTestUtils;
+import brooklyn.test.entity.TestApplication;
+import brooklyn.test.entity.TestEntity;
+
+import com.google.common.collect.ImmutableMap;
+
+public class ViewCycleStatsAggregatorTest {
+
+    private TestApplication app;
+    private BasicGroup cluster;
+    private TestEntity first, second;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        cluster = app.createAndManageChild(EntitySpec.create(BasicGroup.class));
+        first = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        second = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        cluster.addEnricher(new ViewCycleStatsAggregator());
+        cluster.addMember(first);
+        cluster.addMember(second);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    private static Map<String, Double> view(double duration, double rate) {
+        return ImmutableMap.of(ViewCycleStats.CYCLE_DURATION, duration, ViewCycleStats.CYCLES_PER_SECOND, rate);
+    }
+
+    private static void setStats(TestEntity member, Map<String, Map<String, Double>> stats) {
+        ((EntityLocal) member).setAttribute(OpenGammaServer.VIEW_CYCLE_STATS, stats);
+    }
+
+    @Test
+    public void testRollsUpAcrossMembersViews() throws Exception {
+        setStats(first, ImmutableMap.of("equity", view(200, 2), "swaps", view(1500, 0.5)));
+        setStats(second, ImmutableMap.of("bonds", view(400, 1)));
+
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLES_PER_SECOND, 3.5d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLE_DURATION_MAX, 1500d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLE_DURATION_P95, 1500d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_SLOWEST, "swaps");
+
+        // a view dropped from a member's map is dropped from the roll-ups
+        setStats(first, ImmutableMap.of("equity", view(200, 2)));
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_SLOWEST, "bonds");
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLE_DURATION_MAX, 400d);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLES_PER_SECOND, 3d);
+    }
+
+    @Test
+    public void testRemovedMembersViewsDropped() throws Exception {
+        setStats(first, ImmutableMap.of("equity", view(200, 2)));
+        setStats(second, ImmutableMap.of("bonds", view(400, 1)));
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_SLOWEST, "bonds");
+
+        cluster.removeMember(second);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_SLOWEST, "equity");
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLE_DURATION_P95, 200d);
+
+        cluster.removeMember(first);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLE_DURATION_MAX, null);
+        EntityTestUtils.assertAttributeEqualsEventually(cluster, OpenGammaServer.VIEW_CYCLES_PER_SECOND, null);
+    }
+
+}
@@ -0,0 +1,40 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ViewCycleStatsTest {
+
+    private static Map<String, Double> view(double duration, double rate) {
+        return ImmutableMap.of(ViewCycleStats.CYCLE_DURATION, duration, ViewCycleStats.CYCLES_PER_SECOND, rate);
+    }
+
+    @Test
+    public void testRollsUpAcrossServersViews() {
+        List<Map<String, Map<String, Double>>> servers = ImmutableList.<Map<String, Map<String, Double>>>of(
+                ImmutableMap.of("equity", view(200, 2), "swaps", view(1500, 0.5)),
+                ImmutableMap.of("bonds", view(400, 1)));
+        assertEquals(ViewCycleStats.maxOf(ViewCycleStats.CYCLE_DURATION).apply(servers), 1500d);
+        assertEquals(ViewCycleStats.sumOf(ViewCycleStats.CYCLES_PER_SECOND).apply(servers), 3.5d);
+        assertEquals(ViewCycleStats.percentileOf(ViewCycleStats.CYCLE_DURATION, 0.5).apply(servers), 400d);
+        assertEquals(ViewCycleStats.slowestView().apply(servers), "swaps");
+    }
+
+    @Test
+    public void testNoViewsGivesNull() {
+        List<Map<String, Map<String, Double>>> servers = ImmutableList.<Map<String, Map<String, Double>>>of(
+                ImmutableMap.<String, Map<String, Double>>of());
+        assertNull(ViewCycleStats.maxOf(ViewCycleStats.GRAPH_BUILD_TIME).apply(servers));
+        assertNull(ViewCycleStats.percentileOf(ViewCycleStats.CYCLE_DURATION, 0.95).apply(servers));
+        assertNull(ViewCycleStats.slowestView().apply(servers));
+    }
+
+}
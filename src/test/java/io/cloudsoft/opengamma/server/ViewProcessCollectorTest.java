@@ -0,0 +1,121 @@
+package io.cloudsoft.opengamma.server;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.entity.basic.ApplicationBuilder;
+import brooklyn.entity.basic.Entities;
+import brooklyn.test.entity.TestApplication;
+
+public class ViewProcessCollectorTest {
+
+    public interface ViewStatsMBean {
+        long getProcessedGraphs();
+        long getLastActualTime();
+        long getLastGraphBuildTime();
+    }
+
+    public static class ViewStats implements ViewStatsMBean {
+        volatile long processedGraphs;
+        volatile long lastActualTime;
+
+        ViewStats(long processedGraphs, long lastActualTime) {
+            this.processedGraphs = processedGraphs;
+            this.lastActualTime = lastActualTime;
+        }
+
+        @Override
+        public long getProcessedGraphs() {
+            return processedGraphs;
+        }
+
+        @Override
+        public long getLastActualTime() {
+            return lastActualTime;
+        }
+
+        @Override
+        public long getLastGraphBuildTime() {
+            return 5;
+        }
+    }
+
+    private TestApplication app;
+    private MBeanServer server;
+    private ViewProcessCollector collector;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        app = ApplicationBuilder.newManagedApp(TestApplication.class);
+        server = MBeanServerFactory.newMBeanServer();
+        collector = new ViewProcessCollector(app, CoalescingSensorPublisher.directTo(app),
+                OpenGammaServer.VIEW_STATS_MBEAN_PATTERN.getDefaultValue(), OpenGammaServer.VIEW_STATS_ATTRIBUTES.getDefaultValue());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (app != null) Entities.destroyAll(app.getManagementContext());
+    }
+
+    private ObjectName register(String keys, ViewStats stats) throws Exception {
+        ObjectName name = new ObjectName("com.opengamma:type=ViewProcessor,"+keys);
+        server.registerMBean(new StandardMBean(stats, ViewStatsMBean.class), name);
+        return name;
+    }
+
+    @Test
+    public void testMBeansOfOneViewProcessAreKeptApart() throws Exception {
+        ObjectName first = register("ViewProcess=vp-1,CalcConfig=Default", new ViewStats(10, 200));
+        ObjectName second = register("ViewProcess=vp-1,CalcConfig=Bumped", new ViewStats(4, 900));
+        register("ViewProcess=vp-2,name=other", new ViewStats(1, 50));
+        // matches the pattern but has none of the attributes
+        Runnable none = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        server.registerMBean(new StandardMBean(none, Runnable.class), new ObjectName("com.opengamma:type=ViewProcessor,ViewProcess=vp-3"));
+
+        assertTrue(collector.collect(server));
+
+        Map<String, Map<String, Double>> stats = app.getAttribute(OpenGammaServer.VIEW_CYCLE_STATS);
+        assertEquals(stats.size(), 3);
+        assertEquals(stats.get(first.getCanonicalName()).get(ViewCycleStats.CYCLE_DURATION), 200d);
+        assertEquals(stats.get(second.getCanonicalName()).get(ViewCycleStats.CYCLE_DURATION), 900d);
+        assertEquals(stats.get(second.getCanonicalName()).get(ViewCycleStats.GRAPH_BUILD_TIME), 5d);
+        assertEquals(app.getAttribute(OpenGammaServer.VIEW_CYCLE_DURATION_MAX), 900d);
+        assertEquals(app.getAttribute(OpenGammaServer.VIEW_SLOWEST), second.getCanonicalName());
+    }
+
+    @Test
+    public void testChangeReportedOnlyWhenCyclesComplete() throws Exception {
+        ViewStats view = new ViewStats(10, 200);
+        ObjectName name = register("ViewProcess=vp-1", view);
+
+        assertTrue(collector.collect(server));
+        assertFalse(collector.collect(server));
+
+        view.processedGraphs = 12;
+        view.lastActualTime = 250;
+        assertTrue(collector.collect(server));
+        assertEquals(app.getAttribute(OpenGammaServer.VIEW_CYCLE_DURATION_MAX), 250d);
+
+        server.unregisterMBean(name);
+        assertTrue(collector.collect(server));
+        assertTrue(app.getAttribute(OpenGammaServer.VIEW_CYCLE_STATS).isEmpty());
+        assertEquals(app.getAttribute(OpenGammaServer.VIEW_CYCLE_DURATION_MAX), null);
+    }
+
+}